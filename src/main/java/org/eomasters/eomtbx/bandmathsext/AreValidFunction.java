@@ -53,16 +53,19 @@ class AreValidFunction extends B {
   @Override
   public boolean evalB(EvalEnv env, Term[] args) throws EvalException {
     RasterDataEvalEnv dataEvalEnv = (RasterDataEvalEnv) env;
-    for (Term arg : args) {
-      RasterDataNode raster = TermUtils.getRaster(arg);
-      if (raster == null) {
-        throw new EvalException("Arguments of areValid() must reference raster");
-      }
-      boolean pixelValid = raster.isPixelValid(dataEvalEnv.getPixelX(), dataEvalEnv.getPixelY());
-      if (!pixelValid) {
-        return false;
+    TileCache cache = TileCache.get(dataEvalEnv);
+    PackedValidMask validMask = cache.lookup(args, 0, PackedValidMask.class);
+    if (validMask == null) {
+      // the masks of all rasters are combined once per target tile
+      validMask = PackedValidMask.ALL_VALID;
+      for (RasterDataNode raster : ArgumentRasters.get(args, env)) {
+        if (raster == null) {
+          throw new EvalException("Arguments of areValid() must reference raster");
+        }
+        validMask = validMask.and(cache.getValidMask(raster));
       }
+      cache.put(args, 0, PackedValidMask.class, validMask);
     }
-    return true;
+    return validMask.isValid(cache.getLevelIndex(dataEvalEnv));
   }
 }
@@ -0,0 +1,92 @@
+/*-
+ * ========================LICENSE_START=================================
+ * EOMTBX - EOMasters Toolbox Basic for SNAP
+ * -> https://www.eomasters.org/sw/EOMTBX
+ * ======================================================================
+ * Copyright (C) 2023 - 2025 Marco Peters
+ * ======================================================================
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * -> http://www.gnu.org/licenses/gpl-3.0.html
+ * =========================LICENSE_END==================================
+ */
+
+package org.eomasters.eomtbx.bandmathsext;
+
+import org.esa.snap.core.datamodel.RasterDataNode;
+import org.esa.snap.core.dataop.barithm.RasterDataEvalEnv;
+import org.esa.snap.core.jexp.EvalEnv;
+import org.esa.snap.core.jexp.Term;
+
+/**
+ * Resolves the rasters referenced by the arguments of a function. Functions are shared between all expressions and
+ * do not get notified when they are bound to their arguments. Therefore, the rasters are resolved once per target
+ * tile and kept in the {@link TileCache}. The evaluation of a pixel only needs a lookup in the cache and does not
+ * allocate.
+ *
+ * @author Marco Peters
+ */
+final class ArgumentRasters {
+
+  private ArgumentRasters() {
+  }
+
+  /**
+   * Returns the rasters referenced by the arguments. The returned array has the same length as the arguments. For
+   * arguments which do not reference a raster the element is {@code null}.
+   *
+   * @param args the arguments of the function
+   * @param env  the evaluation environment
+   * @return the referenced rasters
+   */
+  static RasterDataNode[] get(Term[] args, EvalEnv env) {
+    TileCache cache = TileCache.get((RasterDataEvalEnv) env);
+    RasterDataNode[] rasters = cache.lookup(args, 0, ArgumentRasters.class);
+    if (rasters == null) {
+      rasters = resolve(args);
+      cache.put(args, 0, ArgumentRasters.class, rasters);
+    }
+    return rasters;
+  }
+
+  /**
+   * Resolves the rasters referenced by the arguments without caching them.
+   *
+   * @param args the arguments of the function
+   * @return the referenced rasters, {@code null} for arguments which do not reference a raster
+   */
+  static RasterDataNode[] resolve(Term[] args) {
+    RasterDataNode[] rasters = new RasterDataNode[args.length];
+    for (int i = 0; i < args.length; i++) {
+      rasters[i] = TermUtils.getRaster(args[i]);
+    }
+    return rasters;
+  }
+
+  /**
+   * Checks if the pixel of the current evaluation is valid in the raster. The valid mask is taken from the
+   * {@link TileCache}. If the raster is {@code null} the pixel is considered valid.
+   *
+   * @param raster the raster, can be {@code null}
+   * @param env    the evaluation environment
+   * @return {@code true} if the pixel is valid
+   */
+  static boolean isPixelValid(RasterDataNode raster, EvalEnv env) {
+    if (raster == null) {
+      return true; // okay, not a raster
+    }
+    RasterDataEvalEnv dataEvalEnv = (RasterDataEvalEnv) env;
+    TileCache cache = TileCache.get(dataEvalEnv);
+    return cache.getValidMask(raster).isValid(cache.getLevelIndex(dataEvalEnv));
+  }
+}
@@ -24,6 +24,7 @@
 package org.eomasters.eomtbx.bandmathsext;
 
 import java.util.List;
+import org.eomasters.eomtbx.bandmathsext.MapPosSymbol.RasterSymbol;
 import org.eomasters.eomtbx.bandmathsext.MapPosSymbol.SymbolMapX;
 import org.eomasters.eomtbx.bandmathsext.MapPosSymbol.SymbolMapY;
 import org.esa.snap.core.datamodel.Product;
@@ -41,20 +42,54 @@ public class BandMathsExtender implements ProductNamespaceExtender {
     List<RasterDataNode> rasterDataNodes = product.getRasterDataNodes();
     for (RasterDataNode rasterDataNode : rasterDataNodes) {
       namespace.registerSymbol(new ValidSymbol(namePrefix, rasterDataNode));
+      namespace.registerSymbol(RasterSymbol.mapX(namePrefix, rasterDataNode));
+      namespace.registerSymbol(RasterSymbol.mapY(namePrefix, rasterDataNode));
+      namespace.registerSymbol(RasterSymbol.lat(namePrefix, rasterDataNode));
+      namespace.registerSymbol(RasterSymbol.lon(namePrefix, rasterDataNode));
     }
     namespace.registerSymbol(new SymbolMapX(product.getSceneGeoCoding(), product.getSceneRasterSize()));
     namespace.registerSymbol(new SymbolMapY(product.getSceneGeoCoding(), product.getSceneRasterSize()));
 
     namespace.registerFunction(new WindowFunctions());
+    namespace.registerFunction(WindowPairFunctions.COVARIANCE);
+    namespace.registerFunction(WindowPairFunctions.CORRELATION);
+    namespace.registerFunction(new ConvolutionFunction());
+    namespace.registerFunction(new PixelFunction());
+    namespace.registerFunction(GradientFunctions.SOBEL_X);
+    namespace.registerFunction(GradientFunctions.SOBEL_Y);
+    namespace.registerFunction(GradientFunctions.GRADIENT_MAGNITUDE);
+    namespace.registerFunction(GradientFunctions.SLOPE);
+    namespace.registerFunction(GradientFunctions.ASPECT);
+    namespace.registerFunction(new DistanceFunction());
+    namespace.registerFunction(MorphologyFunctions.DILATE);
+    namespace.registerFunction(MorphologyFunctions.ERODE);
+    namespace.registerFunction(MorphologyFunctions.OPEN);
+    namespace.registerFunction(MorphologyFunctions.CLOSE);
     namespace.registerFunction(new StxFunctions());
+    namespace.registerFunction(new ZonalFunction());
 
     namespace.registerFunction(new AreValidFunction());
+    namespace.registerFunction(LookupFunctions.LUT);
+    namespace.registerFunction(LookupFunctions.CLASSIFY);
 
     namespace.registerFunction(MultiInputFunctions.MIN);
     namespace.registerFunction(MultiInputFunctions.MAX);
     namespace.registerFunction(MultiInputFunctions.MEAN);
+    namespace.registerFunction(MultiInputFunctions.MEDIAN);
+    namespace.registerFunction(MultiInputFunctions.PERCENTILE);
+    namespace.registerFunction(MultiInputFunctions.STD);
+    namespace.registerFunction(MultiInputFunctions.SUM);
+    namespace.registerFunction(MultiInputFunctions.COUNT_VALID);
+    namespace.registerFunction(MultiInputFunctions.FIRST_VALID);
     namespace.registerFunction(MultiInputFunctions.INDEX_OF_MIN);
     namespace.registerFunction(MultiInputFunctions.INDEX_OF_MAX);
+
+    if (namePrefix.isEmpty()) {
+      // the bands of the indices are selected from the default product
+      for (SpectralIndex index : SpectralIndex.ALL) {
+        namespace.registerFunction(new SpectralIndexFunction(product, index));
+      }
+    }
   }
 
 }
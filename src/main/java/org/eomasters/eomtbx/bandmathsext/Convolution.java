@@ -0,0 +1,238 @@
+/*-
+ * ========================LICENSE_START=================================
+ * EOMTBX - EOMasters Toolbox Basic for SNAP
+ * -> https://www.eomasters.org/sw/EOMTBX
+ * ======================================================================
+ * Copyright (C) 2023 - 2025 Marco Peters
+ * ======================================================================
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * -> http://www.gnu.org/licenses/gpl-3.0.html
+ * =========================LICENSE_END==================================
+ */
+
+package org.eomasters.eomtbx.bandmathsext;
+
+import java.awt.Rectangle;
+
+/**
+ * Applies a {@link Kernel} to all pixels of a target region. Invalid pixels are handled by normalised convolution:
+ * the weighted sum of the valid pixels is divided by the sum of their weights and scaled to the sum of all weights.
+ * Kernels with a sum of zero cannot be normalised, for them the result is NaN if the window contains an invalid pixel.
+ *
+ * <p>Separable kernels are applied in two one-dimensional passes. Other kernels are applied directly up to the size
+ * {@value #MAX_DIRECT_SIZE} and by FFT for larger sizes. With all methods an infinite sample only affects the
+ * windows containing it.</p>
+ *
+ * @author Marco Peters
+ */
+final class Convolution {
+
+  static final int MAX_DIRECT_SIZE = 11;
+
+  private Convolution() {
+  }
+
+  /**
+   * Convolves the source tile with the kernel for each pixel of the region.
+   *
+   * @param tile   the source tile, its halo must be at least half the kernel size
+   * @param region the target region
+   * @param kernel the kernel
+   * @return the results for the region, stored row by row
+   */
+  static double[] compute(SourceTile tile, Rectangle region, Kernel kernel) {
+    if (kernel.isSeparable()) {
+      return computeSeparable(tile, region, kernel);
+    }
+    if (kernel.getSize() <= MAX_DIRECT_SIZE) {
+      return computeDirect(tile, region, kernel);
+    }
+    return computeFft(tile, region, kernel);
+  }
+
+  static double[] computeSeparable(SourceTile tile, Rectangle region, Kernel kernel) {
+    int size = kernel.getSize();
+    int halo = size / 2;
+    double[] rowWeights = kernel.getRowWeights();
+    double[] columnWeights = kernel.getColumnWeights();
+    double[] samples = tile.getSamples();
+    int tileWidth = tile.getWidth();
+    int firstRow = region.y - halo - tile.getY();
+    int firstCol = region.x - halo - tile.getX();
+    int numRows = region.height + 2 * halo;
+
+    // row pass over all rows needed by the column pass
+    double[] rowNum = new double[numRows * region.width];
+    double[] rowDen = new double[numRows * region.width];
+    for (int j = 0; j < numRows; j++) {
+      int offset = (firstRow + j) * tileWidth + firstCol;
+      for (int i = 0; i < region.width; i++) {
+        double num = 0;
+        double den = 0;
+        for (int k = 0; k < size; k++) {
+          double value = samples[offset + i + k];
+          if (!Double.isNaN(value)) {
+            num += rowWeights[k] * value;
+            den += rowWeights[k];
+          }
+        }
+        rowNum[j * region.width + i] = num;
+        rowDen[j * region.width + i] = den;
+      }
+    }
+
+    // column pass
+    double[] num = new double[region.width * region.height];
+    double[] den = new double[region.width * region.height];
+    for (int j = 0; j < region.height; j++) {
+      for (int i = 0; i < region.width; i++) {
+        double n = 0;
+        double d = 0;
+        for (int k = 0; k < size; k++) {
+          int index = (j + k) * region.width + i;
+          n += columnWeights[k] * rowNum[index];
+          d += columnWeights[k] * rowDen[index];
+        }
+        num[j * region.width + i] = n;
+        den[j * region.width + i] = d;
+      }
+    }
+    return finish(tile, region, kernel, num, den);
+  }
+
+  static double[] computeDirect(SourceTile tile, Rectangle region, Kernel kernel) {
+    double[] num = new double[region.width * region.height];
+    double[] den = new double[region.width * region.height];
+    for (int j = 0; j < region.height; j++) {
+      for (int i = 0; i < region.width; i++) {
+        convolveDirect(tile, region.x + i, region.y + j, kernel, num, den, j * region.width + i);
+      }
+    }
+    return finish(tile, region, kernel, num, den);
+  }
+
+  // computes the weighted sum of the valid samples and the sum of their weights for the window around the pixel
+  private static void convolveDirect(SourceTile tile, int x, int y, Kernel kernel, double[] num, double[] den,
+      int index) {
+    int size = kernel.getSize();
+    int halo = size / 2;
+    double[] weights = kernel.getWeights();
+    double[] samples = tile.getSamples();
+    int tileWidth = tile.getWidth();
+    int firstRow = y - halo - tile.getY();
+    int firstCol = x - halo - tile.getX();
+    double n = 0;
+    double d = 0;
+    for (int kj = 0; kj < size; kj++) {
+      int offset = (firstRow + kj) * tileWidth + firstCol;
+      for (int ki = 0; ki < size; ki++) {
+        double value = samples[offset + ki];
+        if (!Double.isNaN(value)) {
+          double weight = weights[kj * size + ki];
+          n += weight * value;
+          d += weight;
+        }
+      }
+    }
+    num[index] = n;
+    den[index] = d;
+  }
+
+  // The weighted values are the real part and the weights of the valid pixels the imaginary part of the input, so
+  // both sums are obtained by one forward and one inverse transform. Infinite samples would spread over the whole
+  // tile, so they are left out and the windows containing them are convolved directly.
+  static double[] computeFft(SourceTile tile, Rectangle region, Kernel kernel) {
+    int fftWidth = Fft.nextPowerOfTwo(tile.getWidth());
+    int fftHeight = Fft.nextPowerOfTwo(tile.getHeight());
+    double[] re = new double[fftWidth * fftHeight];
+    double[] im = new double[fftWidth * fftHeight];
+    double[] samples = tile.getSamples();
+    boolean hasInfinities = false;
+    for (int y = 0; y < tile.getHeight(); y++) {
+      for (int x = 0; x < tile.getWidth(); x++) {
+        double value = samples[y * tile.getWidth() + x];
+        if (Double.isInfinite(value)) {
+          hasInfinities = true;
+        } else if (!Double.isNaN(value)) {
+          re[y * fftWidth + x] = value;
+          im[y * fftWidth + x] = 1;
+        }
+      }
+    }
+    Fft.transform2D(re, im, fftWidth, fftHeight, false);
+    double[][] spectrum = kernel.getSpectrum(fftWidth, fftHeight);
+    double[] kernelRe = spectrum[0];
+    double[] kernelIm = spectrum[1];
+    for (int i = 0; i < re.length; i++) {
+      double r = re[i] * kernelRe[i] - im[i] * kernelIm[i];
+      im[i] = re[i] * kernelIm[i] + im[i] * kernelRe[i];
+      re[i] = r;
+    }
+    Fft.transform2D(re, im, fftWidth, fftHeight, true);
+
+    double[] num = new double[region.width * region.height];
+    double[] den = new double[region.width * region.height];
+    for (int j = 0; j < region.height; j++) {
+      int offset = (region.y + j - tile.getY()) * fftWidth + (region.x - tile.getX());
+      for (int i = 0; i < region.width; i++) {
+        num[j * region.width + i] = re[offset + i];
+        den[j * region.width + i] = im[offset + i];
+      }
+    }
+    if (hasInfinities) {
+      convolveInfiniteWindows(tile, region, kernel, num, den);
+    }
+    return finish(tile, region, kernel, num, den);
+  }
+
+  private static void convolveInfiniteWindows(SourceTile tile, Rectangle region, Kernel kernel, double[] num,
+      double[] den) {
+    int halo = kernel.getSize() / 2;
+    IntegralImage integralImage = IntegralImage.create(tile);
+    for (int j = 0; j < region.height; j++) {
+      int y = region.y + j;
+      for (int i = 0; i < region.width; i++) {
+        int x = region.x + i;
+        if (integralImage.hasInfinities(x - halo, y - halo, x + halo, y + halo)) {
+          convolveDirect(tile, x, y, kernel, num, den, j * region.width + i);
+        }
+      }
+    }
+  }
+
+  private static double[] finish(SourceTile tile, Rectangle region, Kernel kernel, double[] num, double[] den) {
+    int halo = kernel.getSize() / 2;
+    int windowArea = kernel.getSize() * kernel.getSize();
+    IntegralImage integralImage = IntegralImage.create(tile);
+    double[] result = new double[region.width * region.height];
+    for (int j = 0; j < region.height; j++) {
+      int y = region.y + j;
+      for (int i = 0; i < region.width; i++) {
+        int x = region.x + i;
+        int index = j * region.width + i;
+        int count = integralImage.getCount(x - halo, y - halo, x + halo, y + halo);
+        if (count == 0) {
+          result[index] = Double.NaN;
+        } else if (kernel.isZeroSum()) {
+          result[index] = count == windowArea ? num[index] : Double.NaN;
+        } else if (count == windowArea) {
+          result[index] = num[index];
+        } else {
+          result[index] = den[index] != 0 ? num[index] / den[index] * kernel.getSum() : Double.NaN;
+        }
+      }
+    }
+    return result;
+  }
+}
@@ -0,0 +1,86 @@
+/*-
+ * ========================LICENSE_START=================================
+ * EOMTBX - EOMasters Toolbox Basic for SNAP
+ * -> https://www.eomasters.org/sw/EOMTBX
+ * ======================================================================
+ * Copyright (C) 2023 - 2025 Marco Peters
+ * ======================================================================
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * -> http://www.gnu.org/licenses/gpl-3.0.html
+ * =========================LICENSE_END==================================
+ */
+
+package org.eomasters.eomtbx.bandmathsext;
+
+import org.esa.snap.core.datamodel.RasterDataNode;
+import org.esa.snap.core.dataop.barithm.RasterDataEvalEnv;
+import org.esa.snap.core.jexp.EvalEnv;
+import org.esa.snap.core.jexp.EvalException;
+import org.esa.snap.core.jexp.Term;
+import org.esa.snap.core.jexp.impl.AbstractFunction.D;
+
+/**
+ * Convolves a raster with a kernel. In a band maths expression the function is used as follows:
+ * <pre>
+ *   conv(&lt;band_name&gt;, "&lt;kernel&gt;", &lt;size&gt;)
+ * </pre>
+ * The kernel is either the name of a predefined kernel or the weights separated by white space or commas. The size
+ * must be an odd number between 3 and 501. See {@link Kernel} for the predefined kernels and {@link Convolution} for
+ * the handling of invalid pixels.
+ *
+ * @author Marco Peters
+ */
+class ConvolutionFunction extends D {
+
+  private static final int MIN_KERNEL_SIZE = 3;
+  private static final int MAX_KERNEL_SIZE = 501;
+
+  ConvolutionFunction() {
+    super("conv", 3, new int[]{Term.TYPE_D, Term.TYPE_S, Term.TYPE_I});
+  }
+
+  @Override
+  public double evalD(EvalEnv env, Term[] args) throws EvalException {
+    RasterDataNode raster = TermUtils.getRaster(args[0]);
+    if (raster == null) {
+      throw new EvalException("First argument of conv() must reference a raster");
+    }
+    if (!args[1].isS()) {
+      throw new EvalException("Second argument of conv() must be a string");
+    }
+    int size = args[2].evalI(env);
+    if (size % 2 != 1 || size < MIN_KERNEL_SIZE || size > MAX_KERNEL_SIZE) {
+      throw new EvalException(
+          String.format("Third argument of conv() must be an odd number between %d and %d", MIN_KERNEL_SIZE,
+              MAX_KERNEL_SIZE));
+    }
+
+    RasterDataEvalEnv dataEvalEnv = (RasterDataEvalEnv) env;
+    TileCache cache = TileCache.get(dataEvalEnv);
+    // the kernel is resolved once per target tile, the definition of a user kernel can be long
+    Kernel kernel = cache.lookup(args, size, Kernel.class);
+    if (kernel == null) {
+      kernel = Kernel.get(args[1].evalS(env), size);
+      cache.put(args, size, Kernel.class, kernel);
+    }
+    SourceTile tile = cache.getSourceTile(raster, size / 2);
+    // the convolution is computed for the whole target tile at once
+    double[] result = cache.lookup(tile, size, kernel);
+    if (result == null) {
+      result = Convolution.compute(tile, cache.getLevelRegion(), kernel);
+      cache.put(tile, size, kernel, result);
+    }
+    return result[cache.getLevelIndex(dataEvalEnv)];
+  }
+}
@@ -0,0 +1,253 @@
+/*-
+ * ========================LICENSE_START=================================
+ * EOMTBX - EOMasters Toolbox Basic for SNAP
+ * -> https://www.eomasters.org/sw/EOMTBX
+ * ======================================================================
+ * Copyright (C) 2023 - 2025 Marco Peters
+ * ======================================================================
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * -> http://www.gnu.org/licenses/gpl-3.0.html
+ * =========================LICENSE_END==================================
+ */
+
+package org.eomasters.eomtbx.bandmathsext;
+
+import com.bc.ceres.glevel.MultiLevelImage;
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.image.RenderedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.esa.snap.core.datamodel.GeoCoding;
+import org.esa.snap.core.datamodel.RasterDataNode;
+import org.esa.snap.core.dataop.barithm.RasterDataEvalEnv;
+import org.esa.snap.core.jexp.EvalEnv;
+import org.esa.snap.core.jexp.EvalException;
+import org.esa.snap.core.jexp.Term;
+import org.esa.snap.core.jexp.impl.AbstractFunction.D;
+import org.opengis.referencing.operation.MathTransform;
+
+/**
+ * Computes the distance to the nearest feature pixel of a raster. Feature pixels are valid pixels with a value other
+ * than zero, e.g. the pixels of a mask. In a band maths expression the function is used as follows:
+ * <pre>
+ *   distanceTo(&lt;mask_name&gt;)
+ *   distanceTo(&lt;mask_name&gt;, "map")
+ * </pre>
+ * By default, the distance is given in pixels. With {@code "map"} it is given in map units, which requires an affine
+ * image-to-map transform. If there is no feature pixel, the result is NaN.
+ *
+ * <p>The distances are computed with the exact {@link DistanceTransform} on the target tile extended by a halo. If
+ * the distance of a pixel is larger than the halo, a nearer feature could be outside, so the halo is enlarged up to
+ * {@value #MAX_HALO} pixels. Beyond that, the distances are computed once for the whole raster and cached as float
+ * image until the data of the product changes. For this, the feature pixels are read tile by tile into a bitmap with
+ * one bit per pixel. Tiles waiting for the same whole raster distances share one
+ * computation.</p>
+ *
+ * @author Marco Peters
+ */
+class DistanceFunction extends D {
+
+  private static final String UNIT_PIXEL = "pixel";
+  private static final String UNIT_MAP = "map";
+  private static final int INITIAL_HALO = 64;
+  private static final int HALO_GROWTH = 4;
+  private static final int MAX_HALO = 256;
+
+  private static final Map<RasterDataNode, List<SceneDistances>> SCENE_CACHE = new WeakHashMap<>();
+
+  DistanceFunction() {
+    super("distanceTo", -1, new int[]{Term.TYPE_D, Term.TYPE_S});
+  }
+
+  @Override
+  public double evalD(EvalEnv env, Term[] args) throws EvalException {
+    if (args.length != 1 && args.length != 2) {
+      throw new EvalException("The distanceTo function takes either one or two parameters");
+    }
+    RasterDataNode raster = TermUtils.getRaster(args[0]);
+    if (raster == null) {
+      throw new EvalException("First argument of distanceTo() must reference a raster");
+    }
+    boolean mapUnits = isMapUnits(env, args);
+
+    RasterDataEvalEnv dataEvalEnv = (RasterDataEvalEnv) env;
+    TileCache cache = TileCache.get(dataEvalEnv);
+    int param = mapUnits ? 1 : 0;
+    float[] distances = cache.lookup(raster, param, DistanceFunction.class);
+    if (distances == null) {
+      distances = computeDistances(raster, cache, mapUnits);
+      cache.put(raster, param, DistanceFunction.class, distances);
+    }
+    return distances[cache.getLevelIndex(dataEvalEnv)];
+  }
+
+  private static boolean isMapUnits(EvalEnv env, Term[] args) {
+    if (args.length < 2) {
+      return false;
+    }
+    if (!args[1].isS()) {
+      throw new EvalException("Second argument of distanceTo() must be a string");
+    }
+    String unit = args[1].evalS(env);
+    if (UNIT_MAP.equalsIgnoreCase(unit)) {
+      return true;
+    }
+    if (UNIT_PIXEL.equalsIgnoreCase(unit)) {
+      return false;
+    }
+    throw new EvalException(
+        String.format("Second argument of distanceTo() must be '%s' or '%s', but was '%s'", UNIT_PIXEL, UNIT_MAP,
+            unit));
+  }
+
+  private static float[] computeDistances(RasterDataNode raster, TileCache cache, boolean mapUnits) {
+    ImageLevel imageLevel = cache.getImageLevel(raster);
+    // distances are given in full resolution pixels or map units, also at lower resolution levels
+    double[] pixelSize = getPixelSize(raster, mapUnits);
+    double pixelSizeX = pixelSize[0] * cache.getScale();
+    double pixelSizeY = pixelSize[1] * cache.getScale();
+    Rectangle region = cache.getLevelRegion();
+    Rectangle levelBounds = imageLevel.getBounds(raster.getGeophysicalImage());
+    int maxHalo = Math.max(levelBounds.width, levelBounds.height);
+
+    for (int halo = INITIAL_HALO; halo <= MAX_HALO && halo < maxHalo; halo *= HALO_GROWTH) {
+      SourceTile tile = SourceTile.read(raster, imageLevel, region, halo);
+      float[] tileDistances = DistanceTransform.compute(tile.getSetPixels(), tile.getWidth(), tile.getHeight(),
+          pixelSizeX, pixelSizeY);
+      float[] distances = extractRegion(tileDistances, tile.getWidth(), halo, halo, region);
+      // a distance within the halo is exact, a nearer feature would have been inside the tile
+      double exactDistance = halo * Math.min(pixelSizeX, pixelSizeY);
+      if (isAtMost(distances, exactDistance)) {
+        return distances;
+      }
+    }
+    float[] sceneDistances = getSceneDistances(raster, imageLevel, mapUnits, pixelSizeX, pixelSizeY);
+    return extractRegion(sceneDistances, levelBounds.width, region.x, region.y, region);
+  }
+
+  private static float[] getSceneDistances(RasterDataNode raster, ImageLevel imageLevel, boolean mapUnits,
+      double pixelSizeX, double pixelSizeY) {
+    SceneDistances sceneDistances = null;
+    synchronized (SCENE_CACHE) {
+      List<SceneDistances> entries = SCENE_CACHE.computeIfAbsent(raster, r -> new ArrayList<>());
+      entries.removeIf(entry -> !entry.isValid());
+      for (SceneDistances entry : entries) {
+        if (entry.imageLevel.equals(imageLevel) && entry.mapUnits == mapUnits) {
+          sceneDistances = entry;
+          break;
+        }
+      }
+      if (sceneDistances == null) {
+        AtomicInteger version = RasterChangeTracker.getVersion(raster);
+        sceneDistances = new SceneDistances(imageLevel, mapUnits, version, version.get(),
+            new SharedResult<>(() -> computeSceneDistances(raster, imageLevel, pixelSizeX, pixelSizeY)));
+        entries.add(sceneDistances);
+      }
+    }
+    // computed outside the lock, other tiles of the raster wait for the same result
+    return sceneDistances.distances.get();
+  }
+
+  private static float[] computeSceneDistances(RasterDataNode raster, ImageLevel imageLevel, double pixelSizeX,
+      double pixelSizeY) {
+    return DistanceTransform.compute(readSceneFeatures(raster, imageLevel), pixelSizeX, pixelSizeY);
+  }
+
+  // the feature pixels of the whole image level are collected tile by tile, so the samples are never held at once
+  private static PackedBitmap readSceneFeatures(RasterDataNode raster, ImageLevel imageLevel) {
+    MultiLevelImage image = raster.getGeophysicalImage();
+    Rectangle bounds = imageLevel.getBounds(image);
+    RenderedImage levelImage = image.getImage(imageLevel.getLevel());
+    int tileWidth = levelImage.getTileWidth();
+    int tileHeight = levelImage.getTileHeight();
+    PackedBitmap features = new PackedBitmap(bounds.width, bounds.height);
+    for (int tileY = bounds.y; tileY < bounds.y + bounds.height; tileY += tileHeight) {
+      for (int tileX = bounds.x; tileX < bounds.x + bounds.width; tileX += tileWidth) {
+        Rectangle tileRect = new Rectangle(tileX, tileY, tileWidth, tileHeight).intersection(bounds);
+        boolean[] setPixels = SourceTile.read(raster, imageLevel, tileRect, 0).getSetPixels();
+        for (int j = 0; j < tileRect.height; j++) {
+          for (int i = 0; i < tileRect.width; i++) {
+            if (setPixels[j * tileRect.width + i]) {
+              features.set(tileRect.x - bounds.x + i, tileRect.y - bounds.y + j);
+            }
+          }
+        }
+      }
+    }
+    return features;
+  }
+
+  private static double[] getPixelSize(RasterDataNode raster, boolean mapUnits) {
+    if (!mapUnits) {
+      return new double[]{1, 1};
+    }
+    GeoCoding geoCoding = raster.getGeoCoding();
+    MathTransform imageToMap = geoCoding != null ? geoCoding.getImageToMapTransform() : null;
+    if (!(imageToMap instanceof AffineTransform)) {
+      throw new EvalException("Distances in map units need a raster with a map geocoding");
+    }
+    AffineTransform transform = (AffineTransform) imageToMap;
+    return new double[]{
+        Math.hypot(transform.getScaleX(), transform.getShearY()),
+        Math.hypot(transform.getShearX(), transform.getScaleY())
+    };
+  }
+
+  // infinite distances, i.e. no feature at all, are returned as NaN
+  private static float[] extractRegion(float[] distances, int width, int offsetX, int offsetY, Rectangle region) {
+    float[] result = new float[region.width * region.height];
+    for (int j = 0; j < region.height; j++) {
+      for (int i = 0; i < region.width; i++) {
+        float distance = distances[(offsetY + j) * width + offsetX + i];
+        result[j * region.width + i] = Float.isInfinite(distance) ? Float.NaN : distance;
+      }
+    }
+    return result;
+  }
+
+  private static boolean isAtMost(float[] distances, double maxDistance) {
+    for (float distance : distances) {
+      if (!(distance <= maxDistance)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static final class SceneDistances {
+
+    private final ImageLevel imageLevel;
+    private final boolean mapUnits;
+    private final AtomicInteger version;
+    private final int computedVersion;
+    private final SharedResult<float[]> distances;
+
+    private SceneDistances(ImageLevel imageLevel, boolean mapUnits, AtomicInteger version, int computedVersion,
+        SharedResult<float[]> distances) {
+      this.imageLevel = imageLevel;
+      this.mapUnits = mapUnits;
+      this.version = version;
+      this.computedVersion = computedVersion;
+      this.distances = distances;
+    }
+
+    private boolean isValid() {
+      return version.get() == computedVersion;
+    }
+  }
+}
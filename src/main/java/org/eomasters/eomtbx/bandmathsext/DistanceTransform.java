@@ -0,0 +1,167 @@
+/*-
+ * ========================LICENSE_START=================================
+ * EOMTBX - EOMasters Toolbox Basic for SNAP
+ * -> https://www.eomasters.org/sw/EOMTBX
+ * ======================================================================
+ * Copyright (C) 2023 - 2025 Marco Peters
+ * ======================================================================
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * -> http://www.gnu.org/licenses/gpl-3.0.html
+ * =========================LICENSE_END==================================
+ */
+
+package org.eomasters.eomtbx.bandmathsext;
+
+import java.awt.Rectangle;
+
+/**
+ * Computes the exact Euclidean distance transform with the algorithm of Felzenszwalb and Huttenlocher. For a binary
+ * image the pass over the columns reduces to the distance in rows to the nearest feature pixel, which is kept as int.
+ * The pass over the rows computes the lower envelope of parabolas in double precision. The costs are linear in the
+ * number of pixels and independent of the distances.
+ *
+ * @author Marco Peters
+ */
+final class DistanceTransform {
+
+  private static final double INF = Double.POSITIVE_INFINITY;
+  private static final int NO_FEATURE = Integer.MAX_VALUE;
+
+  private DistanceTransform() {
+  }
+
+  /**
+   * Computes for each pixel the distance to the nearest feature pixel. Pixels can have different sizes in x and y
+   * direction.
+   *
+   * @param features   the feature pixels, stored row by row
+   * @param width      the width of the area
+   * @param height     the height of the area
+   * @param pixelSizeX the size of a pixel in x direction
+   * @param pixelSizeY the size of a pixel in y direction
+   * @return the distances, stored row by row, infinity if there is no feature pixel
+   */
+  static float[] compute(boolean[] features, int width, int height, double pixelSizeX, double pixelSizeY) {
+    return compute(new PackedBitmap(features, width, height, new Rectangle(width, height)), pixelSizeX, pixelSizeY);
+  }
+
+  /**
+   * Computes for each pixel of the bitmap the distance to the nearest set pixel. Pixels can have different sizes in x
+   * and y direction.
+   *
+   * @param features   the feature pixels
+   * @param pixelSizeX the size of a pixel in x direction
+   * @param pixelSizeY the size of a pixel in y direction
+   * @return the distances, stored row by row, infinity if there is no feature pixel
+   */
+  static float[] compute(PackedBitmap features, double pixelSizeX, double pixelSizeY) {
+    int width = features.getWidth();
+    int height = features.getHeight();
+    int[] rowDistances = computeRowDistances(features);
+
+    float[] distances = new float[width * height];
+    double weightY = pixelSizeY * pixelSizeY;
+    double[] line = new double[width];
+    double[] result = new double[width];
+    int[] vertices = new int[width];
+    double[] bounds = new double[width + 1];
+    for (int y = 0; y < height; y++) {
+      int offset = y * width;
+      for (int x = 0; x < width; x++) {
+        int rows = rowDistances[offset + x];
+        line[x] = rows == NO_FEATURE ? INF : weightY * rows * rows;
+      }
+      transformLine(line, width, pixelSizeX, result, vertices, bounds);
+      for (int x = 0; x < width; x++) {
+        distances[offset + x] = (float) Math.sqrt(result[x]);
+      }
+    }
+    return distances;
+  }
+
+  // the number of rows to the nearest feature pixel in the same column, by a pass downwards and one upwards
+  private static int[] computeRowDistances(PackedBitmap features) {
+    int width = features.getWidth();
+    int height = features.getHeight();
+    int[] rowDistances = new int[width * height];
+    for (int y = 0; y < height; y++) {
+      int offset = y * width;
+      for (int x = 0; x < width; x++) {
+        if (features.get(x, y)) {
+          rowDistances[offset + x] = 0;
+        } else {
+          int above = y > 0 ? rowDistances[offset - width + x] : NO_FEATURE;
+          rowDistances[offset + x] = above == NO_FEATURE ? NO_FEATURE : above + 1;
+        }
+      }
+    }
+    for (int y = height - 2; y >= 0; y--) {
+      int offset = y * width;
+      for (int x = 0; x < width; x++) {
+        int below = rowDistances[offset + width + x];
+        if (below != NO_FEATURE && below + 1 < rowDistances[offset + x]) {
+          rowDistances[offset + x] = below + 1;
+        }
+      }
+    }
+    return rowDistances;
+  }
+
+  // one-dimensional squared distance transform of the sampled function f, see Felzenszwalb and Huttenlocher,
+  // "Distance Transforms of Sampled Functions"
+  private static void transformLine(double[] f, int n, double pixelSize, double[] result, int[] vertices,
+      double[] bounds) {
+    double weight = pixelSize * pixelSize;
+    int k = -1;
+    for (int q = 0; q < n; q++) {
+      if (f[q] == INF) {
+        continue;
+      }
+      if (k < 0) {
+        k = 0;
+        vertices[0] = q;
+        bounds[0] = -INF;
+        bounds[1] = INF;
+        continue;
+      }
+      double s = intersection(f, weight, q, vertices[k]);
+      while (s <= bounds[k]) {
+        k--;
+        s = intersection(f, weight, q, vertices[k]);
+      }
+      k++;
+      vertices[k] = q;
+      bounds[k] = s;
+      bounds[k + 1] = INF;
+    }
+    if (k < 0) {
+      for (int q = 0; q < n; q++) {
+        result[q] = INF;
+      }
+      return;
+    }
+    int j = 0;
+    for (int q = 0; q < n; q++) {
+      while (bounds[j + 1] < q) {
+        j++;
+      }
+      double diff = q - vertices[j];
+      result[q] = weight * diff * diff + f[vertices[j]];
+    }
+  }
+
+  private static double intersection(double[] f, double weight, int q, int p) {
+    return ((f[q] + weight * q * q) - (f[p] + weight * p * p)) / (2 * weight * (q - p));
+  }
+}
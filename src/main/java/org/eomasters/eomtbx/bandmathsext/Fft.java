@@ -0,0 +1,120 @@
+/*-
+ * ========================LICENSE_START=================================
+ * EOMTBX - EOMasters Toolbox Basic for SNAP
+ * -> https://www.eomasters.org/sw/EOMTBX
+ * ======================================================================
+ * Copyright (C) 2023 - 2025 Marco Peters
+ * ======================================================================
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * -> http://www.gnu.org/licenses/gpl-3.0.html
+ * =========================LICENSE_END==================================
+ */
+
+package org.eomasters.eomtbx.bandmathsext;
+
+/**
+ * An iterative radix-2 fast Fourier transform of complex data. The sizes must be powers of two.
+ *
+ * @author Marco Peters
+ */
+final class Fft {
+
+  private Fft() {
+  }
+
+  /**
+   * Returns the smallest power of two which is greater or equal to the given value.
+   *
+   * @param value the value
+   * @return the power of two
+   */
+  static int nextPowerOfTwo(int value) {
+    int power = 1;
+    while (power < value) {
+      power <<= 1;
+    }
+    return power;
+  }
+
+  /**
+   * Transforms the data in place, first all rows and then all columns. The inverse transform is scaled by
+   * {@code 1 / (width * height)}.
+   *
+   * @param re      the real parts, stored row by row
+   * @param im      the imaginary parts, stored row by row
+   * @param width   the width, a power of two
+   * @param height  the height, a power of two
+   * @param inverse {@code true} for the inverse transform
+   */
+  static void transform2D(double[] re, double[] im, int width, int height, boolean inverse) {
+    for (int y = 0; y < height; y++) {
+      transform(re, im, y * width, 1, width, inverse);
+    }
+    for (int x = 0; x < width; x++) {
+      transform(re, im, x, width, height, inverse);
+    }
+    if (inverse) {
+      double scale = 1.0 / ((double) width * height);
+      for (int i = 0; i < re.length; i++) {
+        re[i] *= scale;
+        im[i] *= scale;
+      }
+    }
+  }
+
+  // transforms n elements starting at offset with the given stride
+  private static void transform(double[] re, double[] im, int offset, int stride, int n, boolean inverse) {
+    // bit reversal permutation
+    for (int i = 1, j = 0; i < n; i++) {
+      int bit = n >> 1;
+      for (; (j & bit) != 0; bit >>= 1) {
+        j ^= bit;
+      }
+      j ^= bit;
+      if (i < j) {
+        int a = offset + i * stride;
+        int b = offset + j * stride;
+        double tmp = re[a];
+        re[a] = re[b];
+        re[b] = tmp;
+        tmp = im[a];
+        im[a] = im[b];
+        im[b] = tmp;
+      }
+    }
+    for (int length = 2; length <= n; length <<= 1) {
+      double angle = (inverse ? 2 : -2) * Math.PI / length;
+      double stepRe = Math.cos(angle);
+      double stepIm = Math.sin(angle);
+      int half = length >> 1;
+      for (int start = 0; start < n; start += length) {
+        double wRe = 1;
+        double wIm = 0;
+        for (int k = 0; k < half; k++) {
+          int a = offset + (start + k) * stride;
+          int b = a + half * stride;
+          double tRe = re[b] * wRe - im[b] * wIm;
+          double tIm = re[b] * wIm + im[b] * wRe;
+          re[b] = re[a] - tRe;
+          im[b] = im[a] - tIm;
+          re[a] += tRe;
+          im[a] += tIm;
+          double nextRe = wRe * stepRe - wIm * stepIm;
+          wIm = wRe * stepIm + wIm * stepRe;
+          wRe = nextRe;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,175 @@
+/*-
+ * ========================LICENSE_START=================================
+ * EOMTBX - EOMasters Toolbox Basic for SNAP
+ * -> https://www.eomasters.org/sw/EOMTBX
+ * ======================================================================
+ * Copyright (C) 2023 - 2025 Marco Peters
+ * ======================================================================
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * -> http://www.gnu.org/licenses/gpl-3.0.html
+ * =========================LICENSE_END==================================
+ */
+
+package org.eomasters.eomtbx.bandmathsext;
+
+import org.esa.snap.core.datamodel.RasterDataNode;
+import org.esa.snap.core.dataop.barithm.RasterDataEvalEnv;
+import org.esa.snap.core.jexp.EvalEnv;
+import org.esa.snap.core.jexp.EvalException;
+import org.esa.snap.core.jexp.Function;
+import org.esa.snap.core.jexp.Term;
+import org.esa.snap.core.jexp.impl.AbstractFunction;
+
+/**
+ * Implements functions which are derived from the 3x3 Sobel operator. Currently, these are sobelX, sobelY, gradMag,
+ * slope and aspect. They are used like {@code slope(dem)}. The functions read the 3x3 neighbourhood directly from the
+ * source tile of the target tile with a halo of one pixel, without any allocation per pixel. If any pixel of the
+ * neighbourhood is invalid or outside the raster, the result is NaN.
+ *
+ * <p>Slope and aspect follow the method of Horn. The elevation is expected in metres and the pixel spacing is taken
+ * from the geocoding of the raster, see {@link PixelSpacing}. When a lower resolution level of the image pyramid is
+ * computed, the larger spacing of its pixels is considered.</p>
+ *
+ * @author Marco Peters
+ */
+class GradientFunctions {
+
+  /**
+   * Function that returns the response of the Sobel operator in x direction. It is positive if the values increase to
+   * the right.
+   */
+  static final Function SOBEL_X = new GradientFunction("sobelX") {
+    @Override
+    double compute(double sobelX, double sobelY, RasterDataNode raster, TileCache cache, RasterDataEvalEnv env) {
+      return sobelX;
+    }
+  };
+
+  /**
+   * Function that returns the response of the Sobel operator in y direction. It is positive if the values increase
+   * downwards.
+   */
+  static final Function SOBEL_Y = new GradientFunction("sobelY") {
+    @Override
+    double compute(double sobelX, double sobelY, RasterDataNode raster, TileCache cache, RasterDataEvalEnv env) {
+      return sobelY;
+    }
+  };
+
+  /**
+   * Function that returns the magnitude of the responses of the Sobel operator, e.g. to detect edges.
+   */
+  static final Function GRADIENT_MAGNITUDE = new GradientFunction("gradMag") {
+    @Override
+    double compute(double sobelX, double sobelY, RasterDataNode raster, TileCache cache, RasterDataEvalEnv env) {
+      return Math.hypot(sobelX, sobelY);
+    }
+  };
+
+  /**
+   * Function that returns the slope of the terrain in degrees.
+   */
+  static final Function SLOPE = new GradientFunction("slope") {
+    @Override
+    double compute(double sobelX, double sobelY, RasterDataNode raster, TileCache cache, RasterDataEvalEnv env) {
+      PixelSpacing spacing = getPixelSpacing(raster, cache);
+      double gradientX = getGradient(sobelX, cache);
+      double gradientY = getGradient(sobelY, cache);
+      double east = spacing.toEast(gradientX, gradientY, env.getPixelX() + 0.5, env.getPixelY() + 0.5);
+      double north = spacing.toNorth(gradientX, gradientY);
+      return Math.toDegrees(Math.atan(Math.hypot(east, north)));
+    }
+  };
+
+  /**
+   * Function that returns the aspect of the terrain in degrees. It is the direction the slope faces, clockwise from
+   * north. For flat terrain it is NaN.
+   */
+  static final Function ASPECT = new GradientFunction("aspect") {
+    @Override
+    double compute(double sobelX, double sobelY, RasterDataNode raster, TileCache cache, RasterDataEvalEnv env) {
+      if (sobelX == 0 && sobelY == 0) {
+        return Double.NaN;
+      }
+      PixelSpacing spacing = getPixelSpacing(raster, cache);
+      double gradientX = getGradient(sobelX, cache);
+      double gradientY = getGradient(sobelY, cache);
+      double east = spacing.toEast(gradientX, gradientY, env.getPixelX() + 0.5, env.getPixelY() + 0.5);
+      double north = spacing.toNorth(gradientX, gradientY);
+      // the slope faces downhill, against the gradient
+      double aspect = Math.toDegrees(Math.atan2(-east, -north));
+      return aspect < 0 ? aspect + 360 : aspect;
+    }
+  };
+
+  private GradientFunctions() {
+  }
+
+  private static PixelSpacing getPixelSpacing(RasterDataNode raster, TileCache cache) {
+    PixelSpacing spacing = cache.lookup(raster, 0, PixelSpacing.class);
+    if (spacing == null) {
+      spacing = PixelSpacing.create(raster);
+      cache.put(raster, 0, PixelSpacing.class, spacing);
+    }
+    return spacing;
+  }
+
+  // the weights of the Sobel operator sum up to 8 on each side, a pixel of the level image covers scale pixels
+  private static double getGradient(double sobel, TileCache cache) {
+    return sobel / (8.0 * cache.getScale());
+  }
+
+  private abstract static class GradientFunction extends AbstractFunction.D {
+
+    private GradientFunction(String name) {
+      super(name, 1, new int[]{Term.TYPE_D});
+    }
+
+    abstract double compute(double sobelX, double sobelY, RasterDataNode raster, TileCache cache,
+        RasterDataEvalEnv env);
+
+    @Override
+    public double evalD(EvalEnv env, Term[] args) throws EvalException {
+      RasterDataNode raster = TermUtils.getRaster(args[0]);
+      if (raster == null) {
+        throw new EvalException(String.format("Argument of %s() must reference a raster", getName()));
+      }
+      RasterDataEvalEnv dataEvalEnv = (RasterDataEvalEnv) env;
+      TileCache cache = TileCache.get(dataEvalEnv);
+      SourceTile tile = cache.getSourceTile(raster, 1);
+      double[] samples = tile.getSamples();
+      int width = tile.getWidth();
+      int center = (cache.getLevelY(dataEvalEnv) - tile.getY()) * width + cache.getLevelX(dataEvalEnv) - tile.getX();
+      // a b c
+      // d e f
+      // g h i
+      double a = samples[center - width - 1];
+      double b = samples[center - width];
+      double c = samples[center - width + 1];
+      double d = samples[center - 1];
+      double e = samples[center];
+      double f = samples[center + 1];
+      double g = samples[center + width - 1];
+      double h = samples[center + width];
+      double i = samples[center + width + 1];
+      // invalid pixels are NaN and propagate into the sums
+      double sobelX = (c + 2 * f + i) - (a + 2 * d + g);
+      double sobelY = (g + 2 * h + i) - (a + 2 * b + c);
+      if (Double.isNaN(sobelX) || Double.isNaN(sobelY) || Double.isNaN(e)) {
+        return Double.NaN;
+      }
+      return compute(sobelX, sobelY, raster, cache, dataEvalEnv);
+    }
+  }
+}
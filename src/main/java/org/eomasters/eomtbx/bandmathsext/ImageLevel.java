@@ -0,0 +1,127 @@
+/*-
+ * ========================LICENSE_START=================================
+ * EOMTBX - EOMasters Toolbox Basic for SNAP
+ * -> https://www.eomasters.org/sw/EOMTBX
+ * ======================================================================
+ * Copyright (C) 2023 - 2025 Marco Peters
+ * ======================================================================
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * -> http://www.gnu.org/licenses/gpl-3.0.html
+ * =========================LICENSE_END==================================
+ */
+
+package org.eomasters.eomtbx.bandmathsext;
+
+import com.bc.ceres.glevel.MultiLevelImage;
+import java.awt.Rectangle;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
+import java.util.Objects;
+
+/**
+ * The image level of a raster which is read for a target tile. Usually it is the resolution level with the scale of
+ * the target tile. If the raster has no such level, the nearest finer level is read and only every n-th pixel of it is
+ * taken, so the pixels still match the pixel grid of the target tile.
+ *
+ * @author Marco Peters
+ */
+final class ImageLevel {
+
+  /**
+   * The full resolution image.
+   */
+  static final ImageLevel FULL_RESOLUTION = new ImageLevel(0, 1);
+
+  private final int level;
+  private final int step;
+
+  /**
+   * Creates an image level.
+   *
+   * @param level the resolution level which is read
+   * @param step  the step between the pixels of the resolution level which are taken, 1 to take all pixels
+   */
+  ImageLevel(int level, int step) {
+    this.level = level;
+    this.step = step;
+  }
+
+  int getLevel() {
+    return level;
+  }
+
+  int getStep() {
+    return step;
+  }
+
+  /**
+   * Returns the bounds of the image level.
+   *
+   * @param image the multi-level image
+   * @return the bounds
+   */
+  Rectangle getBounds(MultiLevelImage image) {
+    RenderedImage levelImage = image.getImage(level);
+    return new Rectangle(ceilDiv(levelImage.getMinX(), step), ceilDiv(levelImage.getMinY(), step),
+        ceilDiv(levelImage.getWidth(), step), ceilDiv(levelImage.getHeight(), step));
+  }
+
+  /**
+   * Reads the data of the image level for the given region. The data can be computed on the current thread, see
+   * {@link TileCache#readNested}.
+   *
+   * @param image  the multi-level image
+   * @param region the region in pixel coordinates of the image level, it must be within the bounds
+   * @return the data of the first band
+   */
+  Raster readData(MultiLevelImage image, Rectangle region) {
+    RenderedImage levelImage = image.getImage(level);
+    if (step == 1) {
+      return TileCache.readNested(() -> levelImage.getData(region));
+    }
+    Rectangle sourceRegion = new Rectangle(region.x * step, region.y * step, (region.width - 1) * step + 1,
+        (region.height - 1) * step + 1);
+    Raster source = TileCache.readNested(() -> levelImage.getData(sourceRegion));
+    WritableRaster data = source.createCompatibleWritableRaster(region.x, region.y, region.width, region.height);
+    for (int y = 0; y < region.height; y++) {
+      for (int x = 0; x < region.width; x++) {
+        data.setSample(region.x + x, region.y + y, 0,
+            source.getSampleDouble(sourceRegion.x + x * step, sourceRegion.y + y * step, 0));
+      }
+    }
+    return data;
+  }
+
+  private static int ceilDiv(int value, int divisor) {
+    return -Math.floorDiv(-value, divisor);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    ImageLevel that = (ImageLevel) o;
+    return level == that.level && step == that.step;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(level, step);
+  }
+}
@@ -0,0 +1,251 @@
+/*-
+ * ========================LICENSE_START=================================
+ * EOMTBX - EOMasters Toolbox Basic for SNAP
+ * -> https://www.eomasters.org/sw/EOMTBX
+ * ======================================================================
+ * Copyright (C) 2023 - 2025 Marco Peters
+ * ======================================================================
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * -> http://www.gnu.org/licenses/gpl-3.0.html
+ * =========================LICENSE_END==================================
+ */
+
+
+package org.eomasters.eomtbx.bandmathsext;
+
+/**
+ * Summed-area tables of the values and of the valid samples of a {@link SourceTile}. The sum and the count of valid
+ * samples of any rectangular window within the tile is computed with four lookups, independent of the window size.
+ * For the variance an additional table of squared deviations is created on first use. The deviations are taken from
+ * the mean of the tile to avoid the cancellation errors of a plain sum of squares.
+ *
+ * <p>Infinite samples are valid, but they are not added to the sums. Otherwise, every difference of the table below
+ * or right of such a sample would be {@code Inf - Inf = NaN}, even for windows which do not contain it. Instead, the
+ * positive and negative infinite samples are counted in separate tables, which are only created if the tile contains
+ * infinite samples. A window containing them has an infinite sum, like a direct sum of its samples.</p>
+ *
+ * @author Marco Peters
+ */
+final class IntegralImage {
+
+  private final int x;
+  private final int y;
+  private final int stride;
+  private final double[] sums;
+  private final int[] counts;
+  private final int[] positiveInfinities;
+  private final int[] negativeInfinities;
+  private final SourceTile tile;
+  private double reference;
+  private double[] squares;
+
+  private IntegralImage(SourceTile tile, int stride, double[] sums, int[] counts, int[] positiveInfinities,
+      int[] negativeInfinities) {
+    this.x = tile.getX();
+    this.y = tile.getY();
+    this.stride = stride;
+    this.sums = sums;
+    this.counts = counts;
+    this.positiveInfinities = positiveInfinities;
+    this.negativeInfinities = negativeInfinities;
+    this.tile = tile;
+  }
+
+  /**
+   * Creates the tables for the given tile. NaN samples are not considered, infinite samples are counted separately.
+   *
+   * @param tile the source tile
+   * @return the integral image
+   */
+  static IntegralImage create(SourceTile tile) {
+    int width = tile.getWidth();
+    int height = tile.getHeight();
+    int stride = width + 1;
+    double[] samples = tile.getSamples();
+    // first row and column stay zero, this avoids special cases at the border
+    double[] sums = new double[stride * (height + 1)];
+    int[] counts = new int[stride * (height + 1)];
+    boolean hasInfinities = false;
+    for (int j = 0; j < height; j++) {
+      double rowSum = 0;
+      int rowCount = 0;
+      int srcOffset = j * width;
+      int prevOffset = j * stride + 1;
+      int destOffset = prevOffset + stride;
+      for (int i = 0; i < width; i++) {
+        double value = samples[srcOffset + i];
+        if (Double.isFinite(value)) {
+          rowSum += value;
+          rowCount++;
+        } else if (!Double.isNaN(value)) {
+          hasInfinities = true;
+          rowCount++;
+        }
+        sums[destOffset + i] = sums[prevOffset + i] + rowSum;
+        counts[destOffset + i] = counts[prevOffset + i] + rowCount;
+      }
+    }
+    if (!hasInfinities) {
+      return new IntegralImage(tile, stride, sums, counts, null, null);
+    }
+    int[] positiveInfinities = countSamples(samples, width, height, Double.POSITIVE_INFINITY);
+    int[] negativeInfinities = countSamples(samples, width, height, Double.NEGATIVE_INFINITY);
+    return new IntegralImage(tile, stride, sums, counts, positiveInfinities, negativeInfinities);
+  }
+
+  private static int[] countSamples(double[] samples, int width, int height, double sample) {
+    int stride = width + 1;
+    int[] counts = new int[stride * (height + 1)];
+    for (int j = 0; j < height; j++) {
+      int rowCount = 0;
+      int srcOffset = j * width;
+      int prevOffset = j * stride + 1;
+      int destOffset = prevOffset + stride;
+      for (int i = 0; i < width; i++) {
+        if (samples[srcOffset + i] == sample) {
+          rowCount++;
+        }
+        counts[destOffset + i] = counts[prevOffset + i] + rowCount;
+      }
+    }
+    return counts;
+  }
+
+  /**
+   * Returns the sum of the valid samples within the window. The window must be located within the tile.
+   *
+   * @param minX the minimum x pixel coordinate (inclusive)
+   * @param minY the minimum y pixel coordinate (inclusive)
+   * @param maxX the maximum x pixel coordinate (inclusive)
+   * @param maxY the maximum y pixel coordinate (inclusive)
+   * @return the sum, infinite if the window contains infinite samples of one sign, NaN if it contains both
+   */
+  double getSum(int minX, int minY, int maxX, int maxY) {
+    int upper = (minY - y) * stride;
+    int lower = (maxY - y + 1) * stride;
+    int left = minX - x;
+    int right = maxX - x + 1;
+    if (positiveInfinities != null) {
+      boolean positive = count(positiveInfinities, upper, lower, left, right) > 0;
+      boolean negative = count(negativeInfinities, upper, lower, left, right) > 0;
+      if (positive && negative) {
+        return Double.NaN;
+      }
+      if (positive || negative) {
+        return positive ? Double.POSITIVE_INFINITY : Double.NEGATIVE_INFINITY;
+      }
+    }
+    return sums[lower + right] - sums[lower + left] - sums[upper + right] + sums[upper + left];
+  }
+
+  /**
+   * Returns the number of valid samples within the window. The window must be located within the tile.
+   *
+   * @param minX the minimum x pixel coordinate (inclusive)
+   * @param minY the minimum y pixel coordinate (inclusive)
+   * @param maxX the maximum x pixel coordinate (inclusive)
+   * @param maxY the maximum y pixel coordinate (inclusive)
+   * @return the number of valid samples
+   */
+  int getCount(int minX, int minY, int maxX, int maxY) {
+    int upper = (minY - y) * stride;
+    int lower = (maxY - y + 1) * stride;
+    int left = minX - x;
+    int right = maxX - x + 1;
+    return count(counts, upper, lower, left, right);
+  }
+
+  /**
+   * Checks if the window contains infinite samples. The window must be located within the tile.
+   *
+   * @param minX the minimum x pixel coordinate (inclusive)
+   * @param minY the minimum y pixel coordinate (inclusive)
+   * @param maxX the maximum x pixel coordinate (inclusive)
+   * @param maxY the maximum y pixel coordinate (inclusive)
+   * @return {@code true} if the window contains infinite samples
+   */
+  boolean hasInfinities(int minX, int minY, int maxX, int maxY) {
+    if (positiveInfinities == null) {
+      return false;
+    }
+    int upper = (minY - y) * stride;
+    int lower = (maxY - y + 1) * stride;
+    int left = minX - x;
+    int right = maxX - x + 1;
+    return count(positiveInfinities, upper, lower, left, right) > 0
+           || count(negativeInfinities, upper, lower, left, right) > 0;
+  }
+
+  /**
+   * Returns the population variance of the valid samples within the window. The window must be located within the
+   * tile.
+   *
+   * @param minX the minimum x pixel coordinate (inclusive)
+   * @param minY the minimum y pixel coordinate (inclusive)
+   * @param maxX the maximum x pixel coordinate (inclusive)
+   * @param maxY the maximum y pixel coordinate (inclusive)
+   * @return the variance or NaN if the window contains no valid samples or infinite samples
+   */
+  double getVariance(int minX, int minY, int maxX, int maxY) {
+    int count = getCount(minX, minY, maxX, maxY);
+    if (count == 0) {
+      return Double.NaN;
+    }
+    if (hasInfinities(minX, minY, maxX, maxY)) {
+      return Double.NaN;
+    }
+    int upper = (minY - y) * stride;
+    int lower = (maxY - y + 1) * stride;
+    int left = minX - x;
+    int right = maxX - x + 1;
+    if (squares == null) {
+      createSquares();
+    }
+    double sumOfSquares = squares[lower + right] - squares[lower + left] - squares[upper + right]
+                          + squares[upper + left];
+    double meanDeviation = getSum(minX, minY, maxX, maxY) / count - reference;
+    return Math.max(0, sumOfSquares / count - meanDeviation * meanDeviation);
+  }
+
+  private void createSquares() {
+    int width = tile.getWidth();
+    int height = tile.getHeight();
+    int last = stride * (height + 1) - 1;
+    int total = counts[last];
+    if (positiveInfinities != null) {
+      total -= positiveInfinities[last] + negativeInfinities[last];
+    }
+    reference = total > 0 ? sums[last] / total : 0;
+    double[] samples = tile.getSamples();
+    squares = new double[stride * (height + 1)];
+    for (int j = 0; j < height; j++) {
+      double rowSum = 0;
+      int srcOffset = j * width;
+      int prevOffset = j * stride + 1;
+      int destOffset = prevOffset + stride;
+      for (int i = 0; i < width; i++) {
+        double value = samples[srcOffset + i];
+        if (Double.isFinite(value)) {
+          double deviation = value - reference;
+          rowSum += deviation * deviation;
+        }
+        squares[destOffset + i] = squares[prevOffset + i] + rowSum;
+      }
+    }
+  }
+
+  private static int count(int[] table, int upper, int lower, int left, int right) {
+    return table[lower + right] - table[lower + left] - table[upper + right] + table[upper + left];
+  }
+}
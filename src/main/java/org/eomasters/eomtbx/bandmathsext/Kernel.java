@@ -0,0 +1,292 @@
+/*-
+ * ========================LICENSE_START=================================
+ * EOMTBX - EOMasters Toolbox Basic for SNAP
+ * -> https://www.eomasters.org/sw/EOMTBX
+ * ======================================================================
+ * Copyright (C) 2023 - 2025 Marco Peters
+ * ======================================================================
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * -> http://www.gnu.org/licenses/gpl-3.0.html
+ * =========================LICENSE_END==================================
+ */
+
+package org.eomasters.eomtbx.bandmathsext;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.esa.snap.core.jexp.EvalException;
+
+/**
+ * A square convolution kernel. Kernels are either predefined and created by name or defined by their weights. The
+ * weights are applied to the window centered on the pixel, row by row from the upper left corner.
+ *
+ * <p>The following kernels are predefined:
+ * <ul>
+ *   <li>box: All weights are equal, the result is the mean</li>
+ *   <li>gauss: Gaussian with a standard deviation of a sixth of the size, normalised to a sum of one</li>
+ *   <li>laplace: The 4-neighbour Laplacian, only available with the size 3</li>
+ *   <li>log: Laplacian of Gaussian with a standard deviation of a sixth of the size</li>
+ * </ul>
+ * </p>
+ * If a kernel is separable the weights of a row and a column are provided in addition, so that it can be applied in
+ * two one-dimensional passes. The spectra used for the FFT convolution are cached per kernel and padded tile size.
+ *
+ * @author Marco Peters
+ */
+final class Kernel {
+
+  static final String BOX = "box";
+  static final String GAUSS = "gauss";
+  static final String LAPLACE = "laplace";
+  static final String LOG = "log";
+
+  private static final int MAX_CACHED_KERNELS = 64;
+  private static final Map<String, Kernel> KERNELS = new ConcurrentHashMap<>();
+
+  private final int size;
+  private final double[] weights;
+  private final double[] rowWeights;
+  private final double[] columnWeights;
+  private final double sum;
+  private final boolean zeroSum;
+  private final Map<Long, double[][]> spectra = new HashMap<>();
+
+  private Kernel(int size, double[] weights) {
+    this.size = size;
+    this.weights = weights;
+    double weightSum = 0;
+    for (double weight : weights) {
+      weightSum += weight;
+    }
+    this.sum = weightSum;
+    double maxWeight = 0;
+    for (double weight : weights) {
+      maxWeight = Math.max(maxWeight, Math.abs(weight));
+    }
+    this.zeroSum = Math.abs(weightSum) <= 1.0e-9 * maxWeight * weights.length;
+    double[][] factors = factorize(size, weights);
+    this.columnWeights = factors != null ? factors[0] : null;
+    this.rowWeights = factors != null ? factors[1] : null;
+  }
+
+  /**
+   * Returns the kernel for the given definition and size. Kernels are created only once for each definition.
+   *
+   * @param definition the name of a predefined kernel or the weights separated by white space or commas
+   * @param size       the size of the kernel
+   * @return the kernel
+   * @throws EvalException if the definition is not valid
+   */
+  static Kernel get(String definition, int size) {
+    String key = definition + "|" + size;
+    Kernel kernel = KERNELS.get(key);
+    if (kernel == null) {
+      kernel = create(definition, size);
+      if (KERNELS.size() >= MAX_CACHED_KERNELS) {
+        KERNELS.clear();
+      }
+      KERNELS.put(key, kernel);
+    }
+    return kernel;
+  }
+
+  int getSize() {
+    return size;
+  }
+
+  /**
+   * The weights, stored row by row.
+   *
+   * @return the weights
+   */
+  double[] getWeights() {
+    return weights;
+  }
+
+  /**
+   * The weights of a row, if the kernel is separable.
+   *
+   * @return the row weights or {@code null}
+   */
+  double[] getRowWeights() {
+    return rowWeights;
+  }
+
+  /**
+   * The weights of a column, if the kernel is separable.
+   *
+   * @return the column weights or {@code null}
+   */
+  double[] getColumnWeights() {
+    return columnWeights;
+  }
+
+  boolean isSeparable() {
+    return rowWeights != null;
+  }
+
+  double getSum() {
+    return sum;
+  }
+
+  /**
+   * Kernels with a sum of zero, like the Laplacian, cannot be normalised over the valid pixels.
+   *
+   * @return {@code true} if the weights sum up to zero
+   */
+  boolean isZeroSum() {
+    return zeroSum;
+  }
+
+  /**
+   * Returns the spectrum of the kernel for an FFT of the given size. The kernel is placed so that the circular
+   * convolution applies the weights to the window centered on each pixel.
+   *
+   * @param width  the width of the FFT, a power of two
+   * @param height the height of the FFT, a power of two
+   * @return the real and imaginary parts of the spectrum
+   */
+  synchronized double[][] getSpectrum(int width, int height) {
+    long key = ((long) width << 32) | height;
+    double[][] spectrum = spectra.get(key);
+    if (spectrum == null) {
+      double[] re = new double[width * height];
+      double[] im = new double[width * height];
+      int halo = size / 2;
+      for (int j = 0; j < size; j++) {
+        int y = Math.floorMod(halo - j, height);
+        for (int i = 0; i < size; i++) {
+          int x = Math.floorMod(halo - i, width);
+          re[y * width + x] += weights[j * size + i];
+        }
+      }
+      Fft.transform2D(re, im, width, height, false);
+      spectrum = new double[][]{re, im};
+      spectra.put(key, spectrum);
+    }
+    return spectrum;
+  }
+
+  private static Kernel create(String definition, int size) {
+    String name = definition.trim().toLowerCase();
+    switch (name) {
+      case BOX:
+        double[] box = new double[size * size];
+        Arrays.fill(box, 1.0 / box.length);
+        return new Kernel(size, box);
+      case GAUSS:
+        return new Kernel(size, createGauss(size));
+      case LAPLACE:
+        if (size != 3) {
+          throw new EvalException("The laplace kernel is only available with the size 3, use 'log' for larger sizes");
+        }
+        return new Kernel(size, new double[]{0, 1, 0, 1, -4, 1, 0, 1, 0});
+      case LOG:
+        return new Kernel(size, createLaplacianOfGaussian(size));
+      default:
+        return new Kernel(size, parseWeights(definition, size));
+    }
+  }
+
+  private static double[] createGauss(int size) {
+    double sigma = size / 6.0;
+    int halo = size / 2;
+    double[] weights = new double[size * size];
+    double sum = 0;
+    for (int j = 0; j < size; j++) {
+      for (int i = 0; i < size; i++) {
+        double r2 = (i - halo) * (i - halo) + (j - halo) * (j - halo);
+        weights[j * size + i] = Math.exp(-r2 / (2 * sigma * sigma));
+        sum += weights[j * size + i];
+      }
+    }
+    for (int i = 0; i < weights.length; i++) {
+      weights[i] /= sum;
+    }
+    return weights;
+  }
+
+  // the mean is subtracted, so that a constant area results in zero
+  private static double[] createLaplacianOfGaussian(int size) {
+    double sigma = size / 6.0;
+    int halo = size / 2;
+    double[] weights = new double[size * size];
+    double mean = 0;
+    for (int j = 0; j < size; j++) {
+      for (int i = 0; i < size; i++) {
+        double r2 = (i - halo) * (i - halo) + (j - halo) * (j - halo);
+        double sigma2 = sigma * sigma;
+        double weight = (r2 - 2 * sigma2) / (sigma2 * sigma2) * Math.exp(-r2 / (2 * sigma2));
+        weights[j * size + i] = weight;
+        mean += weight / weights.length;
+      }
+    }
+    for (int i = 0; i < weights.length; i++) {
+      weights[i] -= mean;
+    }
+    return weights;
+  }
+
+  private static double[] parseWeights(String definition, int size) {
+    String[] tokens = definition.trim().split("[\\s,;]+");
+    if (tokens.length != size * size) {
+      throw new EvalException(String.format(
+          "Kernel of conv() must be one of [%s, %s, %s, %s] or %d weights, but was '%s'", BOX, GAUSS, LAPLACE, LOG,
+          size * size, definition));
+    }
+    double[] weights = new double[tokens.length];
+    for (int i = 0; i < tokens.length; i++) {
+      try {
+        weights[i] = Double.parseDouble(tokens[i]);
+      } catch (NumberFormatException e) {
+        throw new EvalException("Kernel weight of conv() is not a number: '" + tokens[i] + "'");
+      }
+    }
+    return weights;
+  }
+
+  // A kernel is separable if it is the outer product of a column and a row vector. The vectors are taken from the row
+  // and the column of the largest weight and the product is verified.
+  private static double[][] factorize(int size, double[] weights) {
+    int maxIndex = 0;
+    for (int i = 1; i < weights.length; i++) {
+      if (Math.abs(weights[i]) > Math.abs(weights[maxIndex])) {
+        maxIndex = i;
+      }
+    }
+    double pivot = weights[maxIndex];
+    if (pivot == 0) {
+      return null;
+    }
+    int pivotRow = maxIndex / size;
+    int pivotColumn = maxIndex % size;
+    double[] column = new double[size];
+    double[] row = new double[size];
+    for (int k = 0; k < size; k++) {
+      column[k] = weights[k * size + pivotColumn];
+      row[k] = weights[pivotRow * size + k] / pivot;
+    }
+    double tolerance = 1.0e-9 * Math.abs(pivot);
+    for (int j = 0; j < size; j++) {
+      for (int i = 0; i < size; i++) {
+        if (Math.abs(column[j] * row[i] - weights[j * size + i]) > tolerance) {
+          return null;
+        }
+      }
+    }
+    return new double[][]{column, row};
+  }
+}
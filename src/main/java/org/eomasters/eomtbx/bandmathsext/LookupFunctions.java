@@ -0,0 +1,139 @@
+/*-
+ * ========================LICENSE_START=================================
+ * EOMTBX - EOMasters Toolbox Basic for SNAP
+ * -> https://www.eomasters.org/sw/EOMTBX
+ * ======================================================================
+ * Copyright (C) 2023 - 2025 Marco Peters
+ * ======================================================================
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * -> http://www.gnu.org/licenses/gpl-3.0.html
+ * =========================LICENSE_END==================================
+ */
+
+package org.eomasters.eomtbx.bandmathsext;
+
+import org.esa.snap.core.dataop.barithm.RasterDataEvalEnv;
+import org.esa.snap.core.jexp.EvalEnv;
+import org.esa.snap.core.jexp.EvalException;
+import org.esa.snap.core.jexp.Function;
+import org.esa.snap.core.jexp.Term;
+import org.esa.snap.core.jexp.impl.AbstractFunction;
+
+/**
+ * Implements functions which map the value of an expression by a table. The table is given by constant arguments.
+ * <ul>
+ *   <li>lut: {@code lut(SCL, v0, v1, v2, ...)} returns {@code v0} for 0, {@code v1} for 1 and so on. The integer part
+ *   of the value is used as index, values outside the table give NaN.</li>
+ *   <li>classify: {@code classify(NDVI, b0, b1, ..., c0, c1, c2, ...)} returns {@code c0} for values below
+ *   {@code b0}, {@code c1} for values from {@code b0} up to {@code b1} and so on. For n breaks, n + 1 classes are
+ *   needed and the breaks must be ascending.</li>
+ * </ul>
+ * NaN values give NaN. All arguments except the value must be constant, otherwise an {@link EvalException} is thrown.
+ * Functions are shared between all expressions and do not get notified when they are bound to their arguments.
+ * Therefore, the constant arguments are compiled into a primitive array once per target tile and kept in the
+ * {@link TileCache}. The evaluation of a pixel needs a lookup in the cache and an array access or a binary search,
+ * instead of a chain of conditional expressions.
+ *
+ * @author Marco Peters
+ */
+class LookupFunctions {
+
+  /**
+   * Function that uses the value as index into a table of values.
+   */
+  static final Function LUT = new AbstractFunction.D("lut", -1) {
+    @Override
+    public double evalD(EvalEnv env, Term[] args) throws EvalException {
+      double[] values = getTable(env, args, false);
+      double value = args[0].evalD(env);
+      if (!(value >= 0 && value < values.length)) {
+        return Double.NaN;
+      }
+      return values[(int) value];
+    }
+  };
+
+  /**
+   * Function that assigns the value to the class of the range it falls into.
+   */
+  static final Function CLASSIFY = new AbstractFunction.D("classify", -1) {
+    @Override
+    public double evalD(EvalEnv env, Term[] args) throws EvalException {
+      double[] table = getTable(env, args, true);
+      double value = args[0].evalD(env);
+      if (Double.isNaN(value)) {
+        return Double.NaN;
+      }
+      // the table holds the breaks followed by the classes
+      int numBreaks = table.length / 2;
+      int low = 0;
+      int high = numBreaks;
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        if (table[mid] <= value) {
+          low = mid + 1;
+        } else {
+          high = mid;
+        }
+      }
+      return table[numBreaks + low];
+    }
+  };
+
+  private LookupFunctions() {
+  }
+
+  private static double[] getTable(EvalEnv env, Term[] args, boolean classify) {
+    TileCache cache = TileCache.get((RasterDataEvalEnv) env);
+    double[] table = cache.lookup(args, 0, LookupFunctions.class);
+    if (table == null) {
+      table = classify ? compileClassify(env, args) : compileLut(env, args);
+      cache.put(args, 0, LookupFunctions.class, table);
+    }
+    return table;
+  }
+
+  private static double[] compileLut(EvalEnv env, Term[] args) {
+    if (args.length < 2) {
+      throw new EvalException("The lut function needs a value and at least one table value");
+    }
+    return evalConstants(env, args, "lut");
+  }
+
+  private static double[] compileClassify(EvalEnv env, Term[] args) {
+    if (args.length < 4 || args.length % 2 != 0) {
+      throw new EvalException("The classify function needs a value, n breaks and n + 1 classes");
+    }
+    double[] table = evalConstants(env, args, "classify");
+    int numBreaks = table.length / 2;
+    for (int i = 1; i < numBreaks; i++) {
+      if (!(table[i] > table[i - 1])) {
+        throw new EvalException("The breaks of the classify function must be ascending");
+      }
+    }
+    return table;
+  }
+
+  private static double[] evalConstants(EvalEnv env, Term[] args, String functionName) {
+    double[] constants = new double[args.length - 1];
+    for (int i = 1; i < args.length; i++) {
+      if (!TermUtils.isConstant(args[i])) {
+        throw new EvalException(
+            String.format("Argument %d of %s() must be a constant, but was '%s'", i + 1, functionName, args[i]));
+      }
+      constants[i - 1] = args[i].evalD(env);
+    }
+    return constants;
+  }
+}
@@ -24,89 +24,287 @@
 package org.eomasters.eomtbx.bandmathsext;
 
 import java.awt.Dimension;
-import java.awt.geom.Point2D;
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
 import java.lang.ref.WeakReference;
+import org.esa.snap.core.datamodel.CrsGeoCoding;
 import org.esa.snap.core.datamodel.GeoCoding;
+import org.esa.snap.core.datamodel.GeoPos;
+import org.esa.snap.core.datamodel.PixelPos;
+import org.esa.snap.core.datamodel.RasterDataNode;
 import org.esa.snap.core.dataop.barithm.RasterDataEvalEnv;
 import org.esa.snap.core.jexp.EvalEnv;
 import org.esa.snap.core.jexp.EvalException;
 import org.esa.snap.core.jexp.impl.AbstractSymbol;
-import org.geotools.geometry.DirectPosition2D;
-import org.opengis.geometry.DirectPosition;
+import org.geotools.referencing.CRS;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.geotools.referencing.operation.transform.ConcatenatedTransform;
+import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.operation.MathTransform;
 import org.opengis.referencing.operation.TransformException;
 
 
+/**
+ * Provides the map coordinates of the centre of the current pixel. If the image-to-map transform of the geocoding is
+ * affine, the coordinates are computed directly from its coefficients. Otherwise, the pixel centres of the current row
+ * of the target tile are transformed at once and shared by all symbols using the same transform.
+ *
+ * <p>Besides the symbols for the scene, symbols bound to the geocoding and size of a single raster are provided. They
+ * are used in multi-size products as follows:</p>
+ * <pre>
+ *   &lt;band_name&gt;.mapx, &lt;band_name&gt;.mapy, &lt;band_name&gt;.lat, &lt;band_name&gt;.lon
+ * </pre>
+ * For a {@link CrsGeoCoding} the geographic coordinates are derived from the map coordinates. Other geocodings, like
+ * tie-point or pixel geocodings, have no exact image-to-map transform. For them the geographic coordinates are taken
+ * from {@link GeoCoding#getGeoPos(PixelPos, GeoPos)}, like the LAT and LON symbols of band maths do.
+ *
+ * @author Marco Peters
+ */
 abstract class MapPosSymbol extends AbstractSymbol.D {
 
-  public static final Point2D.Double INVALID_MAP_POS = new Point2D.Double(Double.NaN, Double.NaN);
+  private static final int AXIS_X = 0;
+  private static final int AXIS_Y = 1;
 
   private final WeakReference<GeoCoding> geocodingRef;
   private final Dimension size;
+  private final int axis;
+  private final boolean geographic;
+  private volatile PixelToMap pixelToMap;
 
-  protected MapPosSymbol(String name, GeoCoding geocoding, Dimension size) {
+  protected MapPosSymbol(String name, GeoCoding geocoding, Dimension size, int axis, boolean geographic) {
     super(name);
     this.geocodingRef = new WeakReference<>(geocoding);
     this.size = size;
+    this.axis = axis;
+    this.geographic = geographic;
   }
 
   @Override
   public double evalD(EvalEnv env) throws EvalException {
-    GeoCoding geocoding = geocodingRef.get();
-    if (geocoding != null) {
-      if (geocoding.canGetGeoPos()) {
-        Point2D.Double mapCoord = getMapPos(geocoding, env, size.width, size.height);
-        return getMapCoord(mapCoord);
-      }
-    } else {
-      throw new EvalException("GeoCoding is not available");
+    PixelToMap toMap = getPixelToMap();
+    if (toMap == PixelToMap.NONE) {
+      return Double.NaN;
     }
-    return Double.NaN;
-  }
-
-  private static Point2D.Double getMapPos(final GeoCoding geoCoding, EvalEnv env, int width, int height) {
     RasterDataEvalEnv rasterEnv = (RasterDataEvalEnv) env;
     int pixelX = rasterEnv.getPixelX();
     int pixelY = rasterEnv.getPixelY();
-    if (pixelX >= 0 && pixelX < width && pixelY >= 0 && pixelY < height) {
-      MathTransform transform = geoCoding.getImageToMapTransform();
-      try {
-        DirectPosition position = transform.transform(new DirectPosition2D(pixelX + 0.5, pixelY + 0.5), null);
-        double[] coordinate = position.getCoordinate();
-        return new Point2D.Double(coordinate[0], coordinate[1]);
-      } catch (TransformException e) {
-        throw new EvalException(String.format("Error while retrieving Map position at [%d,%d]", pixelX, pixelY), e);
+    if (pixelX >= 0 && pixelX < size.width && pixelY >= 0 && pixelY < size.height) {
+      return toMap.getMapCoord(rasterEnv, pixelX, pixelY, axis);
+    }
+    return Double.NaN;
+  }
+
+  // the transform is resolved on the first evaluation, because the geocoding can still be changed after the
+  // namespace has been created
+  private PixelToMap getPixelToMap() {
+    PixelToMap toMap = pixelToMap;
+    if (toMap == null) {
+      GeoCoding geocoding = geocodingRef.get();
+      if (geocoding == null) {
+        throw new EvalException("GeoCoding is not available");
       }
+      if (!geocoding.canGetGeoPos()) {
+        toMap = PixelToMap.NONE;
+      } else if (geographic && !(geocoding instanceof CrsGeoCoding)) {
+        toMap = new PixelToMap(geocoding);
+      } else {
+        toMap = new PixelToMap(createTransform(geocoding));
+      }
+      pixelToMap = toMap;
     }
-    return INVALID_MAP_POS;
+    return toMap;
   }
 
-  protected abstract double getMapCoord(Point2D.Double mapCoord);
+  private MathTransform createTransform(GeoCoding geocoding) {
+    MathTransform imageToMap = geocoding.getImageToMapTransform();
+    if (!geographic) {
+      return imageToMap;
+    }
+    try {
+      // an affine transform remains affine if the map is already geographic
+      MathTransform mapToGeo = CRS.findMathTransform(geocoding.getMapCRS(), DefaultGeographicCRS.WGS84, true);
+      return ConcatenatedTransform.create(imageToMap, mapToGeo);
+    } catch (FactoryException e) {
+      throw new EvalException("Cannot transform map coordinates to geographic coordinates", e);
+    }
+  }
 
   static final class SymbolMapX extends MapPosSymbol {
 
     SymbolMapX(GeoCoding geocoding, Dimension size) {
-      super("MAPX", geocoding, size);
-    }
-
-    @Override
-    protected double getMapCoord(Point2D.Double mapCoord) {
-      return mapCoord.getX();
+      super("MAPX", geocoding, size, AXIS_X, false);
     }
   }
 
   static final class SymbolMapY extends MapPosSymbol {
 
     SymbolMapY(GeoCoding geocoding, Dimension size) {
-      super("MAPY", geocoding, size);
+      super("MAPY", geocoding, size, AXIS_Y, false);
+    }
+  }
+
+  /**
+   * A map or geographic coordinate symbol bound to a single raster.
+   */
+  static final class RasterSymbol extends MapPosSymbol {
+
+    static final String MAP_X_ID = ".mapx";
+    static final String MAP_Y_ID = ".mapy";
+    static final String LAT_ID = ".lat";
+    static final String LON_ID = ".lon";
+
+    private RasterSymbol(String name, RasterDataNode raster, int axis, boolean geographic) {
+      super(name, raster.getGeoCoding(), raster.getRasterSize(), axis, geographic);
+    }
+
+    static RasterSymbol mapX(String symbolPrefix, RasterDataNode raster) {
+      return new RasterSymbol(symbolPrefix + raster.getName() + MAP_X_ID, raster, AXIS_X, false);
+    }
+
+    static RasterSymbol mapY(String symbolPrefix, RasterDataNode raster) {
+      return new RasterSymbol(symbolPrefix + raster.getName() + MAP_Y_ID, raster, AXIS_Y, false);
     }
 
-    @Override
-    protected double getMapCoord(Point2D.Double mapCoord) {
-      return mapCoord.getY();
+    // geographic coordinates are in the order longitude, latitude
+    static RasterSymbol lat(String symbolPrefix, RasterDataNode raster) {
+      return new RasterSymbol(symbolPrefix + raster.getName() + LAT_ID, raster, AXIS_Y, true);
+    }
+
+    static RasterSymbol lon(String symbolPrefix, RasterDataNode raster) {
+      return new RasterSymbol(symbolPrefix + raster.getName() + LON_ID, raster, AXIS_X, true);
     }
   }
-}
 
+  private static final class PixelToMap {
+
+    private static final PixelToMap NONE = new PixelToMap((MathTransform) null);
+
+    private final MathTransform transform;
+    // the coefficients m00, m01, m02, m10, m11, m12 if the transform is affine, otherwise null
+    private final double[] affine;
+    // set if the geographic coordinates are taken directly from the geocoding
+    private final GeoCoding geocoding;
+
+    private PixelToMap(MathTransform transform) {
+      this.transform = transform;
+      this.affine = getAffineCoefficients(transform);
+      this.geocoding = null;
+    }
+
+    private PixelToMap(GeoCoding geocoding) {
+      this.transform = null;
+      this.affine = null;
+      this.geocoding = geocoding;
+    }
+
+    private double getMapCoord(RasterDataEvalEnv env, int pixelX, int pixelY, int axis) {
+      double centreX = pixelX + 0.5;
+      double centreY = pixelY + 0.5;
+      if (geocoding != null) {
+        return getGeoCoord(env, pixelX, pixelY, axis);
+      }
+      if (affine != null) {
+        int offset = 3 * axis;
+        return affine[offset] * centreX + affine[offset + 1] * centreY + affine[offset + 2];
+      }
+      TileCache cache = TileCache.get(env);
+      MapRow row = cache.lookup(transform, 0, MapRow.class);
+      if (row == null) {
+        row = new MapRow(cache.getLevelRegion(), cache.getScale());
+        cache.put(transform, 0, MapRow.class, row);
+      }
+      if (row.pixelY != pixelY) {
+        row.transform(transform, pixelY);
+      }
+      if (row.failed) {
+        return transformPixel(transform, centreX, centreY, row.pixel, pixelX, pixelY)[axis];
+      }
+      return row.coords[2 * (cache.getLevelX(env) - row.levelX) + axis];
+    }
+
+    // the lat and lon symbols of a pixel are usually evaluated one after the other, they share the geo position
+    private double getGeoCoord(RasterDataEvalEnv env, int pixelX, int pixelY, int axis) {
+      TileCache cache = TileCache.get(env);
+      GeoPixel geoPixel = cache.lookup(geocoding, 0, GeoPixel.class);
+      if (geoPixel == null) {
+        geoPixel = new GeoPixel();
+        cache.put(geocoding, 0, GeoPixel.class, geoPixel);
+      }
+      if (geoPixel.pixelX != pixelX || geoPixel.pixelY != pixelY) {
+        geoPixel.pixelPos.setLocation(pixelX + 0.5, pixelY + 0.5);
+        geocoding.getGeoPos(geoPixel.pixelPos, geoPixel.geoPos);
+        geoPixel.pixelX = pixelX;
+        geoPixel.pixelY = pixelY;
+      }
+      // geographic coordinates are in the order longitude, latitude
+      return axis == AXIS_X ? geoPixel.geoPos.lon : geoPixel.geoPos.lat;
+    }
 
+    private static double[] transformPixel(MathTransform transform, double centreX, double centreY, double[] pixel,
+        int pixelX, int pixelY) {
+      pixel[0] = centreX;
+      pixel[1] = centreY;
+      try {
+        transform.transform(pixel, 0, pixel, 0, 1);
+        return pixel;
+      } catch (TransformException e) {
+        throw new EvalException(String.format("Error while retrieving Map position at [%d,%d]", pixelX, pixelY), e);
+      }
+    }
 
+    private static double[] getAffineCoefficients(MathTransform transform) {
+      if (transform instanceof AffineTransform) {
+        AffineTransform affineTransform = (AffineTransform) transform;
+        return new double[]{
+            affineTransform.getScaleX(), affineTransform.getShearX(), affineTransform.getTranslateX(),
+            affineTransform.getShearY(), affineTransform.getScaleY(), affineTransform.getTranslateY()
+        };
+      }
+      return null;
+    }
+  }
+
+  // the geographic position of the pixel evaluated last
+  private static final class GeoPixel {
+
+    private final PixelPos pixelPos = new PixelPos();
+    private final GeoPos geoPos = new GeoPos();
+    private int pixelX = Integer.MIN_VALUE;
+    private int pixelY = Integer.MIN_VALUE;
+  }
+
+  // the map coordinates of the pixel centres of one row of the target region, stored interleaved as x, y. At a lower
+  // resolution level only the pixels evaluated at that level are transformed.
+  private static final class MapRow {
+
+    private final int levelX;
+    private final int scale;
+    private final double[] coords;
+    private final double[] pixel = new double[2];
+    private int pixelY = Integer.MIN_VALUE;
+    private boolean failed;
+
+    private MapRow(Rectangle levelRegion, int scale) {
+      this.levelX = levelRegion.x;
+      this.scale = scale;
+      this.coords = new double[2 * levelRegion.width];
+    }
+
+    private void transform(MathTransform transform, int y) {
+      int width = coords.length / 2;
+      for (int i = 0; i < width; i++) {
+        // the pixel coordinates of a level pixel are floor(scale * levelCoord)
+        coords[2 * i] = (levelX + i) * scale + 0.5;
+        coords[2 * i + 1] = y + 0.5;
+      }
+      try {
+        transform.transform(coords, 0, coords, 0, width);
+        failed = false;
+      } catch (TransformException e) {
+        // fall back to single pixels, so that only the pixels which cannot be transformed fail
+        failed = true;
+      }
+      pixelY = y;
+    }
+  }
+}
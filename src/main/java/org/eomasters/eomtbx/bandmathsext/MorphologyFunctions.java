@@ -0,0 +1,146 @@
+/*-
+ * ========================LICENSE_START=================================
+ * EOMTBX - EOMasters Toolbox Basic for SNAP
+ * -> https://www.eomasters.org/sw/EOMTBX
+ * ======================================================================
+ * Copyright (C) 2023 - 2025 Marco Peters
+ * ======================================================================
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * -> http://www.gnu.org/licenses/gpl-3.0.html
+ * =========================LICENSE_END==================================
+ */
+
+package org.eomasters.eomtbx.bandmathsext;
+
+import java.awt.Rectangle;
+import org.esa.snap.core.datamodel.RasterDataNode;
+import org.esa.snap.core.dataop.barithm.RasterDataEvalEnv;
+import org.esa.snap.core.jexp.EvalEnv;
+import org.esa.snap.core.jexp.EvalException;
+import org.esa.snap.core.jexp.Function;
+import org.esa.snap.core.jexp.Term;
+import org.esa.snap.core.jexp.impl.AbstractFunction;
+
+/**
+ * Implements the morphological operations dilate, erode, open and close for masks. They are used like
+ * {@code dilate(cloud_mask, 3)}, where the second argument is the radius of the square structuring element. A pixel
+ * belongs to the mask if it is valid and its value is not zero, so also bands can be used. Pixels outside the raster
+ * do not affect the result.
+ *
+ * <p>The operations work on bit-packed tiles, see {@link PackedBitmap}, so their costs hardly depend on the radius.
+ * When a lower resolution level of the image pyramid is computed, the radius is scaled accordingly.</p>
+ *
+ * @author Marco Peters
+ */
+class MorphologyFunctions {
+
+  private static final int MIN_RADIUS = 1;
+  private static final int MAX_RADIUS = 250;
+
+  /**
+   * Function that sets a pixel if any pixel of the mask within the radius is set.
+   */
+  static final Function DILATE = new MorphologyFunction("dilate", 1) {
+    @Override
+    void apply(PackedBitmap bitmap, int radius) {
+      bitmap.dilate(radius);
+    }
+  };
+
+  /**
+   * Function that sets a pixel if all pixels of the mask within the radius are set.
+   */
+  static final Function ERODE = new MorphologyFunction("erode", 1) {
+    @Override
+    void apply(PackedBitmap bitmap, int radius) {
+      bitmap.erode(radius);
+    }
+  };
+
+  /**
+   * Function that erodes and then dilates the mask. It removes parts of the mask which are smaller than the
+   * structuring element.
+   */
+  static final Function OPEN = new MorphologyFunction("open", 2) {
+    @Override
+    void apply(PackedBitmap bitmap, int radius) {
+      bitmap.erode(radius);
+      bitmap.dilate(radius);
+    }
+  };
+
+  /**
+   * Function that dilates and then erodes the mask. It fills gaps in the mask which are smaller than the structuring
+   * element.
+   */
+  static final Function CLOSE = new MorphologyFunction("close", 2) {
+    @Override
+    void apply(PackedBitmap bitmap, int radius) {
+      bitmap.dilate(radius);
+      bitmap.erode(radius);
+    }
+  };
+
+  private MorphologyFunctions() {
+  }
+
+  private abstract static class MorphologyFunction extends AbstractFunction.B {
+
+    // the number of radii a pixel depends on
+    private final int reach;
+
+    private MorphologyFunction(String name, int reach) {
+      super(name, 2, new int[]{Term.TYPE_D, Term.TYPE_I});
+      this.reach = reach;
+    }
+
+    abstract void apply(PackedBitmap bitmap, int radius);
+
+    @Override
+    public boolean evalB(EvalEnv env, Term[] args) throws EvalException {
+      RasterDataNode raster = TermUtils.getRaster(args[0]);
+      if (raster == null) {
+        throw new EvalException(String.format("First argument of %s() must reference a raster", getName()));
+      }
+      int radius = args[1].evalI(env);
+      if (radius < MIN_RADIUS || radius > MAX_RADIUS) {
+        throw new EvalException(
+            String.format("Second argument of %s() must be a number between %d and %d", getName(), MIN_RADIUS,
+                MAX_RADIUS));
+      }
+
+      RasterDataEvalEnv dataEvalEnv = (RasterDataEvalEnv) env;
+      TileCache cache = TileCache.get(dataEvalEnv);
+      int levelRadius = (int) Math.round(radius / (double) cache.getScale());
+      int halo = reach * levelRadius;
+      PackedBitmap bitmap = cache.lookup(raster, radius, this);
+      if (bitmap == null) {
+        bitmap = compute(raster, cache, levelRadius, halo);
+        cache.put(raster, radius, this, bitmap);
+      }
+      Rectangle region = cache.getLevelRegion();
+      return bitmap.get(cache.getLevelX(dataEvalEnv) - region.x + halo, cache.getLevelY(dataEvalEnv) - region.y + halo);
+    }
+
+    private PackedBitmap compute(RasterDataNode raster, TileCache cache, int levelRadius, int halo) {
+      ImageLevel imageLevel = cache.getImageLevel(raster);
+      SourceTile tile = SourceTile.read(raster, imageLevel, cache.getLevelRegion(), halo);
+      Rectangle imageArea = imageLevel.getBounds(raster.getGeophysicalImage());
+      imageArea.translate(-tile.getX(), -tile.getY());
+      PackedBitmap bitmap = new PackedBitmap(tile.getSetPixels(), tile.getWidth(), tile.getHeight(), imageArea);
+      apply(bitmap, levelRadius);
+      return bitmap;
+    }
+  }
+}
@@ -23,36 +23,41 @@
 
 package org.eomasters.eomtbx.bandmathsext;
 
-import java.util.Arrays;
-import java.util.List;
-import java.util.function.Predicate;
-import java.util.stream.Collectors;
-import java.util.stream.DoubleStream;
 import org.esa.snap.core.datamodel.RasterDataNode;
-import org.esa.snap.core.dataop.barithm.RasterDataEvalEnv;
 import org.esa.snap.core.jexp.EvalEnv;
+import org.esa.snap.core.jexp.EvalException;
 import org.esa.snap.core.jexp.Function;
 import org.esa.snap.core.jexp.Term;
 import org.esa.snap.core.jexp.impl.AbstractFunction;
 
 /**
- * Implements various functions for which can take a variable length of arguments. Currently, these are MIN, MAX and
- * MEAN. All implementations exclude invalid pixels from the calculation.
+ * Implements various functions for which can take a variable length of arguments. Currently, these are MIN, MAX,
+ * MEAN, MEDIAN, PERCENTILE, STD, SUM, COUNT_VALID, FIRST_VALID and the index of the minimum and maximum. All
+ * implementations exclude invalid pixels from the calculation.
  *
  * @author Marco Peters
  */
 class MultiInputFunctions {
 
+  private static final ThreadLocal<ValueBuffers> VALUE_BUFFERS = ThreadLocal.withInitial(ValueBuffers::new);
+
   /**
    * Function that returns the minimum value of the arguments.
    */
   static final Function MIN = new AbstractFunction.D("minOf", -1) {
 
     public double evalD(final EvalEnv env, final Term[] args) {
-      return Arrays.stream(args)
-                   .filter(new RemoveInvalidPixels(env))
-                   .map(term -> term.evalD(env)).filter(Double::isFinite)
-                   .min(Double::compare).orElse(Double.NaN);
+      RasterDataNode[] rasters = ArgumentRasters.get(args, env);
+      double min = Double.NaN;
+      for (int i = 0; i < args.length; i++) {
+        if (ArgumentRasters.isPixelValid(rasters[i], env)) {
+          double value = args[i].evalD(env);
+          if (Double.isFinite(value) && (Double.isNaN(min) || Double.compare(value, min) < 0)) {
+            min = value;
+          }
+        }
+      }
+      return min;
     }
   };
 
@@ -62,10 +67,17 @@ class MultiInputFunctions {
   static final Function MAX = new AbstractFunction.D("maxOf", -1) {
 
     public double evalD(final EvalEnv env, final Term[] args) {
-      return Arrays.stream(args)
-                   .filter(new RemoveInvalidPixels(env))
-                   .map(term -> term.evalD(env)).filter(Double::isFinite)
-                   .max(Double::compare).orElse(Double.NaN);
+      RasterDataNode[] rasters = ArgumentRasters.get(args, env);
+      double max = Double.NaN;
+      for (int i = 0; i < args.length; i++) {
+        if (ArgumentRasters.isPixelValid(rasters[i], env)) {
+          double value = args[i].evalD(env);
+          if (Double.isFinite(value) && (Double.isNaN(max) || Double.compare(value, max) > 0)) {
+            max = value;
+          }
+        }
+      }
+      return max;
     }
   };
 
@@ -75,13 +87,14 @@ class MultiInputFunctions {
   static final Function INDEX_OF_MIN = new AbstractFunction.I("indexOfMin", -1) {
 
     public int evalI(final EvalEnv env, final Term[] args) {
-      List<Double> valueList = Arrays.stream(args).map(new ReplaceInvalidTermsByNaN(env)).
-                                     map(term -> term.evalD(env)).collect(Collectors.toList());
-
+      RasterDataNode[] rasters = ArgumentRasters.get(args, env);
       int minIndex = -1;
-      for (int i = 0; i < valueList.size(); i++) {
-        if (!Double.isNaN(valueList.get(i)) && (minIndex == -1 || valueList.get(i) < valueList.get(minIndex))) {
+      double minValue = Double.NaN;
+      for (int i = 0; i < args.length; i++) {
+        double value = ArgumentRasters.isPixelValid(rasters[i], env) ? args[i].evalD(env) : Double.NaN;
+        if (!Double.isNaN(value) && (minIndex == -1 || value < minValue)) {
           minIndex = i;
+          minValue = value;
         }
       }
       return minIndex;
@@ -93,12 +106,14 @@ class MultiInputFunctions {
    */
   static final Function INDEX_OF_MAX = new AbstractFunction.I("indexOfMax", -1) {
     public int evalI(final EvalEnv env, final Term[] args) {
-      List<Double> valueList = Arrays.stream(args).map(new ReplaceInvalidTermsByNaN(env)).
-                                     map(term -> term.evalD(env)).collect(Collectors.toList());
+      RasterDataNode[] rasters = ArgumentRasters.get(args, env);
       int maxIndex = -1;
-      for (int i = 0; i < valueList.size(); i++) {
-        if (!Double.isNaN(valueList.get(i)) && (maxIndex == -1 || valueList.get(i) > valueList.get(maxIndex))) {
+      double maxValue = Double.NaN;
+      for (int i = 0; i < args.length; i++) {
+        double value = ArgumentRasters.isPixelValid(rasters[i], env) ? args[i].evalD(env) : Double.NaN;
+        if (!Double.isNaN(value) && (maxIndex == -1 || value > maxValue)) {
           maxIndex = i;
+          maxValue = value;
         }
       }
       return maxIndex;
@@ -111,55 +126,257 @@ class MultiInputFunctions {
   static final Function MEAN = new AbstractFunction.D("meanOf", -1) {
 
     public double evalD(final EvalEnv env, final Term[] args) {
-      double[] values = Arrays.stream(args)
-                              .filter(new RemoveInvalidPixels(env))
-                              .map(term -> term.evalD(env))
-                              .filter(Double::isFinite)
-                              .mapToDouble(Double::doubleValue)
-                              .toArray();
-      if (values.length == 0) {
-        return Double.NaN;
+      RasterDataNode[] rasters = ArgumentRasters.get(args, env);
+      // Kahan summation, as used by DoubleStream.sum(), keeps the rounding error independent of the argument count
+      double sum = 0;
+      double compensation = 0;
+      int count = 0;
+      for (int i = 0; i < args.length; i++) {
+        if (ArgumentRasters.isPixelValid(rasters[i], env)) {
+          double value = args[i].evalD(env);
+          if (Double.isFinite(value)) {
+            double corrected = value - compensation;
+            double newSum = sum + corrected;
+            compensation = (newSum - sum) - corrected;
+            sum = newSum;
+            count++;
+          }
+        }
       }
-      return DoubleStream.of(values).sum() / values.length;
+      return count > 0 ? sum / count : Double.NaN;
     }
   };
 
-  private static class RemoveInvalidPixels implements Predicate<Term> {
+  /**
+   * Function that returns the median value of the arguments.
+   */
+  static final Function MEDIAN = new AbstractFunction.D("medianOf", -1) {
+
+    public double evalD(final EvalEnv env, final Term[] args) {
+      ValueBuffers buffers = VALUE_BUFFERS.get();
+      double[] values = buffers.acquire(args.length);
+      try {
+        int count = collectValues(env, args, 0, values);
+        return percentile(values, count, 50);
+      } finally {
+        buffers.release();
+      }
+    }
+  };
 
-    private final EvalEnv env;
+  /**
+   * Function that returns a percentile of the arguments. The first argument specifies the percentile in the range
+   * [0, 100]. Values between the closest ranks are interpolated linearly.
+   */
+  static final Function PERCENTILE = new AbstractFunction.D("percentileOf", -1) {
 
-    public RemoveInvalidPixels(EvalEnv env) {
-      this.env = env;
+    public double evalD(final EvalEnv env, final Term[] args) {
+      if (args.length < 2) {
+        throw new EvalException("The percentileOf function takes the percentile and at least one value");
+      }
+      double percentile = args[0].evalD(env);
+      if (!(percentile >= 0 && percentile <= 100)) {
+        throw new EvalException("The percentile must be in the range [0, 100], but was " + percentile);
+      }
+      ValueBuffers buffers = VALUE_BUFFERS.get();
+      double[] values = buffers.acquire(args.length - 1);
+      try {
+        int count = collectValues(env, args, 1, values);
+        return percentile(values, count, percentile);
+      } finally {
+        buffers.release();
+      }
     }
+  };
 
-    @Override
-    public boolean test(Term term) {
-      RasterDataNode raster = TermUtils.getRaster(term);
-      if (raster != null) {
-        RasterDataEvalEnv dataEvalEnv = (RasterDataEvalEnv) env;
-        return raster.isPixelValid(dataEvalEnv.getPixelX(), dataEvalEnv.getPixelY());
+  /**
+   * Function that returns the population standard deviation of the arguments.
+   */
+  static final Function STD = new AbstractFunction.D("stdOf", -1) {
+
+    public double evalD(final EvalEnv env, final Term[] args) {
+      RasterDataNode[] rasters = ArgumentRasters.get(args, env);
+      // Welford's online algorithm
+      double mean = 0;
+      double m2 = 0;
+      int count = 0;
+      for (int i = 0; i < args.length; i++) {
+        if (ArgumentRasters.isPixelValid(rasters[i], env)) {
+          double value = args[i].evalD(env);
+          if (Double.isFinite(value)) {
+            count++;
+            double delta = value - mean;
+            mean += delta / count;
+            m2 += delta * (value - mean);
+          }
+        }
       }
-      return true; // okay, not a raster
+      return count > 0 ? Math.sqrt(m2 / count) : Double.NaN;
     }
-  }
+  };
+
+  /**
+   * Function that returns the sum of the arguments.
+   */
+  static final Function SUM = new AbstractFunction.D("sumOf", -1) {
 
-  private static class ReplaceInvalidTermsByNaN implements java.util.function.Function<Term, Term> {
+    public double evalD(final EvalEnv env, final Term[] args) {
+      RasterDataNode[] rasters = ArgumentRasters.get(args, env);
+      double sum = 0;
+      int count = 0;
+      for (int i = 0; i < args.length; i++) {
+        if (ArgumentRasters.isPixelValid(rasters[i], env)) {
+          double value = args[i].evalD(env);
+          if (Double.isFinite(value)) {
+            sum += value;
+            count++;
+          }
+        }
+      }
+      return count > 0 ? sum : Double.NaN;
+    }
+  };
 
-    private final EvalEnv env;
+  /**
+   * Function that returns the number of valid and finite arguments.
+   */
+  static final Function COUNT_VALID = new AbstractFunction.I("countValidOf", -1) {
 
-    public ReplaceInvalidTermsByNaN(EvalEnv env) {
-      this.env = env;
+    public int evalI(final EvalEnv env, final Term[] args) {
+      RasterDataNode[] rasters = ArgumentRasters.get(args, env);
+      int count = 0;
+      for (int i = 0; i < args.length; i++) {
+        if (ArgumentRasters.isPixelValid(rasters[i], env) && Double.isFinite(args[i].evalD(env))) {
+          count++;
+        }
+      }
+      return count;
+    }
+  };
+
+  /**
+   * Function that returns the first argument which is valid and finite. The arguments are evaluated in order and the
+   * evaluation stops at the first hit.
+   */
+  static final Function FIRST_VALID = new AbstractFunction.D("firstValidOf", -1) {
+
+    public double evalD(final EvalEnv env, final Term[] args) {
+      RasterDataNode[] rasters = ArgumentRasters.get(args, env);
+      for (int i = 0; i < args.length; i++) {
+        if (ArgumentRasters.isPixelValid(rasters[i], env)) {
+          double value = args[i].evalD(env);
+          if (Double.isFinite(value)) {
+            return value;
+          }
+        }
+      }
+      return Double.NaN;
     }
+  };
 
-    @Override
-    public Term apply(Term term) {
-      RasterDataNode raster = TermUtils.getRaster(term);
-      if (raster != null) {
-        RasterDataEvalEnv dataEvalEnv = (RasterDataEvalEnv) env;
-        boolean pixelValid = raster.isPixelValid(dataEvalEnv.getPixelX(), dataEvalEnv.getPixelY());
-        return pixelValid ? term : Term.ConstD.NAN;
+  // collects the valid and finite values of the arguments starting at the given index and returns their number
+  private static int collectValues(EvalEnv env, Term[] args, int fromIndex, double[] values) {
+    RasterDataNode[] rasters = ArgumentRasters.get(args, env);
+    int count = 0;
+    for (int i = fromIndex; i < args.length; i++) {
+      if (ArgumentRasters.isPixelValid(rasters[i], env)) {
+        double value = args[i].evalD(env);
+        if (Double.isFinite(value)) {
+          values[count++] = value;
+        }
       }
-      return term; // okay, not a raster
+    }
+    return count;
+  }
+
+  // the values are reordered in place
+  private static double percentile(double[] values, int count, double percentile) {
+    if (count == 0) {
+      return Double.NaN;
+    }
+    double position = percentile / 100 * (count - 1);
+    int lower = (int) position;
+    double lowerValue = select(values, count, lower);
+    if (lower == count - 1 || position == lower) {
+      return lowerValue;
+    }
+    // after the selection all values above the lower rank are greater or equal
+    double upperValue = values[lower + 1];
+    for (int i = lower + 2; i < count; i++) {
+      upperValue = Math.min(upperValue, values[i]);
+    }
+    return lowerValue + (position - lower) * (upperValue - lowerValue);
+  }
+
+  // Hoare's quickselect, returns the k-th smallest value and partitions the values around it
+  private static double select(double[] values, int count, int k) {
+    int left = 0;
+    int right = count - 1;
+    while (right > left) {
+      int mid = (left + right) >>> 1;
+      // median of three as pivot to avoid the worst case for sorted input
+      if (values[mid] < values[left]) {
+        swap(values, mid, left);
+      }
+      if (values[right] < values[left]) {
+        swap(values, right, left);
+      }
+      if (values[right] < values[mid]) {
+        swap(values, right, mid);
+      }
+      double pivot = values[mid];
+      int i = left;
+      int j = right;
+      while (i <= j) {
+        while (values[i] < pivot) {
+          i++;
+        }
+        while (values[j] > pivot) {
+          j--;
+        }
+        if (i <= j) {
+          swap(values, i, j);
+          i++;
+          j--;
+        }
+      }
+      if (k <= j) {
+        right = j;
+      } else if (k >= i) {
+        left = i;
+      } else {
+        return values[k];
+      }
+    }
+    return values[k];
+  }
+
+  private static void swap(double[] values, int i, int j) {
+    double tmp = values[i];
+    values[i] = values[j];
+    values[j] = tmp;
+  }
+
+  // Per-thread value buffers. A stack is used because the arguments can contain nested calls of these functions.
+  private static final class ValueBuffers {
+
+    private double[][] buffers = new double[4][];
+    private int depth;
+
+    private double[] acquire(int minLength) {
+      if (depth == buffers.length) {
+        double[][] grown = new double[depth * 2][];
+        System.arraycopy(buffers, 0, grown, 0, depth);
+        buffers = grown;
+      }
+      if (buffers[depth] == null || buffers[depth].length < minLength) {
+        buffers[depth] = new double[minLength];
+      }
+      return buffers[depth++];
+    }
+
+    private void release() {
+      depth--;
     }
   }
 }
@@ -0,0 +1,252 @@
+/*-
+ * ========================LICENSE_START=================================
+ * EOMTBX - EOMasters Toolbox Basic for SNAP
+ * -> https://www.eomasters.org/sw/EOMTBX
+ * ======================================================================
+ * Copyright (C) 2023 - 2025 Marco Peters
+ * ======================================================================
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * -> http://www.gnu.org/licenses/gpl-3.0.html
+ * =========================LICENSE_END==================================
+ */
+
+package org.eomasters.eomtbx.bandmathsext;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+/**
+ * A binary image stored with one bit per pixel, which supports the morphological operations dilation and erosion with
+ * a square structuring element. Each row starts at a new word, so rows can be shifted word by word. Horizontally the
+ * window is built by repeatedly doubling shifted rows, vertically by the algorithm of van Herk and Gil-Werman. The
+ * costs grow at most logarithmically with the radius.
+ *
+ * <p>Pixels outside the image area, e.g. in the halo of a tile at the border of a raster, do not affect the result.
+ * They are ignored by the dilation as well as by the erosion.</p>
+ *
+ * @author Marco Peters
+ */
+final class PackedBitmap {
+
+  private final int width;
+  private final int height;
+  private final int wordsPerRow;
+  private final long[] bits;
+  private final long[] inside;
+
+  /**
+   * Creates a bitmap.
+   *
+   * @param pixels    the pixels which are set, organised row by row
+   * @param width     the width of the bitmap
+   * @param height    the height of the bitmap
+   * @param imageArea the area of the bitmap which lies within the image
+   */
+  PackedBitmap(boolean[] pixels, int width, int height, Rectangle imageArea) {
+    this.width = width;
+    this.height = height;
+    wordsPerRow = (width + 63) >>> 6;
+    bits = new long[wordsPerRow * height];
+    inside = new long[wordsPerRow * height];
+    Rectangle area = imageArea.intersection(new Rectangle(0, 0, width, height));
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        int word = y * wordsPerRow + (x >>> 6);
+        if (area.contains(x, y)) {
+          inside[word] |= 1L << x;
+          if (pixels[y * width + x]) {
+            bits[word] |= 1L << x;
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Creates a bitmap without any pixel set. The whole bitmap lies within the image.
+   *
+   * @param width  the width of the bitmap
+   * @param height the height of the bitmap
+   */
+  PackedBitmap(int width, int height) {
+    this.width = width;
+    this.height = height;
+    wordsPerRow = (width + 63) >>> 6;
+    bits = new long[wordsPerRow * height];
+    inside = new long[wordsPerRow * height];
+    long lastWord = (width & 63) == 0 ? -1L : (1L << width) - 1;
+    for (int y = 0; y < height; y++) {
+      int offset = y * wordsPerRow;
+      Arrays.fill(inside, offset, offset + wordsPerRow - 1, -1L);
+      inside[offset + wordsPerRow - 1] = lastWord;
+    }
+  }
+
+  int getWidth() {
+    return width;
+  }
+
+  int getHeight() {
+    return height;
+  }
+
+  /**
+   * Checks if the pixel at the given position is set.
+   *
+   * @param x the x position
+   * @param y the y position
+   * @return {@code true} if the pixel is set
+   */
+  boolean get(int x, int y) {
+    return (bits[y * wordsPerRow + (x >>> 6)] & (1L << x)) != 0;
+  }
+
+  /**
+   * Sets the pixel at the given position.
+   *
+   * @param x the x position
+   * @param y the y position
+   */
+  void set(int x, int y) {
+    bits[y * wordsPerRow + (x >>> 6)] |= 1L << x;
+  }
+
+  /**
+   * Dilates the bitmap. A pixel is set afterwards if any pixel within the radius is set.
+   *
+   * @param radius the radius of the square structuring element
+   */
+  void dilate(int radius) {
+    if (radius > 0) {
+      dilateRows(radius);
+      dilateColumns(radius);
+    }
+  }
+
+  /**
+   * Erodes the bitmap. A pixel stays set if all pixels within the radius are set.
+   *
+   * @param radius the radius of the square structuring element
+   */
+  void erode(int radius) {
+    if (radius > 0) {
+      // the erosion is the complement of the dilated complement
+      invert();
+      dilate(radius);
+      invert();
+    }
+  }
+
+  private void invert() {
+    for (int i = 0; i < bits.length; i++) {
+      bits[i] = ~bits[i] & inside[i];
+    }
+  }
+
+  private void dilateRows(int radius) {
+    long[] row = new long[wordsPerRow];
+    long[] ahead = new long[wordsPerRow];
+    long[] behind = new long[wordsPerRow];
+    long[] shifted = new long[wordsPerRow];
+    for (int y = 0; y < height; y++) {
+      int offset = y * wordsPerRow;
+      System.arraycopy(bits, offset, row, 0, wordsPerRow);
+      // the window is the union of the runs of radius + 1 bits ahead of and behind the pixel
+      spread(row, radius + 1, 1, ahead, shifted);
+      spread(row, radius + 1, -1, behind, shifted);
+      for (int w = 0; w < wordsPerRow; w++) {
+        bits[offset + w] = (ahead[w] | behind[w]) & inside[offset + w];
+      }
+    }
+  }
+
+  // computes for each bit the union of the run of the given length, which starts at the bit and extends in the given
+  // direction, by doubling the run length in each step
+  private static void spread(long[] row, int length, int direction, long[] run, long[] shifted) {
+    System.arraycopy(row, 0, run, 0, row.length);
+    int covered = 1;
+    while (2 * covered <= length) {
+      shift(run, direction * covered, shifted);
+      or(run, shifted);
+      covered *= 2;
+    }
+    if (covered < length) {
+      shift(run, direction * (length - covered), shifted);
+      or(run, shifted);
+    }
+  }
+
+  // van Herk / Gil-Werman: the rows, padded by the radius on both sides, are divided into blocks of the window size.
+  // Each window spans at most two blocks and is the union of a suffix of the first and a prefix of the second block.
+  private void dilateColumns(int radius) {
+    int size = 2 * radius + 1;
+    int paddedHeight = height + 2 * radius;
+    long[] prefix = new long[paddedHeight * wordsPerRow];
+    long[] suffix = new long[paddedHeight * wordsPerRow];
+    for (int p = 0; p < paddedHeight; p++) {
+      boolean blockStart = p % size == 0;
+      for (int w = 0; w < wordsPerRow; w++) {
+        long value = getPadded(p - radius, w);
+        prefix[p * wordsPerRow + w] = blockStart ? value : prefix[(p - 1) * wordsPerRow + w] | value;
+      }
+    }
+    for (int p = paddedHeight - 1; p >= 0; p--) {
+      boolean blockEnd = p % size == size - 1 || p == paddedHeight - 1;
+      for (int w = 0; w < wordsPerRow; w++) {
+        long value = getPadded(p - radius, w);
+        suffix[p * wordsPerRow + w] = blockEnd ? value : suffix[(p + 1) * wordsPerRow + w] | value;
+      }
+    }
+    for (int y = 0; y < height; y++) {
+      // the window of row y covers the padded rows y to y + 2 * radius
+      int first = y * wordsPerRow;
+      int last = (y + 2 * radius) * wordsPerRow;
+      for (int w = 0; w < wordsPerRow; w++) {
+        bits[first + w] = (suffix[first + w] | prefix[last + w]) & inside[first + w];
+      }
+    }
+  }
+
+  private long getPadded(int y, int word) {
+    return y >= 0 && y < height ? bits[y * wordsPerRow + word] : 0;
+  }
+
+  // shifts the bits of a row, so that bit x of the target is bit x + distance of the source
+  private static void shift(long[] source, int distance, long[] target) {
+    int n = source.length;
+    int wordShift = Math.abs(distance) >>> 6;
+    int bitShift = Math.abs(distance) & 63;
+    for (int w = 0; w < n; w++) {
+      if (distance >= 0) {
+        long low = getWord(source, w + wordShift);
+        long high = getWord(source, w + wordShift + 1);
+        target[w] = bitShift == 0 ? low : (low >>> bitShift) | (high << (64 - bitShift));
+      } else {
+        long high = getWord(source, w - wordShift);
+        long low = getWord(source, w - wordShift - 1);
+        target[w] = bitShift == 0 ? high : (high << bitShift) | (low >>> (64 - bitShift));
+      }
+    }
+  }
+
+  private static long getWord(long[] words, int index) {
+    return index >= 0 && index < words.length ? words[index] : 0;
+  }
+
+  private static void or(long[] target, long[] source) {
+    for (int w = 0; w < target.length; w++) {
+      target[w] |= source[w];
+    }
+  }
+}
@@ -0,0 +1,120 @@
+/*-
+ * ========================LICENSE_START=================================
+ * EOMTBX - EOMasters Toolbox Basic for SNAP
+ * -> https://www.eomasters.org/sw/EOMTBX
+ * ======================================================================
+ * Copyright (C) 2023 - 2025 Marco Peters
+ * ======================================================================
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * -> http://www.gnu.org/licenses/gpl-3.0.html
+ * =========================LICENSE_END==================================
+ */
+
+package org.eomasters.eomtbx.bandmathsext;
+
+import com.bc.ceres.glevel.MultiLevelImage;
+import java.awt.Rectangle;
+import java.awt.image.Raster;
+import org.esa.snap.core.datamodel.RasterDataNode;
+
+/**
+ * The valid mask of a raster for a region, stored with one bit per pixel. Masks of the same region can be combined
+ * word by word.
+ *
+ * @author Marco Peters
+ */
+final class PackedValidMask {
+
+  /**
+   * A mask which considers all pixels as valid. It is used for rasters without a valid mask and matches any region.
+   */
+  static final PackedValidMask ALL_VALID = new PackedValidMask(null, null);
+
+  private final Rectangle region;
+  private final long[] bits;
+
+  private PackedValidMask(Rectangle region, long[] bits) {
+    this.region = region;
+    this.bits = bits;
+  }
+
+  /**
+   * Reads the valid mask of the raster for the given region.
+   *
+   * @param raster the raster
+   * @param region the region in pixel coordinates of the raster
+   * @return the valid mask
+   */
+  static PackedValidMask read(RasterDataNode raster, Rectangle region) {
+    return read(raster, ImageLevel.FULL_RESOLUTION, region);
+  }
+
+  /**
+   * Reads the valid mask of the given image level of the raster for the region.
+   *
+   * @param raster     the raster
+   * @param imageLevel the image level
+   * @param region     the region in pixel coordinates of the image level
+   * @return the valid mask
+   */
+  static PackedValidMask read(RasterDataNode raster, ImageLevel imageLevel, Rectangle region) {
+    MultiLevelImage validMaskImage = raster.getValidMaskImage();
+    if (validMaskImage == null) {
+      return ALL_VALID;
+    }
+    Raster maskData = imageLevel.readData(validMaskImage, region);
+    int[] samples = maskData.getSamples(region.x, region.y, region.width, region.height, 0, (int[]) null);
+    long[] bits = new long[(samples.length + 63) >>> 6];
+    for (int i = 0; i < samples.length; i++) {
+      if (samples[i] != 0) {
+        bits[i >>> 6] |= 1L << i;
+      }
+    }
+    return new PackedValidMask(new Rectangle(region), bits);
+  }
+
+  /**
+   * Checks if the pixel at the given index is valid.
+   *
+   * @param index the index of the pixel within the region, organised row by row
+   * @return {@code true} if the pixel is valid
+   */
+  boolean isValid(int index) {
+    return bits == null || (bits[index >>> 6] & (1L << index)) != 0;
+  }
+
+  /**
+   * Combines this mask with another mask of the same region. A pixel is valid in the result if it is valid in both
+   * masks.
+   *
+   * @param other the other mask
+   * @return the combined mask
+   */
+  PackedValidMask and(PackedValidMask other) {
+    if (other.bits == null) {
+      return this;
+    }
+    if (bits == null) {
+      return other;
+    }
+    if (!region.equals(other.region)) {
+      throw new IllegalArgumentException("The masks must cover the same region");
+    }
+    long[] combined = new long[bits.length];
+    for (int i = 0; i < combined.length; i++) {
+      combined[i] = bits[i] & other.bits[i];
+    }
+    return new PackedValidMask(region, combined);
+  }
+}
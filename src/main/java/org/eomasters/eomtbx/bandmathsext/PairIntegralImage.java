@@ -0,0 +1,216 @@
+/*-
+ * ========================LICENSE_START=================================
+ * EOMTBX - EOMasters Toolbox Basic for SNAP
+ * -> https://www.eomasters.org/sw/EOMTBX
+ * ======================================================================
+ * Copyright (C) 2023 - 2025 Marco Peters
+ * ======================================================================
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * -> http://www.gnu.org/licenses/gpl-3.0.html
+ * =========================LICENSE_END==================================
+ */
+
+package org.eomasters.eomtbx.bandmathsext;
+
+import java.awt.Rectangle;
+
+/**
+ * Summed-area tables of two {@link SourceTile}s for the pixels which are valid in both tiles. Besides the count of
+ * these pixels, the tables contain the sums of the values, of their squares and of their products. The covariance
+ * and correlation of any rectangular window within the area are computed with a few lookups, independent of the
+ * window size. The values are taken as deviations from the means of the whole area to avoid the cancellation errors
+ * of plain sums of squares and products.
+ *
+ * <p>Pixels with an infinite value are not added to the sums, because they would turn the differences of the tables
+ * into NaN also for windows which do not contain them. They are counted in a separate table, which is only created
+ * if there are such pixels. The covariance and correlation of a window containing them is NaN.</p>
+ *
+ * @author Marco Peters
+ */
+final class PairIntegralImage {
+
+  private static final double RELATIVE_EPSILON = 1.0e-12;
+
+  private final Rectangle area;
+  private final int stride;
+  private final int[] counts;
+  private final double[] sumsA;
+  private final double[] sumsB;
+  private final double[] squaresA;
+  private final double[] squaresB;
+  private final double[] products;
+  private int[] infinities;
+
+  private PairIntegralImage(Rectangle area) {
+    this.area = area;
+    stride = area.width + 1;
+    int size = stride * (area.height + 1);
+    counts = new int[size];
+    sumsA = new double[size];
+    sumsB = new double[size];
+    squaresA = new double[size];
+    squaresB = new double[size];
+    products = new double[size];
+  }
+
+  /**
+   * Creates the tables for the given area. Both tiles must cover the area. NaN samples are not considered, pixels with
+   * an infinite value are counted separately.
+   *
+   * @param tileA the first source tile
+   * @param tileB the second source tile
+   * @param area  the area in pixel coordinates of the tiles
+   * @return the integral image
+   */
+  static PairIntegralImage create(SourceTile tileA, SourceTile tileB, Rectangle area) {
+    double referenceA = 0;
+    double referenceB = 0;
+    int total = 0;
+    boolean hasInfinities = false;
+    for (int j = area.y; j < area.y + area.height; j++) {
+      for (int i = area.x; i < area.x + area.width; i++) {
+        double a = tileA.getSample(i, j);
+        double b = tileB.getSample(i, j);
+        if (Double.isFinite(a) && Double.isFinite(b)) {
+          referenceA += a;
+          referenceB += b;
+          total++;
+        } else if (!Double.isNaN(a) && !Double.isNaN(b)) {
+          hasInfinities = true;
+        }
+      }
+    }
+    if (total > 0) {
+      referenceA /= total;
+      referenceB /= total;
+    }
+
+    PairIntegralImage image = new PairIntegralImage(area);
+    int stride = image.stride;
+    if (hasInfinities) {
+      image.infinities = new int[stride * (area.height + 1)];
+    }
+    // first row and column stay zero, this avoids special cases at the border
+    for (int j = 0; j < area.height; j++) {
+      int rowCount = 0;
+      double rowSumA = 0;
+      double rowSumB = 0;
+      double rowSquareA = 0;
+      double rowSquareB = 0;
+      double rowProduct = 0;
+      int rowInfinities = 0;
+      int prevOffset = j * stride + 1;
+      int destOffset = prevOffset + stride;
+      for (int i = 0; i < area.width; i++) {
+        double a = tileA.getSample(area.x + i, area.y + j);
+        double b = tileB.getSample(area.x + i, area.y + j);
+        if (Double.isFinite(a) && Double.isFinite(b)) {
+          double deviationA = a - referenceA;
+          double deviationB = b - referenceB;
+          rowCount++;
+          rowSumA += deviationA;
+          rowSumB += deviationB;
+          rowSquareA += deviationA * deviationA;
+          rowSquareB += deviationB * deviationB;
+          rowProduct += deviationA * deviationB;
+        } else if (!Double.isNaN(a) && !Double.isNaN(b)) {
+          rowInfinities++;
+        }
+        image.counts[destOffset + i] = image.counts[prevOffset + i] + rowCount;
+        image.sumsA[destOffset + i] = image.sumsA[prevOffset + i] + rowSumA;
+        image.sumsB[destOffset + i] = image.sumsB[prevOffset + i] + rowSumB;
+        image.squaresA[destOffset + i] = image.squaresA[prevOffset + i] + rowSquareA;
+        image.squaresB[destOffset + i] = image.squaresB[prevOffset + i] + rowSquareB;
+        image.products[destOffset + i] = image.products[prevOffset + i] + rowProduct;
+        if (hasInfinities) {
+          image.infinities[destOffset + i] = image.infinities[prevOffset + i] + rowInfinities;
+        }
+      }
+    }
+    return image;
+  }
+
+  /**
+   * Returns the population covariance of the pixels within the window which are valid in both tiles. The window
+   * must be located within the area.
+   *
+   * @param minX the minimum x pixel coordinate (inclusive)
+   * @param minY the minimum y pixel coordinate (inclusive)
+   * @param maxX the maximum x pixel coordinate (inclusive)
+   * @param maxY the maximum y pixel coordinate (inclusive)
+   * @return the covariance or NaN if the window contains no valid pixels or pixels with an infinite value
+   */
+  double getCovariance(int minX, int minY, int maxX, int maxY) {
+    int upper = (minY - area.y) * stride;
+    int lower = (maxY - area.y + 1) * stride;
+    int left = minX - area.x;
+    int right = maxX - area.x + 1;
+    if (infinities != null && count(infinities, upper, lower, left, right) > 0) {
+      return Double.NaN;
+    }
+    int count = count(counts, upper, lower, left, right);
+    if (count == 0) {
+      return Double.NaN;
+    }
+    double meanA = sum(sumsA, upper, lower, left, right) / count;
+    double meanB = sum(sumsB, upper, lower, left, right) / count;
+    return sum(products, upper, lower, left, right) / count - meanA * meanB;
+  }
+
+  /**
+   * Returns the Pearson correlation coefficient of the pixels within the window which are valid in both tiles. The
+   * window must be located within the area.
+   *
+   * @param minX the minimum x pixel coordinate (inclusive)
+   * @param minY the minimum y pixel coordinate (inclusive)
+   * @param maxX the maximum x pixel coordinate (inclusive)
+   * @param maxY the maximum y pixel coordinate (inclusive)
+   * @return the correlation or NaN if the window contains less than two valid pixels, pixels with an infinite value
+   *     or one of the rasters is constant within the window
+   */
+  double getCorrelation(int minX, int minY, int maxX, int maxY) {
+    int upper = (minY - area.y) * stride;
+    int lower = (maxY - area.y + 1) * stride;
+    int left = minX - area.x;
+    int right = maxX - area.x + 1;
+    if (infinities != null && count(infinities, upper, lower, left, right) > 0) {
+      return Double.NaN;
+    }
+    int count = count(counts, upper, lower, left, right);
+    if (count < 2) {
+      return Double.NaN;
+    }
+    double meanA = sum(sumsA, upper, lower, left, right) / count;
+    double meanB = sum(sumsB, upper, lower, left, right) / count;
+    double squareA = sum(squaresA, upper, lower, left, right) / count;
+    double squareB = sum(squaresB, upper, lower, left, right) / count;
+    double varianceA = squareA - meanA * meanA;
+    double varianceB = squareB - meanB * meanB;
+    // a variance which is only left over by rounding errors means a constant raster
+    if (varianceA <= squareA * RELATIVE_EPSILON || varianceB <= squareB * RELATIVE_EPSILON) {
+      return Double.NaN;
+    }
+    double covariance = sum(products, upper, lower, left, right) / count - meanA * meanB;
+    // rounding errors can lead to values slightly outside the valid range
+    return Math.max(-1, Math.min(1, covariance / Math.sqrt(varianceA * varianceB)));
+  }
+
+  private static double sum(double[] table, int upper, int lower, int left, int right) {
+    return table[lower + right] - table[lower + left] - table[upper + right] + table[upper + left];
+  }
+
+  private static int count(int[] table, int upper, int lower, int left, int right) {
+    return table[lower + right] - table[lower + left] - table[upper + right] + table[upper + left];
+  }
+}
@@ -0,0 +1,382 @@
+/*-
+ * ========================LICENSE_START=================================
+ * EOMTBX - EOMasters Toolbox Basic for SNAP
+ * -> https://www.eomasters.org/sw/EOMTBX
+ * ======================================================================
+ * Copyright (C) 2023 - 2025 Marco Peters
+ * ======================================================================
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * -> http://www.gnu.org/licenses/gpl-3.0.html
+ * =========================LICENSE_END==================================
+ */
+
+
+package org.eomasters.eomtbx.bandmathsext;
+
+import com.bc.ceres.glevel.MultiLevelImage;
+import java.awt.Rectangle;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import org.esa.snap.core.datamodel.Mask;
+import org.esa.snap.core.datamodel.RasterDataNode;
+import org.esa.snap.runtime.Config;
+
+/**
+ * Statistics of a raster which are computed tile by tile in parallel on the fork-join pool. Each tile is reduced to a
+ * mergeable summary. A first pass computes count, extrema and moments, a second pass fills a histogram with a fixed
+ * number of bins between the extrema. Percentiles are interpolated within the bins, so their error is bounded by the
+ * bin width {@code (max - min) / binCount}. The number of bins can be configured by the preference
+ * {@value #PREFERENCE_KEY_HISTOGRAM_BINS}.
+ *
+ * <p>Optionally the statistics can be restricted to the pixels of a ROI mask. Tiles which do not contain any pixel of
+ * the mask are skipped without reading the raster data.</p>
+ *
+ * <p>The results are cached per raster, ROI mask and accuracy until the data of the product changes. Threads
+ * requesting the same statistics at the same time share one computation.</p>
+ *
+ * @author Marco Peters
+ */
+final class ParallelStx {
+
+  static final String PREFERENCE_KEY_HISTOGRAM_BINS = "eomtbx.stx.histogramBins";
+  private static final int DEFAULT_HISTOGRAM_BINS = 65536;
+  // the inaccurate statistics are computed on the lowest resolution level with at least this number of pixels
+  private static final long MIN_INACCURATE_PIXELS = 1024 * 1024;
+
+  private static final Map<RasterDataNode, List<CachedStx>> CACHE = new WeakHashMap<>();
+
+  private final Summary summary;
+  private final long[] histogram;
+  private final double binWidth;
+
+  private ParallelStx(Summary summary, long[] histogram) {
+    this.summary = summary;
+    this.histogram = histogram;
+    this.binWidth = (summary.max - summary.min) / histogram.length;
+  }
+
+  /**
+   * Returns the statistics of the raster. If they are not cached or outdated they are computed.
+   *
+   * @param raster   the raster
+   * @param roiMask  the mask restricting the pixels considered, can be {@code null}
+   * @param accurate if {@code true} the full resolution is used, otherwise a lower resolution level
+   * @return the statistics
+   */
+  static ParallelStx get(RasterDataNode raster, Mask roiMask, boolean accurate) {
+    CachedStx cachedStx = null;
+    synchronized (CACHE) {
+      List<CachedStx> entries = CACHE.computeIfAbsent(raster, r -> new ArrayList<>());
+      entries.removeIf(entry -> !entry.isValid());
+      for (CachedStx entry : entries) {
+        if (entry.accurate == accurate && entry.roiMaskRef.get() == roiMask) {
+          cachedStx = entry;
+          break;
+        }
+      }
+      if (cachedStx == null) {
+        AtomicInteger version = RasterChangeTracker.getVersion(raster);
+        cachedStx = new CachedStx(roiMask, accurate, version, version.get(),
+            new SharedResult<>(() -> compute(raster, roiMask, accurate)));
+        entries.add(cachedStx);
+      }
+    }
+    // computed outside the lock, other threads requesting the same statistics wait for the result
+    return cachedStx.stx.get();
+  }
+
+  /**
+   * Computes the statistics of the raster.
+   *
+   * @param raster   the raster
+   * @param roiMask  the mask restricting the pixels considered, can be {@code null}
+   * @param accurate if {@code true} the full resolution is used, otherwise a lower resolution level
+   * @return the statistics
+   */
+  static ParallelStx compute(RasterDataNode raster, Mask roiMask, boolean accurate) {
+    MultiLevelImage geophysicalImage = raster.getGeophysicalImage();
+    int level = accurate ? 0 : getInaccurateLevel(geophysicalImage);
+    RenderedImage image = geophysicalImage.getImage(level);
+    MultiLevelImage validMaskImage = raster.getValidMaskImage();
+    RenderedImage maskImage = validMaskImage != null ? validMaskImage.getImage(level) : null;
+    RenderedImage roiImage = roiMask != null ? roiMask.getSourceImage().getImage(level) : null;
+    int numTiles = image.getNumXTiles() * image.getNumYTiles();
+
+    Summary[] tileSummaries = IntStream.range(0, numTiles).parallel()
+                                       .mapToObj(tileIndex -> summarizeTile(image, maskImage, roiImage, tileIndex))
+                                       .toArray(Summary[]::new);
+    Summary summary = Arrays.stream(tileSummaries).reduce(new Summary(), Summary::merge);
+    int binCount = Math.max(1, Config.instance().preferences().getInt(PREFERENCE_KEY_HISTOGRAM_BINS,
+        DEFAULT_HISTOGRAM_BINS));
+    // tiles without any considered pixel are not read again
+    // one histogram per split of the stream is filled and the histograms are added up
+    long[] histogram = IntStream.range(0, numTiles).parallel()
+                                .filter(tileIndex -> tileSummaries[tileIndex].count > 0)
+                                .collect(() -> new long[binCount],
+                                    (tileHistogram, tileIndex) -> addTileToHistogram(tileHistogram, image, maskImage,
+                                        roiImage, tileIndex, summary),
+                                    ParallelStx::addHistogram);
+    return new ParallelStx(summary, histogram);
+  }
+
+  long getCount() {
+    return summary.count;
+  }
+
+  double getMinimum() {
+    return summary.count > 0 ? summary.min : Double.NaN;
+  }
+
+  double getMaximum() {
+    return summary.count > 0 ? summary.max : Double.NaN;
+  }
+
+  double getMean() {
+    return summary.count > 0 ? summary.mean : Double.NaN;
+  }
+
+  /**
+   * The standard deviation of the samples. Like the SNAP statistics it uses {@code count - 1} as divisor.
+   *
+   * @return the standard deviation
+   */
+  double getStandardDeviation() {
+    return summary.count > 1 ? Math.sqrt(summary.m2 / (summary.count - 1)) : Double.NaN;
+  }
+
+  /**
+   * The coefficient of variation. Like the SNAP statistics it is based on the population standard deviation.
+   *
+   * @return the coefficient of variation
+   */
+  double getCoefficientOfVariation() {
+    return summary.count > 0 ? Math.sqrt(summary.m2 / summary.count) / summary.mean : Double.NaN;
+  }
+
+  /**
+   * The equivalent number of looks. Like the SNAP statistics it is computed from the squared samples (intensities) as
+   * {@code mean^2 / variance}.
+   *
+   * @return the equivalent number of looks
+   */
+  double getEquivalentNumberOfLooks() {
+    return summary.count > 0 ? summary.meanSq * summary.meanSq / (summary.m2Sq / summary.count) : Double.NaN;
+  }
+
+  double getMedian() {
+    return getPercentile(50);
+  }
+
+  /**
+   * Returns the percentile interpolated within the histogram bins.
+   *
+   * @param percentile the percentile in the range [0, 100]
+   * @return the percentile or NaN if the raster contains no valid samples
+   */
+  double getPercentile(double percentile) {
+    if (summary.count == 0) {
+      return Double.NaN;
+    }
+    double rank = percentile / 100 * summary.count;
+    long cumulated = 0;
+    for (int i = 0; i < histogram.length; i++) {
+      long binCount = histogram[i];
+      if (binCount > 0 && cumulated + binCount >= rank) {
+        double value = summary.min + (i + (rank - cumulated) / binCount) * binWidth;
+        return Math.max(summary.min, Math.min(summary.max, value));
+      }
+      cumulated += binCount;
+    }
+    return summary.max;
+  }
+
+  private static int getInaccurateLevel(MultiLevelImage image) {
+    int levelCount = image.getModel().getLevelCount();
+    int level = 0;
+    while (level + 1 < levelCount) {
+      RenderedImage next = image.getImage(level + 1);
+      if ((long) next.getWidth() * next.getHeight() < MIN_INACCURATE_PIXELS) {
+        break;
+      }
+      level++;
+    }
+    return level;
+  }
+
+  private static Summary summarizeTile(RenderedImage image, RenderedImage maskImage, RenderedImage roiImage,
+      int tileIndex) {
+    Summary summary = new Summary();
+    Rectangle rect = getTileRect(image, tileIndex);
+    int[] roi = null;
+    if (roiImage != null) {
+      roi = getRoi(roiImage, rect);
+      if (isEmpty(roi)) {
+        return summary;
+      }
+    }
+    double[] samples = getSamples(image, maskImage, roi, rect);
+    for (double value : samples) {
+      if (Double.isFinite(value)) {
+        summary.add(value);
+      }
+    }
+    return summary;
+  }
+
+  private static void addTileToHistogram(long[] histogram, RenderedImage image, RenderedImage maskImage,
+      RenderedImage roiImage, int tileIndex, Summary summary) {
+    int binCount = histogram.length;
+    double scale = summary.max > summary.min ? binCount / (summary.max - summary.min) : 0;
+    Rectangle rect = getTileRect(image, tileIndex);
+    int[] roi = null;
+    if (roiImage != null) {
+      roi = getRoi(roiImage, rect);
+    }
+    double[] samples = getSamples(image, maskImage, roi, rect);
+    for (double value : samples) {
+      if (Double.isFinite(value)) {
+        int bin = (int) ((value - summary.min) * scale);
+        histogram[Math.min(bin, binCount - 1)]++;
+      }
+    }
+  }
+
+  static Rectangle getTileRect(RenderedImage image, int tileIndex) {
+    int tileX = image.getMinTileX() + tileIndex % image.getNumXTiles();
+    int tileY = image.getMinTileY() + tileIndex / image.getNumXTiles();
+    Rectangle tileRect = new Rectangle(image.getTileGridXOffset() + tileX * image.getTileWidth(),
+        image.getTileGridYOffset() + tileY * image.getTileHeight(), image.getTileWidth(), image.getTileHeight());
+    return tileRect.intersection(new Rectangle(image.getMinX(), image.getMinY(), image.getWidth(), image.getHeight()));
+  }
+
+  // invalid samples and samples outside the ROI are set to NaN
+  static double[] getSamples(RenderedImage image, RenderedImage maskImage, int[] roi, Rectangle rect) {
+    Raster data = TileCache.readNested(() -> image.getData(rect));
+    double[] samples = data.getSamples(rect.x, rect.y, rect.width, rect.height, 0, (double[]) null);
+    if (maskImage != null) {
+      Raster maskData = TileCache.readNested(() -> maskImage.getData(rect));
+      int[] mask = maskData.getSamples(rect.x, rect.y, rect.width, rect.height, 0, (int[]) null);
+      for (int i = 0; i < samples.length; i++) {
+        if (mask[i] == 0) {
+          samples[i] = Double.NaN;
+        }
+      }
+    }
+    if (roi != null) {
+      for (int i = 0; i < samples.length; i++) {
+        if (roi[i] == 0) {
+          samples[i] = Double.NaN;
+        }
+      }
+    }
+    return samples;
+  }
+
+  private static int[] getRoi(RenderedImage roiImage, Rectangle rect) {
+    Raster roiData = TileCache.readNested(() -> roiImage.getData(rect));
+    return roiData.getSamples(rect.x, rect.y, rect.width, rect.height, 0, (int[]) null);
+  }
+
+  private static boolean isEmpty(int[] roi) {
+    for (int value : roi) {
+      if (value != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static void addHistogram(long[] target, long[] source) {
+    for (int i = 0; i < target.length; i++) {
+      target[i] += source[i];
+    }
+  }
+
+  // the statistics of a raster for a ROI mask and accuracy, outdated when the data of the product changes
+  private static final class CachedStx {
+
+    private final WeakReference<Mask> roiMaskRef;
+    private final boolean accurate;
+    private final AtomicInteger version;
+    private final int computedVersion;
+    private final SharedResult<ParallelStx> stx;
+
+    private CachedStx(Mask roiMask, boolean accurate, AtomicInteger version, int computedVersion,
+        SharedResult<ParallelStx> stx) {
+      this.roiMaskRef = new WeakReference<>(roiMask);
+      this.accurate = accurate;
+      this.version = version;
+      this.computedVersion = computedVersion;
+      this.stx = stx;
+    }
+
+    private boolean isValid() {
+      return version.get() == computedVersion;
+    }
+  }
+
+  // count, extrema, mean and sum of squared deviations of the samples and of the squared samples, which can be merged
+  // with the method of Chan et al.
+  private static final class Summary {
+
+    private long count;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+    private double mean;
+    private double m2;
+    private double meanSq;
+    private double m2Sq;
+
+    private void add(double value) {
+      count++;
+      min = Math.min(min, value);
+      max = Math.max(max, value);
+      double delta = value - mean;
+      mean += delta / count;
+      m2 += delta * (value - mean);
+      double square = value * value;
+      double deltaSq = square - meanSq;
+      meanSq += deltaSq / count;
+      m2Sq += deltaSq * (square - meanSq);
+    }
+
+    private static Summary merge(Summary s1, Summary s2) {
+      if (s1.count == 0) {
+        return s2;
+      }
+      if (s2.count == 0) {
+        return s1;
+      }
+      Summary merged = new Summary();
+      merged.count = s1.count + s2.count;
+      merged.min = Math.min(s1.min, s2.min);
+      merged.max = Math.max(s1.max, s2.max);
+      double delta = s2.mean - s1.mean;
+      merged.mean = s1.mean + delta * s2.count / merged.count;
+      merged.m2 = s1.m2 + s2.m2 + delta * delta * s1.count * s2.count / merged.count;
+      double deltaSq = s2.meanSq - s1.meanSq;
+      merged.meanSq = s1.meanSq + deltaSq * s2.count / merged.count;
+      merged.m2Sq = s1.m2Sq + s2.m2Sq + deltaSq * deltaSq * s1.count * s2.count / merged.count;
+      return merged;
+    }
+  }
+}
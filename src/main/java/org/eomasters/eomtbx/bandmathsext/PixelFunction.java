@@ -0,0 +1,92 @@
+/*-
+ * ========================LICENSE_START=================================
+ * EOMTBX - EOMasters Toolbox Basic for SNAP
+ * -> https://www.eomasters.org/sw/EOMTBX
+ * ======================================================================
+ * Copyright (C) 2023 - 2025 Marco Peters
+ * ======================================================================
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * -> http://www.gnu.org/licenses/gpl-3.0.html
+ * =========================LICENSE_END==================================
+ */
+
+package org.eomasters.eomtbx.bandmathsext;
+
+import org.esa.snap.core.datamodel.RasterDataNode;
+import org.esa.snap.core.dataop.barithm.RasterDataEvalEnv;
+import org.esa.snap.core.jexp.EvalEnv;
+import org.esa.snap.core.jexp.EvalException;
+import org.esa.snap.core.jexp.Term;
+import org.esa.snap.core.jexp.impl.AbstractFunction.D;
+
+/**
+ * Gives access to a neighbouring pixel of a raster. In a band maths expression the function is used as follows:
+ * <pre>
+ *   pixel(&lt;band_name&gt;, &lt;dx&gt;, &lt;dy&gt;)
+ * </pre>
+ * It returns the value of the pixel which is {@code dx} pixels to the right and {@code dy} pixels below the current
+ * pixel. If this pixel is invalid or outside the raster, NaN is returned. The offsets must not exceed 250 pixels.
+ *
+ * <p>The values are taken from a source tile which covers the target tile and a halo, see
+ * {@link TileCache#getSourceTile(RasterDataNode, int)}. The halo is at least {@value #MIN_HALO} pixels, so all calls
+ * with small offsets on the same raster share one tile. When a lower resolution level of the image pyramid is
+ * computed, the offsets are scaled accordingly, but an offset other than zero stays at least one pixel.</p>
+ *
+ * @author Marco Peters
+ */
+class PixelFunction extends D {
+
+  private static final int MAX_OFFSET = 250;
+  private static final int MIN_HALO = 4;
+
+  PixelFunction() {
+    super("pixel", 3, new int[]{Term.TYPE_D, Term.TYPE_I, Term.TYPE_I});
+  }
+
+  @Override
+  public double evalD(EvalEnv env, Term[] args) throws EvalException {
+    RasterDataNode raster = TermUtils.getRaster(args[0]);
+    if (raster == null) {
+      throw new EvalException("First argument of pixel() must reference a raster");
+    }
+    int dx = getOffset(env, args[1], "Second");
+    int dy = getOffset(env, args[2], "Third");
+
+    RasterDataEvalEnv dataEvalEnv = (RasterDataEvalEnv) env;
+    TileCache cache = TileCache.get(dataEvalEnv);
+    int levelDx = getLevelOffset(dx, cache.getScale());
+    int levelDy = getLevelOffset(dy, cache.getScale());
+    int halo = Math.max(MIN_HALO, Math.max(Math.abs(levelDx), Math.abs(levelDy)));
+    SourceTile tile = cache.getSourceTile(raster, halo);
+    return tile.getSample(cache.getLevelX(dataEvalEnv) + levelDx, cache.getLevelY(dataEvalEnv) + levelDy);
+  }
+
+  private static int getOffset(EvalEnv env, Term arg, String position) {
+    int offset = arg.evalI(env);
+    if (Math.abs(offset) > MAX_OFFSET) {
+      throw new EvalException(
+          String.format("%s argument of pixel() must be a number between %d and %d", position, -MAX_OFFSET,
+              MAX_OFFSET));
+    }
+    return offset;
+  }
+
+  private static int getLevelOffset(int offset, int scale) {
+    if (scale == 1 || offset == 0) {
+      return offset;
+    }
+    int levelOffset = Math.max(1, (int) Math.round(Math.abs(offset) / (double) scale));
+    return offset < 0 ? -levelOffset : levelOffset;
+  }
+}
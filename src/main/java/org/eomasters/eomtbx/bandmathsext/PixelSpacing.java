@@ -0,0 +1,106 @@
+/*-
+ * ========================LICENSE_START=================================
+ * EOMTBX - EOMasters Toolbox Basic for SNAP
+ * -> https://www.eomasters.org/sw/EOMTBX
+ * ======================================================================
+ * Copyright (C) 2023 - 2025 Marco Peters
+ * ======================================================================
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * -> http://www.gnu.org/licenses/gpl-3.0.html
+ * =========================LICENSE_END==================================
+ */
+
+package org.eomasters.eomtbx.bandmathsext;
+
+import java.awt.geom.AffineTransform;
+import org.esa.snap.core.datamodel.GeoCoding;
+import org.esa.snap.core.datamodel.RasterDataNode;
+import org.esa.snap.core.jexp.EvalException;
+import org.opengis.referencing.crs.GeographicCRS;
+import org.opengis.referencing.operation.MathTransform;
+
+/**
+ * The spacing of the pixels of a raster on the ground, derived from the affine image-to-map transform of its
+ * geocoding. It converts gradients given per pixel into gradients per metre towards east and north. Rotated grids are
+ * considered. For geographic coordinates the spacing in metres depends on the latitude and is computed on a sphere
+ * with the mean radius of the earth.
+ *
+ * @author Marco Peters
+ */
+final class PixelSpacing {
+
+  private static final double EARTH_RADIUS = 6371008.8;
+  private static final double METRES_PER_DEGREE = EARTH_RADIUS * Math.PI / 180;
+
+  private final AffineTransform imageToMap;
+  private final double determinant;
+  private final boolean geographic;
+
+  private PixelSpacing(AffineTransform imageToMap, boolean geographic) {
+    this.imageToMap = imageToMap;
+    this.determinant = imageToMap.getDeterminant();
+    this.geographic = geographic;
+  }
+
+  /**
+   * Creates the pixel spacing of the given raster.
+   *
+   * @param raster the raster
+   * @return the pixel spacing
+   * @throws EvalException if the raster has no geocoding with an affine image-to-map transform
+   */
+  static PixelSpacing create(RasterDataNode raster) {
+    GeoCoding geoCoding = raster.getGeoCoding();
+    MathTransform transform = geoCoding != null ? geoCoding.getImageToMapTransform() : null;
+    if (!(transform instanceof AffineTransform)) {
+      throw new EvalException(
+          String.format("Raster '%s' needs a map geocoding to compute distances on the ground", raster.getName()));
+    }
+    return new PixelSpacing((AffineTransform) transform, geoCoding.getMapCRS() instanceof GeographicCRS);
+  }
+
+  /**
+   * Converts a gradient per pixel into the gradient per metre towards east.
+   *
+   * @param gradientX the gradient per pixel in x direction of the image
+   * @param gradientY the gradient per pixel in y direction of the image
+   * @param pixelX    the x position of the pixel, used for the latitude of geographic coordinates
+   * @param pixelY    the y position of the pixel, used for the latitude of geographic coordinates
+   * @return the gradient towards east
+   */
+  double toEast(double gradientX, double gradientY, double pixelX, double pixelY) {
+    // inverse of the transposed Jacobian of the image-to-map transform
+    double east = (imageToMap.getScaleY() * gradientX - imageToMap.getShearY() * gradientY) / determinant;
+    if (geographic) {
+      return east / (METRES_PER_DEGREE * Math.cos(Math.toRadians(getLatitude(pixelX, pixelY))));
+    }
+    return east;
+  }
+
+  /**
+   * Converts a gradient per pixel into the gradient per metre towards north.
+   *
+   * @param gradientX the gradient per pixel in x direction of the image
+   * @param gradientY the gradient per pixel in y direction of the image
+   * @return the gradient towards north
+   */
+  double toNorth(double gradientX, double gradientY) {
+    double north = (imageToMap.getScaleX() * gradientY - imageToMap.getShearX() * gradientX) / determinant;
+    return geographic ? north / METRES_PER_DEGREE : north;
+  }
+
+  private double getLatitude(double pixelX, double pixelY) {
+    return imageToMap.getShearY() * pixelX + imageToMap.getScaleY() * pixelY + imageToMap.getTranslateY();
+  }
+}
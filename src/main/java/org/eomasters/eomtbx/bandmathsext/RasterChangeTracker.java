@@ -0,0 +1,112 @@
+/*-
+ * ========================LICENSE_START=================================
+ * EOMTBX - EOMasters Toolbox Basic for SNAP
+ * -> https://www.eomasters.org/sw/EOMTBX
+ * ======================================================================
+ * Copyright (C) 2023 - 2025 Marco Peters
+ * ======================================================================
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * -> http://www.gnu.org/licenses/gpl-3.0.html
+ * =========================LICENSE_END==================================
+ */
+
+
+package org.eomasters.eomtbx.bandmathsext;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.datamodel.ProductNodeEvent;
+import org.esa.snap.core.datamodel.ProductNodeListenerAdapter;
+import org.esa.snap.core.datamodel.RasterDataNode;
+import org.esa.snap.core.datamodel.VirtualBand;
+
+/**
+ * Tracks changes of the raster data of products. Values derived from rasters can remember the version of the product
+ * at the time they were computed and are outdated as soon as the version has changed. The version is increased if the
+ * data, the valid expression, the no-data value or the scaling of any raster of the product is changed. The version is
+ * kept per product because rasters can depend on each other, e.g. by their valid expression.
+ *
+ * @author Marco Peters
+ */
+final class RasterChangeTracker {
+
+  private static final Set<String> DATA_PROPERTIES = Set.of(
+      RasterDataNode.PROPERTY_NAME_VALID_PIXEL_EXPRESSION,
+      RasterDataNode.PROPERTY_NAME_NO_DATA_VALUE,
+      RasterDataNode.PROPERTY_NAME_NO_DATA_VALUE_USED,
+      RasterDataNode.PROPERTY_NAME_SCALING_FACTOR,
+      RasterDataNode.PROPERTY_NAME_SCALING_OFFSET,
+      RasterDataNode.PROPERTY_NAME_LOG_10_SCALED,
+      VirtualBand.PROPERTY_NAME_EXPRESSION);
+
+  private static final AtomicInteger UNTRACKED = new AtomicInteger();
+  private static final Map<Product, AtomicInteger> VERSIONS = new WeakHashMap<>();
+
+  private RasterChangeTracker() {
+  }
+
+  /**
+   * Returns the version counter of the product the raster belongs to. The returned object can be read without
+   * locking.
+   *
+   * @param raster the raster
+   * @return the version counter
+   */
+  static synchronized AtomicInteger getVersion(RasterDataNode raster) {
+    Product product = raster.getProduct();
+    if (product == null) {
+      return UNTRACKED;
+    }
+    AtomicInteger version = VERSIONS.get(product);
+    if (version == null) {
+      version = new AtomicInteger();
+      VERSIONS.put(product, version);
+      product.addProductNodeListener(new ChangeListener(version));
+    }
+    return version;
+  }
+
+  private static class ChangeListener extends ProductNodeListenerAdapter {
+
+    private final AtomicInteger version;
+
+    ChangeListener(AtomicInteger version) {
+      this.version = version;
+    }
+
+    @Override
+    public void nodeChanged(ProductNodeEvent event) {
+      String propertyName = event.getPropertyName();
+      if (event.getSourceNode() instanceof RasterDataNode && propertyName != null
+          && DATA_PROPERTIES.contains(propertyName)) {
+        version.incrementAndGet();
+      }
+    }
+
+    @Override
+    public void nodeDataChanged(ProductNodeEvent event) {
+      version.incrementAndGet();
+    }
+
+    @Override
+    public void nodeRemoved(ProductNodeEvent event) {
+      if (event.getSourceNode() instanceof RasterDataNode) {
+        version.incrementAndGet();
+      }
+    }
+  }
+}
@@ -0,0 +1,109 @@
+/*-
+ * ========================LICENSE_START=================================
+ * EOMTBX - EOMasters Toolbox Basic for SNAP
+ * -> https://www.eomasters.org/sw/EOMTBX
+ * ======================================================================
+ * Copyright (C) 2023 - 2025 Marco Peters
+ * ======================================================================
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * -> http://www.gnu.org/licenses/gpl-3.0.html
+ * =========================LICENSE_END==================================
+ */
+
+
+package org.eomasters.eomtbx.bandmathsext;
+
+import java.awt.Rectangle;
+
+/**
+ * Computes the minimum or maximum within a window for all pixels of a target region with the van Herk/Gil-Werman
+ * algorithm. The filter is separated into a row and a column pass. Each pass needs about three comparisons per pixel,
+ * independent of the window size. Invalid samples are treated as +/-infinity, so they never become the result.
+ *
+ * @author Marco Peters
+ */
+final class RunningExtrema {
+
+  private RunningExtrema() {
+  }
+
+  /**
+   * Computes the minimum or maximum for each pixel of the region. If a window contains no valid sample the result is
+   * +infinity for the minimum and -infinity for the maximum.
+   *
+   * @param tile    the source tile, its halo must be at least half the window size
+   * @param region  the target region
+   * @param wndSize the size of the window
+   * @param max     {@code true} to compute the maximum, {@code false} for the minimum
+   * @return the results for the region, stored row by row
+   */
+  static double[] compute(SourceTile tile, Rectangle region, int wndSize, boolean max) {
+    int halo = wndSize / 2;
+    double sentinel = max ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+    int numRows = region.height + 2 * halo;
+    int numCols = region.width + 2 * halo;
+    int rowLength = Math.max(numRows, numCols);
+    double[] line = new double[rowLength];
+    double[] prefix = new double[rowLength];
+    double[] suffix = new double[rowLength];
+
+    // row pass, the result contains all rows needed by the column pass
+    double[] samples = tile.getSamples();
+    int firstRow = region.y - halo - tile.getY();
+    int firstCol = region.x - halo - tile.getX();
+    double[] rowResult = new double[numRows * region.width];
+    for (int j = 0; j < numRows; j++) {
+      int offset = (firstRow + j) * tile.getWidth() + firstCol;
+      for (int i = 0; i < numCols; i++) {
+        double value = samples[offset + i];
+        line[i] = Double.isNaN(value) ? sentinel : value;
+      }
+      filterLine(line, numCols, wndSize, max, prefix, suffix, rowResult, j * region.width, 1);
+    }
+
+    // column pass
+    double[] result = new double[region.width * region.height];
+    for (int i = 0; i < region.width; i++) {
+      for (int j = 0; j < numRows; j++) {
+        line[j] = rowResult[j * region.width + i];
+      }
+      filterLine(line, numRows, wndSize, max, prefix, suffix, result, i, region.width);
+    }
+    return result;
+  }
+
+  // Computes the extreme value of each window of the line. The line is divided into blocks of the window size. Each
+  // window covers the end of one block and the beginning of the next, so the result is the extreme of the suffix of
+  // the first and the prefix of the second block.
+  private static void filterLine(double[] line, int length, int wndSize, boolean max, double[] prefix,
+      double[] suffix, double[] result, int resultOffset, int resultStride) {
+    for (int i = 0; i < length; i++) {
+      prefix[i] = i % wndSize == 0 ? line[i] : extreme(prefix[i - 1], line[i], max);
+    }
+    for (int i = length - 1; i >= 0; i--) {
+      suffix[i] = i == length - 1 || i % wndSize == wndSize - 1 ? line[i] : extreme(suffix[i + 1], line[i], max);
+    }
+    int numResults = length - wndSize + 1;
+    for (int i = 0; i < numResults; i++) {
+      result[resultOffset + i * resultStride] = extreme(suffix[i], prefix[i + wndSize - 1], max);
+    }
+  }
+
+  private static double extreme(double a, double b, boolean max) {
+    if (max) {
+      return a >= b ? a : b;
+    }
+    return a <= b ? a : b;
+  }
+}
@@ -0,0 +1,91 @@
+/*-
+ * ========================LICENSE_START=================================
+ * EOMTBX - EOMasters Toolbox Basic for SNAP
+ * -> https://www.eomasters.org/sw/EOMTBX
+ * ======================================================================
+ * Copyright (C) 2023 - 2025 Marco Peters
+ * ======================================================================
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * -> http://www.gnu.org/licenses/gpl-3.0.html
+ * =========================LICENSE_END==================================
+ */
+
+
+package org.eomasters.eomtbx.bandmathsext;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.function.Supplier;
+import org.esa.snap.core.jexp.EvalException;
+
+/**
+ * The result of a computation which is shared by all threads, e.g. data of a whole scene. The first thread requesting
+ * the result computes it, all other threads wait until it is available instead of computing it again.
+ *
+ * <p>A failed computation is not kept. The threads waiting for it receive the failure, but the next request computes
+ * the result again, e.g. after a temporary read error.</p>
+ *
+ * @param <T> the type of the result
+ * @author Marco Peters
+ */
+final class SharedResult<T> {
+
+  private final Supplier<T> computation;
+  private volatile FutureTask<T> task;
+
+  /**
+   * Creates the shared result. The computation is not started before the result is requested.
+   *
+   * @param computation computes the result
+   */
+  SharedResult(Supplier<T> computation) {
+    this.computation = computation;
+    task = new FutureTask<>(computation::get);
+  }
+
+  /**
+   * Returns the result. If it is not yet computed, it is computed on the current thread or, if another thread already
+   * computes it, the current thread waits for it. If the computation fails, it is repeated by the next request.
+   *
+   * @return the result
+   * @throws EvalException if the computation failed or the thread was interrupted while waiting
+   */
+  T get() {
+    FutureTask<T> current = task;
+    current.run();
+    try {
+      return current.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new EvalException("Interrupted while waiting for a shared computation", e);
+    } catch (ExecutionException e) {
+      discard(current);
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new EvalException("Shared computation failed", cause);
+    }
+  }
+
+  private synchronized void discard(FutureTask<T> failed) {
+    // only the first thread noticing the failure replaces the task, others might already retry the new one
+    if (task == failed) {
+      task = new FutureTask<>(computation::get);
+    }
+  }
+}
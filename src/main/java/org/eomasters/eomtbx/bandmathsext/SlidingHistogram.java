@@ -0,0 +1,212 @@
+/*-
+ * ========================LICENSE_START=================================
+ * EOMTBX - EOMasters Toolbox Basic for SNAP
+ * -> https://www.eomasters.org/sw/EOMTBX
+ * ======================================================================
+ * Copyright (C) 2023 - 2025 Marco Peters
+ * ======================================================================
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * -> http://www.gnu.org/licenses/gpl-3.0.html
+ * =========================LICENSE_END==================================
+ */
+
+
+package org.eomasters.eomtbx.bandmathsext;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+/**
+ * Computes rank based window statistics, like the median, for all pixels of a target region. The samples of the
+ * {@link SourceTile} are replaced by their rank among the distinct valid values of the tile. This turns float data into
+ * a histogram problem (Huang's algorithm) which works for integer and float data alike. The window slides along each
+ * row and only the leaving and the entering column are updated. At the end of a row the columns of the last window
+ * are removed again, which leaves the histogram empty without clearing all levels. The histogram is kept in a Fenwick
+ * tree, so the k-th smallest value is found in logarithmic time.
+ *
+ * @author Marco Peters
+ */
+final class SlidingHistogram {
+
+  private final double[] levels;
+  private final int[] ranks;
+  private final int[] tree;
+  private final int highestBit;
+  private int count;
+
+  private SlidingHistogram(double[] levels, int[] ranks) {
+    this.levels = levels;
+    this.ranks = ranks;
+    this.tree = new int[levels.length + 1];
+    this.highestBit = Integer.highestOneBit(Math.max(levels.length, 1));
+  }
+
+  /**
+   * Computes a rank statistic for each pixel of the region.
+   *
+   * @param tile      the source tile, its halo must be at least half the window size
+   * @param region    the target region
+   * @param wndSize   the size of the window
+   * @param statistic the statistic to compute
+   * @return the results for the region, stored row by row
+   */
+  static double[] compute(SourceTile tile, Rectangle region, int wndSize, Statistic statistic) {
+    SlidingHistogram histogram = create(tile);
+    int halo = wndSize / 2;
+    int tileWidth = tile.getWidth();
+    double[] result = new double[region.width * region.height];
+    for (int j = 0; j < region.height; j++) {
+      int minRow = region.y + j - halo - tile.getY();
+      int minCol = region.x - halo - tile.getX();
+      for (int col = minCol; col < minCol + wndSize; col++) {
+        histogram.updateColumn(col, minRow, wndSize, tileWidth, 1);
+      }
+      result[j * region.width] = statistic.compute(histogram);
+      for (int i = 1; i < region.width; i++) {
+        histogram.updateColumn(minCol + i - 1, minRow, wndSize, tileWidth, -1);
+        histogram.updateColumn(minCol + i - 1 + wndSize, minRow, wndSize, tileWidth, 1);
+        result[j * region.width + i] = statistic.compute(histogram);
+      }
+      int lastMinCol = minCol + region.width - 1;
+      for (int col = lastMinCol; col < lastMinCol + wndSize; col++) {
+        histogram.updateColumn(col, minRow, wndSize, tileWidth, -1);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Computes the median like it is done for sorted data. For an even number of values the mean of the two middle
+   * values is returned, otherwise the value at index {@code ceil(count / 2)}.
+   *
+   * @param histogram the histogram of the window
+   * @return the median or NaN if the window contains no valid values
+   */
+  static double median(SlidingHistogram histogram) {
+    int count = histogram.getCount();
+    if (count == 0) {
+      return Double.NaN;
+    }
+    if (count % 2 == 0) {
+      return (histogram.getValue(count / 2) + histogram.getValue(count / 2 - 1)) / 2;
+    }
+    // a single value would be out of range otherwise
+    return histogram.getValue(Math.min((count + 1) / 2, count - 1));
+  }
+
+  /**
+   * Computes the percentile by linear interpolation between the closest ranks.
+   *
+   * @param histogram  the histogram of the window
+   * @param percentile the percentile in the range [0, 100]
+   * @return the percentile or NaN if the window contains no valid values
+   */
+  static double percentile(SlidingHistogram histogram, double percentile) {
+    int count = histogram.getCount();
+    if (count == 0) {
+      return Double.NaN;
+    }
+    double position = percentile / 100 * (count - 1);
+    int lower = (int) position;
+    double lowerValue = histogram.getValue(lower);
+    if (lower == count - 1) {
+      return lowerValue;
+    }
+    return lowerValue + (position - lower) * (histogram.getValue(lower + 1) - lowerValue);
+  }
+
+  /**
+   * The number of valid values in the window.
+   *
+   * @return the number of values
+   */
+  int getCount() {
+    return count;
+  }
+
+  /**
+   * Returns the k-th smallest value in the window.
+   *
+   * @param k the zero based index of the value in sorted order
+   * @return the value
+   */
+  double getValue(int k) {
+    int pos = 0;
+    int remaining = k + 1;
+    for (int step = highestBit; step > 0; step >>= 1) {
+      int next = pos + step;
+      if (next < tree.length && tree[next] < remaining) {
+        pos = next;
+        remaining -= tree[next];
+      }
+    }
+    return levels[pos];
+  }
+
+  private static SlidingHistogram create(SourceTile tile) {
+    double[] samples = tile.getSamples();
+    double[] levels = new double[samples.length];
+    int numLevels = 0;
+    for (double sample : samples) {
+      if (!Double.isNaN(sample)) {
+        levels[numLevels++] = normalizeZero(sample);
+      }
+    }
+    Arrays.sort(levels, 0, numLevels);
+    int numDistinct = 0;
+    for (int i = 0; i < numLevels; i++) {
+      if (numDistinct == 0 || Double.compare(levels[i], levels[numDistinct - 1]) != 0) {
+        levels[numDistinct++] = levels[i];
+      }
+    }
+    levels = Arrays.copyOf(levels, numDistinct);
+
+    int[] ranks = new int[samples.length];
+    for (int i = 0; i < samples.length; i++) {
+      ranks[i] = Double.isNaN(samples[i]) ? -1 : Arrays.binarySearch(levels, normalizeZero(samples[i]));
+    }
+    return new SlidingHistogram(levels, ranks);
+  }
+
+  // -0.0 and 0.0 are one level, but they differ for Arrays.sort and Arrays.binarySearch
+  private static double normalizeZero(double sample) {
+    return sample + 0.0;
+  }
+
+  private void updateColumn(int col, int minRow, int numRows, int tileWidth, int delta) {
+    for (int row = minRow; row < minRow + numRows; row++) {
+      int rank = ranks[row * tileWidth + col];
+      if (rank >= 0) {
+        for (int i = rank + 1; i < tree.length; i += i & -i) {
+          tree[i] += delta;
+        }
+        count += delta;
+      }
+    }
+  }
+
+  /**
+   * A statistic derived from the histogram of a window.
+   */
+  interface Statistic {
+
+    /**
+     * Computes the statistic.
+     *
+     * @param histogram the histogram of the current window
+     * @return the value of the statistic
+     */
+    double compute(SlidingHistogram histogram);
+  }
+}
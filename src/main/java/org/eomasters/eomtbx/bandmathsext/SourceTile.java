@@ -0,0 +1,163 @@
+/*-
+ * ========================LICENSE_START=================================
+ * EOMTBX - EOMasters Toolbox Basic for SNAP
+ * -> https://www.eomasters.org/sw/EOMTBX
+ * ======================================================================
+ * Copyright (C) 2023 - 2025 Marco Peters
+ * ======================================================================
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * -> http://www.gnu.org/licenses/gpl-3.0.html
+ * =========================LICENSE_END==================================
+ */
+
+
+package org.eomasters.eomtbx.bandmathsext;
+
+import com.bc.ceres.glevel.MultiLevelImage;
+import java.awt.Rectangle;
+import java.awt.image.Raster;
+import java.util.Arrays;
+import org.esa.snap.core.datamodel.RasterDataNode;
+
+/**
+ * The geophysical samples of a raster for a target region extended by a halo. Samples which are invalid, NaN or outside
+ * the raster bounds are stored as NaN. This allows to access the neighbourhood of a pixel without further checks.
+ *
+ * @author Marco Peters
+ */
+final class SourceTile {
+
+  private final int x;
+  private final int y;
+  private final int width;
+  private final int height;
+  private final int halo;
+  private final double[] samples;
+
+  private SourceTile(Rectangle bounds, int halo, double[] samples) {
+    this.x = bounds.x;
+    this.y = bounds.y;
+    this.width = bounds.width;
+    this.height = bounds.height;
+    this.halo = halo;
+    this.samples = samples;
+  }
+
+  /**
+   * Reads the samples of the given raster for the region extended by the halo. The data and the valid mask are read
+   * with one request each.
+   *
+   * @param raster the raster to read from
+   * @param region the target region in pixel coordinates of the raster
+   * @param halo   the number of pixels the region is extended on each side
+   * @return the source tile
+   */
+  static SourceTile read(RasterDataNode raster, Rectangle region, int halo) {
+    return read(raster, ImageLevel.FULL_RESOLUTION, region, halo);
+  }
+
+  /**
+   * Reads the samples of the given image level of the raster for the region extended by the halo.
+   *
+   * @param raster     the raster to read from
+   * @param imageLevel the image level
+   * @param region     the target region in pixel coordinates of the image level
+   * @param halo       the number of pixels the region is extended on each side
+   * @return the source tile
+   */
+  static SourceTile read(RasterDataNode raster, ImageLevel imageLevel, Rectangle region, int halo) {
+    Rectangle bounds = new Rectangle(region.x - halo, region.y - halo, region.width + 2 * halo,
+        region.height + 2 * halo);
+    double[] samples = new double[bounds.width * bounds.height];
+    Arrays.fill(samples, Double.NaN);
+
+    MultiLevelImage image = raster.getGeophysicalImage();
+    Rectangle readRect = bounds.intersection(imageLevel.getBounds(image));
+    if (!readRect.isEmpty()) {
+      Raster data = imageLevel.readData(image, readRect);
+      double[] values = data.getSamples(readRect.x, readRect.y, readRect.width, readRect.height, 0, (double[]) null);
+      int[] validMask = null;
+      MultiLevelImage validMaskImage = raster.getValidMaskImage();
+      if (validMaskImage != null) {
+        Raster maskData = imageLevel.readData(validMaskImage, readRect);
+        validMask = maskData.getSamples(readRect.x, readRect.y, readRect.width, readRect.height, 0, (int[]) null);
+      }
+      for (int j = 0; j < readRect.height; j++) {
+        int srcOffset = j * readRect.width;
+        int destOffset = (readRect.y - bounds.y + j) * bounds.width + (readRect.x - bounds.x);
+        for (int i = 0; i < readRect.width; i++) {
+          if (validMask == null || validMask[srcOffset + i] != 0) {
+            samples[destOffset + i] = values[srcOffset + i];
+          }
+        }
+      }
+    }
+    return new SourceTile(bounds, halo, samples);
+  }
+
+  /**
+   * Returns the sample at the given pixel position.
+   *
+   * @param pixelX the x position in pixel coordinates of the raster
+   * @param pixelY the y position in pixel coordinates of the raster
+   * @return the sample value or NaN if the pixel is invalid or outside the raster
+   */
+  double getSample(int pixelX, int pixelY) {
+    return samples[(pixelY - y) * width + (pixelX - x)];
+  }
+
+  int getX() {
+    return x;
+  }
+
+  int getY() {
+    return y;
+  }
+
+  int getWidth() {
+    return width;
+  }
+
+  int getHeight() {
+    return height;
+  }
+
+  int getHalo() {
+    return halo;
+  }
+
+  /**
+   * Direct access to the samples. The array is organised row by row and has the size {@code width * height}.
+   *
+   * @return the samples
+   */
+  double[] getSamples() {
+    return samples;
+  }
+
+  /**
+   * Returns for each pixel if it is set. A pixel is set if it is valid and its value is not zero, like the pixels of
+   * a mask.
+   *
+   * @return the flags, organised row by row
+   */
+  boolean[] getSetPixels() {
+    boolean[] set = new boolean[samples.length];
+    for (int i = 0; i < samples.length; i++) {
+      // invalid pixels are NaN
+      set[i] = samples[i] != 0 && !Double.isNaN(samples[i]);
+    }
+    return set;
+  }
+}
@@ -0,0 +1,210 @@
+/*-
+ * ========================LICENSE_START=================================
+ * EOMTBX - EOMasters Toolbox Basic for SNAP
+ * -> https://www.eomasters.org/sw/EOMTBX
+ * ======================================================================
+ * Copyright (C) 2023 - 2025 Marco Peters
+ * ======================================================================
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * -> http://www.gnu.org/licenses/gpl-3.0.html
+ * =========================LICENSE_END==================================
+ */
+
+package org.eomasters.eomtbx.bandmathsext;
+
+import org.esa.snap.core.datamodel.Band;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.jexp.EvalException;
+
+/**
+ * A spectral index which is computed from the reflectances of a few spectral ranges. The bands of the ranges are
+ * selected by the spectral wavelength of the bands. Within the wavelength interval of a range, the band closest to
+ * the central wavelength is used.
+ *
+ * @author Marco Peters
+ */
+abstract class SpectralIndex {
+
+  static final SpectralRange BLUE = new SpectralRange("blue", 490, 450, 520);
+  static final SpectralRange GREEN = new SpectralRange("green", 560, 520, 600);
+  static final SpectralRange RED = new SpectralRange("red", 665, 620, 690);
+  static final SpectralRange NIR = new SpectralRange("NIR", 842, 760, 900);
+  static final SpectralRange SWIR1 = new SpectralRange("SWIR1", 1610, 1550, 1750);
+  static final SpectralRange SWIR2 = new SpectralRange("SWIR2", 2190, 2080, 2350);
+
+  /**
+   * Normalized Difference Vegetation Index.
+   */
+  static final SpectralIndex NDVI = new SpectralIndex("ndvi", RED, NIR) {
+    @Override
+    double compute(double[] r) {
+      return normalizedDifference(r[1], r[0]);
+    }
+  };
+
+  /**
+   * Normalized Difference Water Index by McFeeters.
+   */
+  static final SpectralIndex NDWI = new SpectralIndex("ndwi", GREEN, NIR) {
+    @Override
+    double compute(double[] r) {
+      return normalizedDifference(r[0], r[1]);
+    }
+  };
+
+  /**
+   * Modified Normalized Difference Water Index.
+   */
+  static final SpectralIndex MNDWI = new SpectralIndex("mndwi", GREEN, SWIR1) {
+    @Override
+    double compute(double[] r) {
+      return normalizedDifference(r[0], r[1]);
+    }
+  };
+
+  /**
+   * Normalized Difference Moisture Index.
+   */
+  static final SpectralIndex NDMI = new SpectralIndex("ndmi", NIR, SWIR1) {
+    @Override
+    double compute(double[] r) {
+      return normalizedDifference(r[0], r[1]);
+    }
+  };
+
+  /**
+   * Normalized Burn Ratio.
+   */
+  static final SpectralIndex NBR = new SpectralIndex("nbr", NIR, SWIR2) {
+    @Override
+    double compute(double[] r) {
+      return normalizedDifference(r[0], r[1]);
+    }
+  };
+
+  /**
+   * Soil Adjusted Vegetation Index with a soil brightness factor of 0.5.
+   */
+  static final SpectralIndex SAVI = new SpectralIndex("savi", RED, NIR) {
+    @Override
+    double compute(double[] r) {
+      return divide(1.5 * (r[1] - r[0]), r[1] + r[0] + 0.5);
+    }
+  };
+
+  /**
+   * Enhanced Vegetation Index.
+   */
+  static final SpectralIndex EVI = new SpectralIndex("evi", BLUE, RED, NIR) {
+    @Override
+    double compute(double[] r) {
+      return divide(2.5 * (r[2] - r[1]), r[2] + 6 * r[1] - 7.5 * r[0] + 1);
+    }
+  };
+
+  static final SpectralIndex[] ALL = {NDVI, NDWI, MNDWI, NDMI, NBR, SAVI, EVI};
+
+  private final String name;
+  private final SpectralRange[] ranges;
+
+  private SpectralIndex(String name, SpectralRange... ranges) {
+    this.name = name;
+    this.ranges = ranges;
+  }
+
+  String getName() {
+    return name;
+  }
+
+  /**
+   * Returns the spectral ranges the index is computed from, in the order of the reflectances passed to
+   * {@link #compute(double[])}.
+   *
+   * @return the spectral ranges
+   */
+  SpectralRange[] getRanges() {
+    return ranges;
+  }
+
+  /**
+   * Computes the index.
+   *
+   * @param reflectances the reflectances of the spectral ranges, all valid
+   * @return the index or NaN if it is not defined
+   */
+  abstract double compute(double[] reflectances);
+
+  /**
+   * Selects the bands of the spectral ranges from the product.
+   *
+   * @param product the product
+   * @return the bands in the order of the spectral ranges
+   * @throws EvalException if no band is found for a spectral range
+   */
+  Band[] selectBands(Product product) {
+    Band[] bands = new Band[ranges.length];
+    for (int i = 0; i < ranges.length; i++) {
+      bands[i] = ranges[i].selectBand(product);
+      if (bands[i] == null) {
+        throw new EvalException(String.format(
+            "No band with a spectral wavelength between %d and %d nm found for the %s range of %s(), "
+            + "please specify the bands explicitly", ranges[i].min, ranges[i].max, ranges[i].name, name));
+      }
+    }
+    return bands;
+  }
+
+  private static double normalizedDifference(double a, double b) {
+    return divide(a - b, a + b);
+  }
+
+  private static double divide(double numerator, double denominator) {
+    return denominator == 0 ? Double.NaN : numerator / denominator;
+  }
+
+  /**
+   * A range of the spectrum, given by its central wavelength and an interval in nanometres.
+   */
+  static final class SpectralRange {
+
+    private final String name;
+    private final int center;
+    private final int min;
+    private final int max;
+
+    private SpectralRange(String name, int center, int min, int max) {
+      this.name = name;
+      this.center = center;
+      this.min = min;
+      this.max = max;
+    }
+
+    String getName() {
+      return name;
+    }
+
+    private Band selectBand(Product product) {
+      Band selected = null;
+      double selectedDistance = Double.MAX_VALUE;
+      for (Band band : product.getBands()) {
+        float wavelength = band.getSpectralWavelength();
+        if (wavelength >= min && wavelength <= max && Math.abs(wavelength - center) < selectedDistance) {
+          selected = band;
+          selectedDistance = Math.abs(wavelength - center);
+        }
+      }
+      return selected;
+    }
+  }
+}
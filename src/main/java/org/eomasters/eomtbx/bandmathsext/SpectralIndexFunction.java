@@ -0,0 +1,119 @@
+/*-
+ * ========================LICENSE_START=================================
+ * EOMTBX - EOMasters Toolbox Basic for SNAP
+ * -> https://www.eomasters.org/sw/EOMTBX
+ * ======================================================================
+ * Copyright (C) 2023 - 2025 Marco Peters
+ * ======================================================================
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * -> http://www.gnu.org/licenses/gpl-3.0.html
+ * =========================LICENSE_END==================================
+ */
+
+package org.eomasters.eomtbx.bandmathsext;
+
+import java.awt.Rectangle;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.datamodel.RasterDataNode;
+import org.esa.snap.core.dataop.barithm.RasterDataEvalEnv;
+import org.esa.snap.core.jexp.EvalEnv;
+import org.esa.snap.core.jexp.EvalException;
+import org.esa.snap.core.jexp.Term;
+import org.esa.snap.core.jexp.impl.AbstractFunction.D;
+
+/**
+ * Computes a {@link SpectralIndex} for a product. Without arguments, e.g. {@code ndvi()}, the bands are selected by
+ * their spectral wavelength. Alternatively, the bands are given explicitly in the order of the spectral ranges of the
+ * index, e.g. {@code ndvi(B4, B8)}.
+ *
+ * <p>The index is computed for the whole target tile at once. The source tiles of all bands are taken from the
+ * {@link TileCache}, so they are read only once per target tile, also if several indices use the same bands. Invalid
+ * pixels are already NaN in the source tiles, so the validity is checked once per pixel. If any band is invalid, the
+ * result is NaN.</p>
+ *
+ * @author Marco Peters
+ */
+class SpectralIndexFunction extends D {
+
+  private final Product product;
+  private final SpectralIndex index;
+
+  SpectralIndexFunction(Product product, SpectralIndex index) {
+    super(index.getName(), -1);
+    this.product = product;
+    this.index = index;
+  }
+
+  @Override
+  public double evalD(EvalEnv env, Term[] args) throws EvalException {
+    RasterDataEvalEnv dataEvalEnv = (RasterDataEvalEnv) env;
+    TileCache cache = TileCache.get(dataEvalEnv);
+    double[] result = cache.lookup(args, 0, this);
+    if (result == null) {
+      result = compute(cache, getBands(args));
+      cache.put(args, 0, this, result);
+    }
+    return result[cache.getLevelIndex(dataEvalEnv)];
+  }
+
+  private RasterDataNode[] getBands(Term[] args) {
+    if (args.length == 0) {
+      return index.selectBands(product);
+    }
+    SpectralIndex.SpectralRange[] ranges = index.getRanges();
+    if (args.length != ranges.length) {
+      throw new EvalException(
+          String.format("The %s function takes either no or %d parameters", getName(), ranges.length));
+    }
+    RasterDataNode[] bands = ArgumentRasters.resolve(args);
+    for (int i = 0; i < bands.length; i++) {
+      if (bands[i] == null) {
+        throw new EvalException(String.format("Argument %d of %s() must reference the %s band", i + 1, getName(),
+            ranges[i].getName()));
+      }
+    }
+    return bands;
+  }
+
+  private double[] compute(TileCache cache, RasterDataNode[] bands) {
+    double[][] samples = new double[bands.length][];
+    int[] offsets = new int[bands.length];
+    int[] widths = new int[bands.length];
+    Rectangle region = cache.getLevelRegion();
+    for (int i = 0; i < bands.length; i++) {
+      if (!bands[i].getRasterSize().equals(bands[0].getRasterSize())) {
+        throw new EvalException(String.format("The bands of %s() must have the same size", getName()));
+      }
+      SourceTile tile = cache.getSourceTile(bands[i], 0);
+      samples[i] = tile.getSamples();
+      widths[i] = tile.getWidth();
+      // the tile can have a halo from another function
+      offsets[i] = (region.y - tile.getY()) * tile.getWidth() + region.x - tile.getX();
+    }
+
+    double[] result = new double[region.width * region.height];
+    double[] reflectances = new double[bands.length];
+    for (int j = 0; j < region.height; j++) {
+      for (int i = 0; i < region.width; i++) {
+        boolean valid = true;
+        for (int b = 0; b < bands.length && valid; b++) {
+          reflectances[b] = samples[b][offsets[b] + j * widths[b] + i];
+          valid = !Double.isNaN(reflectances[b]);
+        }
+        result[j * region.width + i] = valid ? index.compute(reflectances) : Double.NaN;
+      }
+    }
+    return result;
+  }
+}
@@ -26,8 +26,10 @@ package org.eomasters.eomtbx.bandmathsext;
 import com.bc.ceres.core.ProgressMonitor;
 import java.util.Arrays;
 import org.eomasters.utils.Exceptions;
+import org.esa.snap.core.datamodel.Mask;
 import org.esa.snap.core.datamodel.RasterDataNode;
 import org.esa.snap.core.datamodel.Stx;
+import org.esa.snap.core.dataop.barithm.RasterDataEvalEnv;
 import org.esa.snap.core.jexp.EvalEnv;
 import org.esa.snap.core.jexp.EvalException;
 import org.esa.snap.core.jexp.Term;
@@ -45,9 +47,18 @@ import org.esa.snap.core.jexp.impl.AbstractFunction.D;
  *    <li>sigma: Standard deviation value of the raster</li>
  *    <li>rsd: Coefficient of variation or relative standard deviation (RSD) value of the raster</li>
  *    <li>enl: Equivalent number of looks (ENL) value of the raster</li>
+ *    <li>pNN: The NN-th percentile of the raster, e.g. p2 or p98</li>
+ *    <li>iqr: The interquartile range (p75 - p25) of the raster</li>
  * </ul>
  * </p>
- *   Optionally the functions allow to define if the accurate or the fast statistics shall be computed.
+ *   Optionally the functions allow to define if the accurate or the fast statistics shall be computed. Alternatively,
+ *   a mask can be given as third argument. In this case the statistics are only computed for the pixels of the mask.
+ *   With a mask the accurate statistics are computed by default, because small masks can vanish on a sub-sampled
+ *   level. The fast statistics can be requested by a fourth argument, e.g. {@code stx(B1, "mean", field, false)}.
+ *   <p>The statistical value is constant for the whole image. If the options are constant, it is resolved once per
+ *   target tile and kept in the {@link TileCache}. All other pixels of the tile return the cached value directly.
+ *   Options which depend on the pixel are evaluated for each pixel and the value is cached per resolved statistical
+ *   value and accuracy. The statistics themselves are cached per raster until the data of the product changes.</p>
  */
 class StxFunctions extends D {
 
@@ -58,20 +69,87 @@ class StxFunctions extends D {
   private static final String FUNC_SIGMA = "sigma"; // Standard deviation
   private static final String FUNC_RSD = "rsd"; // Coefficient of variation or relative standard deviation
   private static final String FUNC_ENL = "enl"; // Equivalent Number Of Looks
+  private static final String FUNC_IQR = "iqr"; // Interquartile range
+  private static final String FUNC_PERCENTILE_PREFIX = "p";
   private static final String[] FUNCTION_NAMES = new String[]{FUNC_MIN, FUNC_MAX, FUNC_MEAN, FUNC_MEDIAN, FUNC_SIGMA,
-      FUNC_RSD, FUNC_ENL};
+      FUNC_RSD, FUNC_ENL, FUNC_IQR, FUNC_PERCENTILE_PREFIX + "NN"};
 
   public StxFunctions() {
-    super("stx", -1, new int[]{Term.TYPE_D, Term.TYPE_S, Term.TYPE_B});
+    super("stx", -1, new int[]{Term.TYPE_D, Term.TYPE_S, Term.TYPE_B, Term.TYPE_B});
   }
 
   @Override
   public double evalD(EvalEnv env, Term[] args) throws EvalException {
-    Exceptions.throwIf((args.length != 2) && (args.length != 3),
-        new EvalException("The stx function takes either 2 or three parameters"));
+    TileCache cache = TileCache.get((RasterDataEvalEnv) env);
+    Double value = cache.lookup(args, 0, StxFunctions.class);
+    if (value != null) {
+      return value;
+    }
+    Exceptions.throwIf(args.length < 2 || args.length > 4,
+        new EvalException("The stx function takes two to four parameters"));
     RasterDataNode raster = getRaster(args);
     String stxFunction = getStxFunction(env, args);
-    Stx stx = raster.getStx(getAccurate(env, args), ProgressMonitor.NULL);
+    boolean roiGiven = isRoiGiven(args);
+    Exceptions.throwIf(args.length > 3 && !roiGiven,
+        new EvalException("The fourth argument of stx() is only allowed if a mask is given as third argument"));
+    boolean accurate = roiGiven ? getRoiAccurate(env, args) : getAccurate(env, args);
+    if (hasConstantOptions(args, roiGiven)) {
+      value = computeValue(raster, roiGiven ? getRoiMask(raster, args) : null, stxFunction, accurate);
+      cache.put(args, 0, StxFunctions.class, value);
+      return value;
+    }
+    // the options depend on the pixel, so the value is cached for the resolved options
+    int accurateParam = accurate ? 1 : 0;
+    value = cache.lookup(args, accurateParam, stxFunction);
+    if (value == null) {
+      value = computeValue(raster, roiGiven ? getRoiMask(raster, args) : null, stxFunction, accurate);
+      cache.put(args, accurateParam, stxFunction, value);
+    }
+    return value;
+  }
+
+  private static boolean hasConstantOptions(Term[] args, boolean roiGiven) {
+    for (int i = 1; i < args.length; i++) {
+      if (!(i == 2 && roiGiven) && !TermUtils.isConstant(args[i])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static double computeValue(RasterDataNode raster, Mask roiMask, String stxFunction, boolean accurate) {
+    if (FUNC_IQR.equals(stxFunction)) {
+      ParallelStx parallelStx = ParallelStx.get(raster, roiMask, accurate);
+      return parallelStx.getPercentile(75) - parallelStx.getPercentile(25);
+    }
+    if (stxFunction.startsWith(FUNC_PERCENTILE_PREFIX)) {
+      return ParallelStx.get(raster, roiMask, accurate).getPercentile(getPercentile(stxFunction));
+    }
+    if (roiMask != null) {
+      return computeRoiValue(ParallelStx.get(raster, roiMask, accurate), stxFunction);
+    }
+    Stx stx = TileCache.readNested(() -> raster.getStx(accurate, ProgressMonitor.NULL));
+    switch (stxFunction) {
+      case FUNC_MIN:
+        return stx.getMinimum();
+      case FUNC_MAX:
+        return stx.getMaximum();
+      case FUNC_MEAN:
+        return stx.getMean();
+      case FUNC_MEDIAN:
+        return stx.getMedian();
+      case FUNC_SIGMA:
+        return stx.getStandardDeviation();
+      case FUNC_RSD:
+        return stx.getCoefficientOfVariation();
+      case FUNC_ENL:
+        return stx.getEquivalentNumberOfLooks();
+      default:
+        throw new EvalException("Second argument of stx() must be one of +" + Arrays.toString(FUNCTION_NAMES));
+    }
+  }
+
+  private static double computeRoiValue(ParallelStx stx, String stxFunction) {
     switch (stxFunction) {
       case FUNC_MIN:
         return stx.getMinimum();
@@ -92,6 +170,20 @@ class StxFunctions extends D {
     }
   }
 
+  private static double getPercentile(String stxFunction) {
+    double percentile;
+    try {
+      percentile = Double.parseDouble(stxFunction.substring(FUNC_PERCENTILE_PREFIX.length()));
+    } catch (NumberFormatException e) {
+      percentile = Double.NaN;
+    }
+    if (!(percentile >= 0 && percentile <= 100)) {
+      throw new EvalException(
+          "Percentile of stx() must be given as 'pNN' with NN between 0 and 100, but was '" + stxFunction + "'");
+    }
+    return percentile;
+  }
+
   private static RasterDataNode getRaster(Term[] args) {
     RasterDataNode raster = TermUtils.getRaster(args[0]);
     if (raster == null) {
@@ -107,16 +199,39 @@ class StxFunctions extends D {
     return args[1].evalS(env).toLowerCase();
   }
 
+  private static boolean isRoiGiven(Term[] args) {
+    return args.length > 2 && TermUtils.getRaster(args[2]) instanceof Mask;
+  }
+
+  private static Mask getRoiMask(RasterDataNode raster, Term[] args) {
+    Mask roiMask = (Mask) TermUtils.getRaster(args[2]);
+    if (!roiMask.getRasterSize().equals(raster.getRasterSize())) {
+      throw new EvalException("The mask given as third argument of stx() must have the same size as the raster");
+    }
+    return roiMask;
+  }
+
   private static boolean getAccurate(EvalEnv env, Term[] args) {
     if (args.length > 2) {
       if (!args[2].isB()) {
         throw new EvalException(
-            "If provided, third argument of stx() must be a boolean specifying if accurate statistics shall be computed");
+            "If provided, third argument of stx() must be a mask or a boolean specifying if accurate statistics "
+            + "shall be computed");
       }
       return args[2].evalB(env);
     }
     return false; // not specified - default is false
   }
 
-
+  private static boolean getRoiAccurate(EvalEnv env, Term[] args) {
+    if (args.length > 3) {
+      if (!args[3].isB()) {
+        throw new EvalException(
+            "If provided, fourth argument of stx() must be a boolean specifying if accurate statistics shall be "
+            + "computed");
+      }
+      return args[3].evalB(env);
+    }
+    return true; // not specified - small masks could vanish on a sub-sampled level
+  }
 }
@@ -49,4 +49,30 @@ class TermUtils {
     }
     return null;
   }
+
+  /**
+   * Checks if a term is constant. Literals, references to constant symbols like {@code PI} and operations on constant
+   * terms are constant. Function calls are not considered constant.
+   *
+   * @param term the term
+   * @return {@code true} if the value of the term does not depend on the pixel
+   */
+  static boolean isConstant(Term term) {
+    if (term instanceof Term.ConstB || term instanceof Term.ConstI || term instanceof Term.ConstD
+        || term instanceof Term.ConstS) {
+      return true;
+    }
+    if (term instanceof Ref) {
+      return ((Ref) term).getSymbol().isConst();
+    }
+    if (term instanceof Term.Call) {
+      return false;
+    }
+    for (Term child : term.getChildren()) {
+      if (!isConstant(child)) {
+        return false;
+      }
+    }
+    return true;
+  }
 }
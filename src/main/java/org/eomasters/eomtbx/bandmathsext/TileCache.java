@@ -0,0 +1,316 @@
+/*-
+ * ========================LICENSE_START=================================
+ * EOMTBX - EOMasters Toolbox Basic for SNAP
+ * -> https://www.eomasters.org/sw/EOMTBX
+ * ======================================================================
+ * Copyright (C) 2023 - 2025 Marco Peters
+ * ======================================================================
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * -> http://www.gnu.org/licenses/gpl-3.0.html
+ * =========================LICENSE_END==================================
+ */
+
+
+package org.eomasters.eomtbx.bandmathsext;
+
+import com.bc.ceres.glevel.MultiLevelModel;
+import java.awt.Rectangle;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+import org.esa.snap.core.datamodel.RasterDataNode;
+import org.esa.snap.core.dataop.barithm.RasterDataEvalEnv;
+
+/**
+ * A cache of data needed while one target tile is computed. A target tile is identified by the
+ * {@link RasterDataEvalEnv} which is created for each tile and used by one thread only. Each thread has a current
+ * cache. As soon as a different environment is used on a thread, a new cache is created for it. There is no
+ * notification when a target tile is finished, so the thread only holds its current cache softly. The source tiles
+ * and derived data of the last tile computed on a worker thread do not stay reachable when memory is needed.
+ *
+ * <p>Reading a source tile can compute a tile of another virtual band on the same thread, which then uses its own
+ * cache. Such reads are done with {@link #readNested(Supplier)}, which restores the current cache of the outer target
+ * tile afterwards. The state of a cache is never changed by another target tile.</p>
+ *
+ * <p>When a lower resolution level of the image pyramid is computed, the pixel coordinates of the environment still
+ * refer to the full resolution raster, but only every n-th pixel is evaluated. Therefore, the cache also provides the
+ * region of the target tile within the image of the resolution level and the scale of that level. The source tiles
+ * are read from the same level, see {@link #getImageLevel(RasterDataNode)}.</p>
+ *
+ * <p>The cache holds the source tiles (including a halo) of the referenced rasters and data derived from them.
+ * Lookups do not allocate any objects.</p>
+ *
+ * @author Marco Peters
+ */
+final class TileCache {
+
+  private static final ThreadLocal<SoftReference<TileCache>> CURRENT_CACHE = new ThreadLocal<>();
+
+  private final List<Entry> entries = new ArrayList<>();
+  private final WeakReference<RasterDataEvalEnv> envRef;
+  private final Rectangle region;
+  private final Rectangle levelRegion;
+  private final int scale;
+
+  private TileCache(RasterDataEvalEnv env) {
+    envRef = new WeakReference<>(env);
+    region = computeRegion(env);
+    levelRegion = new Rectangle(env.getOffsetX(), env.getOffsetY(), env.getRegionWidth(), env.getRegionHeight());
+    scale = computeScale(env, region);
+  }
+
+  /**
+   * Returns the cache of the current thread for the target tile described by the given environment.
+   *
+   * @param env the evaluation environment of the target tile
+   * @return the cache
+   */
+  static TileCache get(RasterDataEvalEnv env) {
+    SoftReference<TileCache> cacheRef = CURRENT_CACHE.get();
+    TileCache cache = cacheRef != null ? cacheRef.get() : null;
+    if (cache == null || cache.envRef.get() != env) {
+      // the caller holds the cache strongly while it is used, it can only be released between pixels
+      cache = new TileCache(env);
+      CURRENT_CACHE.set(new SoftReference<>(cache));
+    }
+    return cache;
+  }
+
+  /**
+   * Reads data which might be computed on the current thread, like the tiles of virtual bands. The computation can
+   * evaluate other target tiles which use their own cache. Afterwards the cache of the current thread is restored, so
+   * the outer target tile keeps its cached data.
+   *
+   * @param reader reads the data
+   * @param <T>    the type of the data
+   * @return the data
+   */
+  static <T> T readNested(Supplier<T> reader) {
+    SoftReference<TileCache> outer = CURRENT_CACHE.get();
+    try {
+      return reader.get();
+    } finally {
+      CURRENT_CACHE.set(outer);
+    }
+  }
+
+  /**
+   * The region of the target tile in pixel coordinates of the full resolution raster.
+   *
+   * @return the target region
+   */
+  Rectangle getRegion() {
+    return region;
+  }
+
+  /**
+   * The region of the target tile in pixel coordinates of the image of the resolution level which is computed. At
+   * full resolution it is the same as {@link #getRegion()}.
+   *
+   * @return the target region within the level image
+   */
+  Rectangle getLevelRegion() {
+    return levelRegion;
+  }
+
+  /**
+   * The scale of the resolution level which is computed. One pixel of the level image covers {@code scale x scale}
+   * pixels of the full resolution raster.
+   *
+   * @return the scale, 1 for the full resolution
+   */
+  int getScale() {
+    return scale;
+  }
+
+  /**
+   * Returns the x position of the current pixel in the image of the resolution level.
+   *
+   * @param env the evaluation environment
+   * @return the x position
+   */
+  int getLevelX(RasterDataEvalEnv env) {
+    return levelRegion.x + env.getElemIndex() % levelRegion.width;
+  }
+
+  /**
+   * Returns the y position of the current pixel in the image of the resolution level.
+   *
+   * @param env the evaluation environment
+   * @return the y position
+   */
+  int getLevelY(RasterDataEvalEnv env) {
+    return levelRegion.y + env.getElemIndex() / levelRegion.width;
+  }
+
+  /**
+   * Returns the index of the current pixel of the environment within the target region of the level image.
+   *
+   * @param env the evaluation environment
+   * @return the index of the pixel
+   */
+  int getLevelIndex(RasterDataEvalEnv env) {
+    return env.getElemIndex();
+  }
+
+  /**
+   * Returns the source tile of the raster covering the target region of the level image and at least the given halo.
+   * The tile is read from the resolution level which is computed and only once per target tile.
+   *
+   * @param raster the raster
+   * @param halo   the number of additional pixels of the level image needed on each side of the target region
+   * @return the source tile
+   */
+  SourceTile getSourceTile(RasterDataNode raster, int halo) {
+    for (Entry entry : entries) {
+      if (entry.source == raster && entry.kind == SourceTile.class && entry.param >= halo) {
+        return (SourceTile) entry.value;
+      }
+    }
+    SourceTile sourceTile = SourceTile.read(raster, getImageLevel(raster), levelRegion, halo);
+    put(raster, halo, SourceTile.class, sourceTile);
+    return sourceTile;
+  }
+
+  /**
+   * Returns the valid mask of the raster for the target region of the level image. The mask is read from the
+   * resolution level which is computed and is taken from the {@link ValidMaskCache} once per target tile. It is indexed
+   * with {@link #getLevelIndex(RasterDataEvalEnv)}.
+   *
+   * @param raster the raster
+   * @return the valid mask
+   */
+  PackedValidMask getValidMask(RasterDataNode raster) {
+    PackedValidMask validMask = lookup(raster, 0, PackedValidMask.class);
+    if (validMask == null) {
+      validMask = ValidMaskCache.get(raster, getImageLevel(raster), levelRegion);
+      put(raster, 0, PackedValidMask.class, validMask);
+    }
+    return validMask;
+  }
+
+  /**
+   * Looks up data previously put into the cache.
+   *
+   * @param source the source the data is derived from
+   * @param param  a parameter of the derivation
+   * @param kind   the kind of derived data
+   * @param <T>    the type of the data
+   * @return the cached data or {@code null}
+   */
+  @SuppressWarnings("unchecked")
+  <T> T lookup(Object source, int param, Object kind) {
+    for (Entry entry : entries) {
+      if (entry.source == source && entry.param == param && entry.kind.equals(kind)) {
+        return (T) entry.value;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Puts data into the cache.
+   *
+   * @param source the source the data is derived from
+   * @param param  a parameter of the derivation
+   * @param kind   the kind of derived data
+   * @param value  the data
+   */
+  void put(Object source, int param, Object kind, Object value) {
+    entries.add(new Entry(source, param, kind, value));
+  }
+
+  /**
+   * Returns the image level of the raster which is read for the target tile. It is the resolution level with the
+   * scale of the target tile. If the raster has no such level, the coarsest level whose scale divides the scale of the
+   * target tile is used and only every n-th pixel of it is taken. The full resolution always fulfills this.
+   *
+   * @param raster the raster
+   * @return the image level
+   */
+  ImageLevel getImageLevel(RasterDataNode raster) {
+    if (scale == 1) {
+      return ImageLevel.FULL_RESOLUTION;
+    }
+    MultiLevelModel model = raster.getGeophysicalImage().getModel();
+    int bestLevel = 0;
+    long bestScale = 1;
+    for (int level = 1; level < model.getLevelCount(); level++) {
+      long levelScale = Math.round(model.getScale(level));
+      if (Math.abs(model.getScale(level) - levelScale) < 1.0e-6 && levelScale > bestScale && scale % levelScale == 0) {
+        bestLevel = level;
+        bestScale = levelScale;
+      }
+    }
+    return new ImageLevel(bestLevel, (int) (scale / bestScale));
+  }
+
+  // The offset and size of the environment refer to the image level which is computed. The pixel coordinates are
+  // always in full resolution.
+  private static Rectangle computeRegion(RasterDataEvalEnv env) {
+    int elemIndex = env.getElemIndex();
+    try {
+      env.setElemIndex(0);
+      int x0 = env.getPixelX();
+      int y0 = env.getPixelY();
+      env.setElemIndex(env.getRegionWidth() * env.getRegionHeight() - 1);
+      int x1 = env.getPixelX();
+      int y1 = env.getPixelY();
+      return new Rectangle(x0, y0, x1 - x0 + 1, y1 - y0 + 1);
+    } finally {
+      env.setElemIndex(elemIndex);
+    }
+  }
+
+  // The pyramid levels have integer scales. At a level with scale s the pixel coordinates are floor(s * levelCoord).
+  private static int computeScale(RasterDataEvalEnv env, Rectangle region) {
+    if (env.getOffsetX() > 0) {
+      return region.x / env.getOffsetX();
+    }
+    if (env.getOffsetY() > 0) {
+      return region.y / env.getOffsetY();
+    }
+    if (env.getRegionWidth() > 1) {
+      return (region.width - 1) / (env.getRegionWidth() - 1);
+    }
+    if (env.getRegionHeight() > 1) {
+      return (region.height - 1) / (env.getRegionHeight() - 1);
+    }
+    // a single pixel at the origin, the pixel coordinates of the next row tell the scale
+    int elemIndex = env.getElemIndex();
+    try {
+      env.setElemIndex(1);
+      return Math.max(1, env.getPixelY() - region.y);
+    } finally {
+      env.setElemIndex(elemIndex);
+    }
+  }
+
+  private static final class Entry {
+
+    private final Object source;
+    private final int param;
+    private final Object kind;
+    private final Object value;
+
+    private Entry(Object source, int param, Object kind, Object value) {
+      this.source = source;
+      this.param = param;
+      this.kind = kind;
+      this.value = value;
+    }
+  }
+}
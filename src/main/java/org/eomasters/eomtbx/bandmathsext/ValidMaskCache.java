@@ -0,0 +1,139 @@
+/*-
+ * ========================LICENSE_START=================================
+ * EOMTBX - EOMasters Toolbox Basic for SNAP
+ * -> https://www.eomasters.org/sw/EOMTBX
+ * ======================================================================
+ * Copyright (C) 2023 - 2025 Marco Peters
+ * ======================================================================
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * -> http://www.gnu.org/licenses/gpl-3.0.html
+ * =========================LICENSE_END==================================
+ */
+
+package org.eomasters.eomtbx.bandmathsext;
+
+import java.awt.Rectangle;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.esa.snap.core.datamodel.RasterDataNode;
+
+/**
+ * A cache of the valid masks of rasters, shared by all threads. For each raster the most recently used regions of
+ * its resolution levels are kept as {@link PackedValidMask}s. The least recently used region is evicted if more than
+ * {@value #MAX_REGIONS_PER_RASTER} regions are cached. The masks of a raster are discarded when the data of its
+ * product changes.
+ *
+ * @author Marco Peters
+ */
+final class ValidMaskCache {
+
+  static final int MAX_REGIONS_PER_RASTER = 64;
+
+  private static final Map<RasterDataNode, RasterMasks> CACHE = new WeakHashMap<>();
+
+  private ValidMaskCache() {
+  }
+
+  /**
+   * Returns the valid mask of the raster for the region. If it is not cached it is read from the valid mask image.
+   *
+   * @param raster the raster
+   * @param region the region in pixel coordinates of the raster
+   * @return the valid mask
+   */
+  static PackedValidMask get(RasterDataNode raster, Rectangle region) {
+    return get(raster, ImageLevel.FULL_RESOLUTION, region);
+  }
+
+  /**
+   * Returns the valid mask of the given image level of the raster for the region. If it is not cached it is read
+   * from the image level.
+   *
+   * @param raster     the raster
+   * @param imageLevel the image level
+   * @param region     the region in pixel coordinates of the image level
+   * @return the valid mask
+   */
+  static PackedValidMask get(RasterDataNode raster, ImageLevel imageLevel, Rectangle region) {
+    RegionKey key = new RegionKey(imageLevel, region);
+    AtomicInteger version = RasterChangeTracker.getVersion(raster);
+    int currentVersion = version.get();
+    synchronized (CACHE) {
+      RasterMasks masks = CACHE.get(raster);
+      if (masks != null && masks.version == currentVersion) {
+        PackedValidMask validMask = masks.get(key);
+        if (validMask != null) {
+          return validMask;
+        }
+      }
+    }
+    // read outside the lock, concurrent reads of the same region are harmless
+    PackedValidMask validMask = PackedValidMask.read(raster, imageLevel, region);
+    synchronized (CACHE) {
+      RasterMasks masks = CACHE.get(raster);
+      if (masks == null || masks.version != currentVersion) {
+        masks = new RasterMasks(currentVersion);
+        CACHE.put(raster, masks);
+      }
+      masks.put(key, validMask);
+    }
+    return validMask;
+  }
+
+  private static final class RegionKey {
+
+    private final ImageLevel imageLevel;
+    private final Rectangle region;
+
+    private RegionKey(ImageLevel imageLevel, Rectangle region) {
+      this.imageLevel = imageLevel;
+      this.region = new Rectangle(region);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      RegionKey regionKey = (RegionKey) o;
+      return imageLevel.equals(regionKey.imageLevel) && region.equals(regionKey.region);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(imageLevel, region);
+    }
+  }
+
+  private static final class RasterMasks extends LinkedHashMap<RegionKey, PackedValidMask> {
+
+    private final int version;
+
+    private RasterMasks(int version) {
+      super(16, 0.75f, true);
+      this.version = version;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<RegionKey, PackedValidMask> eldest) {
+      return size() > MAX_REGIONS_PER_RASTER;
+    }
+  }
+}
@@ -32,9 +32,8 @@ import org.esa.snap.core.jexp.Symbol;
 import org.esa.snap.core.jexp.Term;
 
 /**
- * Allows to check if a pixel is valid or not. The implementation uses
- * {@link RasterDataNode#isPixelValid(int, int) isPixelValid(x, y)}. In a band maths expression the symbol is used as
- * follows:
+ * Allows to check if a pixel is valid or not. The implementation uses the valid mask of the raster, which is taken
+ * from the {@link ValidMaskCache} once per target tile. In a band maths expression the symbol is used as follows:
  * <pre>
  *   &lt;band_name&gt;.valid
  * </pre>
@@ -76,12 +75,17 @@ public class ValidSymbol implements Symbol {
   @Override
   public boolean evalB(final EvalEnv env) throws EvalException {
     RasterDataEvalEnv rasterEnv = (RasterDataEvalEnv) env;
-    RasterDataNode rasterDataNode = raster.get();
-    if (rasterDataNode != null) {
-      return rasterDataNode.isPixelValid(rasterEnv.getPixelX(), rasterEnv.getPixelY());
-    } else {
-      throw new EvalException("RasterDataNode is not available anymore");
+    TileCache cache = TileCache.get(rasterEnv);
+    PackedValidMask validMask = cache.lookup(this, 0, PackedValidMask.class);
+    if (validMask == null) {
+      RasterDataNode rasterDataNode = raster.get();
+      if (rasterDataNode == null) {
+        throw new EvalException("RasterDataNode is not available anymore");
+      }
+      validMask = cache.getValidMask(rasterDataNode);
+      cache.put(this, 0, PackedValidMask.class, validMask);
     }
+    return validMask.isValid(cache.getLevelIndex(rasterEnv));
   }
 
   @Override
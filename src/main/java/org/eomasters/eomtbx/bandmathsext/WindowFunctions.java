@@ -23,7 +23,7 @@
 
 package org.eomasters.eomtbx.bandmathsext;
 
-import java.io.IOException;
+import java.awt.Rectangle;
 import java.util.Arrays;
 import org.esa.snap.core.datamodel.RasterDataNode;
 import org.esa.snap.core.dataop.barithm.RasterDataEvalEnv;
@@ -42,19 +42,38 @@ import org.esa.snap.core.jexp.impl.AbstractFunction.D;
  *    <li>max: Maximum of all valid pixels in the window</li>
  *    <li>mean: Mean of all valid pixels in the window</li>
  *    <li>median: Median of all valid pixels in the window</li>
+ *    <li>count: Number of valid pixels in the window</li>
+ *    <li>var: Population variance of all valid pixels in the window</li>
+ *    <li>std: Population standard deviation of all valid pixels in the window</li>
+ *    <li>range: Difference between maximum and minimum of all valid pixels in the window</li>
+ *    <li>pNN: The NN-th percentile of all valid pixels in the window, e.g. p10 or p97.5</li>
  * </ul>
  * </p>
- *   The window is centered on the current pixel and the window size must be 3, 5 or 7.
+ *   The window is centered on the current pixel and the window size must be an odd number between 3 and 501.
+ *   Sum, mean, count, var and std are computed from summed-area tables, so their costs do not depend on the window
+ *   size. The median and the percentiles are computed with a sliding histogram which is only updated by the leaving
+ *   and entering columns.
+ *   Min, max and range are computed with the van Herk/Gil-Werman algorithm.
+ *   When a lower resolution level of the image pyramid is computed, e.g. for the overview in the image view, the
+ *   functions work on the image of that level and the window is scaled accordingly. Sum and count are extrapolated to
+ *   the area of the full resolution window.
  */
 class WindowFunctions extends D {
 
-  private static final int[] ALLOWED_WND_SIZES = new int[]{3, 5, 7};
+  static final int MIN_WND_SIZE = 3;
+  static final int MAX_WND_SIZE = 501;
   private static final String FUNC_SUM = "sum";
   private static final String FUNC_MIN = "min";
   private static final String FUNC_MAX = "max";
   private static final String FUNC_MEAN = "mean";
   private static final String FUNC_MEDIAN = "median";
-  private static final String[] FUNCTION_NAMES = new String[]{FUNC_SUM, FUNC_MIN, FUNC_MAX, FUNC_MEAN, FUNC_MEDIAN};
+  private static final String FUNC_COUNT = "count";
+  private static final String FUNC_VAR = "var";
+  private static final String FUNC_STD = "std";
+  private static final String FUNC_RANGE = "range";
+  private static final String FUNC_PERCENTILE_PREFIX = "p";
+  private static final String[] FUNCTION_NAMES = new String[]{FUNC_SUM, FUNC_MIN, FUNC_MAX, FUNC_MEAN, FUNC_MEDIAN,
+      FUNC_COUNT, FUNC_VAR, FUNC_STD, FUNC_RANGE, FUNC_PERCENTILE_PREFIX + "NN"};
 
   public WindowFunctions() {
     super("wnd", 3, new int[]{Term.TYPE_D, Term.TYPE_I, Term.TYPE_S});
@@ -70,18 +89,32 @@ class WindowFunctions extends D {
     int wndSize = getWndSize(env, args);
     String wndFunction = getWndFunction(env, args);
 
+    RasterDataEvalEnv dataEvalEnv = (RasterDataEvalEnv) env;
+    TileCache cache = TileCache.get(dataEvalEnv);
+    int levelWndSize = getLevelWndSize(wndSize, cache.getScale());
     switch (wndFunction) {
       case FUNC_SUM:
-        return sum(raster, wndSize, env);
+        return sum(cache, raster, levelWndSize, dataEvalEnv) * getAreaRatio(wndSize, levelWndSize);
       case FUNC_MIN:
-        return min(raster, wndSize, env);
+        return min(cache, raster, levelWndSize, dataEvalEnv);
       case FUNC_MAX:
-        return max(raster, wndSize, env);
+        return max(cache, raster, levelWndSize, dataEvalEnv);
       case FUNC_MEAN:
-        return mean(raster, wndSize, env);
+        return mean(cache, raster, levelWndSize, dataEvalEnv);
       case FUNC_MEDIAN:
-        return median(raster, wndSize, env);
+        return median(cache, raster, levelWndSize, dataEvalEnv);
+      case FUNC_COUNT:
+        return count(cache, raster, levelWndSize, dataEvalEnv) * getAreaRatio(wndSize, levelWndSize);
+      case FUNC_VAR:
+        return variance(cache, raster, levelWndSize, dataEvalEnv);
+      case FUNC_STD:
+        return Math.sqrt(variance(cache, raster, levelWndSize, dataEvalEnv));
+      case FUNC_RANGE:
+        return range(cache, raster, levelWndSize, dataEvalEnv);
       default:
+        if (wndFunction.startsWith(FUNC_PERCENTILE_PREFIX)) {
+          return percentile(cache, raster, levelWndSize, wndFunction, dataEvalEnv);
+        }
         throw new EvalException("Third argument of wnd() must be one of +" + Arrays.toString(FUNCTION_NAMES));
     }
   }
@@ -89,7 +122,9 @@ class WindowFunctions extends D {
   private static int getWndSize(EvalEnv env, Term[] args) {
     int wndSize = args[1].evalI(env);
     if (!isValidWndSize(wndSize)) {
-      throw new EvalException("Second argument of wnd() must be one of " + Arrays.toString(ALLOWED_WND_SIZES));
+      throw new EvalException(
+          String.format("Second argument of wnd() must be an odd number between %d and %d", MIN_WND_SIZE,
+              MAX_WND_SIZE));
     }
     return wndSize;
   }
@@ -101,72 +136,152 @@ class WindowFunctions extends D {
     return args[2].evalS(env);
   }
 
-  private static boolean isValidWndSize(int wndSize) {
-    boolean found = false;
-    for (int allowedSize : ALLOWED_WND_SIZES) {
-      if (wndSize == allowedSize) {
-        found = true;
-        break;
-      }
-    }
-    return found;
+  static boolean isValidWndSize(int wndSize) {
+    return wndSize % 2 == 1 && wndSize >= MIN_WND_SIZE && wndSize <= MAX_WND_SIZE;
   }
 
-  private double sum(RasterDataNode raster, int wndSize, EvalEnv env) {
-    double[] data = getFilteredData(raster, wndSize, env);
-    return data.length == 0 ? Double.NaN : Arrays.stream(data).sum();
+  // At a lower resolution level the window is scaled to the nearest odd size covering about the same area
+  static int getLevelWndSize(int wndSize, int scale) {
+    if (scale == 1) {
+      return wndSize;
+    }
+    return 2 * (int) Math.round((wndSize / (double) scale - 1) / 2) + 1;
   }
 
-  private double mean(RasterDataNode raster, int wndSize, EvalEnv env) {
-    double[] data = getFilteredData(raster, wndSize, env);
-    return data.length == 0 ? Double.NaN : Arrays.stream(data).sum() / data.length;
+  // sum and count depend on the number of pixels and are extrapolated to the area of the full resolution window
+  private static double getAreaRatio(int wndSize, int levelWndSize) {
+    return wndSize == levelWndSize ? 1 : (double) wndSize * wndSize / (levelWndSize * levelWndSize);
   }
 
-  private double median(RasterDataNode raster, int wndSize, EvalEnv env) {
-    double[] data = getFilteredData(raster, wndSize, env);
-    if (data.length == 0) {
+  private double sum(TileCache cache, RasterDataNode raster, int wndSize, RasterDataEvalEnv env) {
+    IntegralImage integralImage = getIntegralImage(cache, raster, wndSize);
+    int halo = wndSize / 2;
+    int centerX = cache.getLevelX(env);
+    int centerY = cache.getLevelY(env);
+    int count = integralImage.getCount(centerX - halo, centerY - halo, centerX + halo, centerY + halo);
+    if (count == 0) {
       return Double.NaN;
     }
-    Arrays.sort(data);
-    long count = data.length;
-    if (count % 2 == 0) {
-      return (data[(int) (count / 2)] + data[(int) (count / 2 - 1)]) / 2;
+    return integralImage.getSum(centerX - halo, centerY - halo, centerX + halo, centerY + halo);
+  }
+
+  private double mean(TileCache cache, RasterDataNode raster, int wndSize, RasterDataEvalEnv env) {
+    IntegralImage integralImage = getIntegralImage(cache, raster, wndSize);
+    int halo = wndSize / 2;
+    int centerX = cache.getLevelX(env);
+    int centerY = cache.getLevelY(env);
+    int count = integralImage.getCount(centerX - halo, centerY - halo, centerX + halo, centerY + halo);
+    if (count == 0) {
+      return Double.NaN;
     }
-    return data[(int) Math.ceil(count / 2.)];
+    return integralImage.getSum(centerX - halo, centerY - halo, centerX + halo, centerY + halo) / count;
   }
 
-  private double min(RasterDataNode raster, int wndSize, EvalEnv env) {
-    double[] data = getFilteredData(raster, wndSize, env);
-    return Arrays.stream(data).min().orElse(Double.NaN);
+  private double count(TileCache cache, RasterDataNode raster, int wndSize, RasterDataEvalEnv env) {
+    IntegralImage integralImage = getIntegralImage(cache, raster, wndSize);
+    int halo = wndSize / 2;
+    int centerX = cache.getLevelX(env);
+    int centerY = cache.getLevelY(env);
+    return integralImage.getCount(centerX - halo, centerY - halo, centerX + halo, centerY + halo);
   }
 
-  private double max(RasterDataNode raster, int wndSize, EvalEnv env) {
-    double[] data = getFilteredData(raster, wndSize, env);
-    return Arrays.stream(data).max().orElse(Double.NaN);
+  private double variance(TileCache cache, RasterDataNode raster, int wndSize, RasterDataEvalEnv env) {
+    IntegralImage integralImage = getIntegralImage(cache, raster, wndSize);
+    int halo = wndSize / 2;
+    int centerX = cache.getLevelX(env);
+    int centerY = cache.getLevelY(env);
+    return integralImage.getVariance(centerX - halo, centerY - halo, centerX + halo, centerY + halo);
   }
 
-  // returns only valid and not NaN value scaled to geophysical values
-  private double[] getFilteredData(RasterDataNode raster, int wndSize, EvalEnv env) {
-    double[] data = new double[wndSize * wndSize];
-    Arrays.fill(data, Double.NaN);
-    RasterDataEvalEnv dataEvalEnv = (RasterDataEvalEnv) env;
-    int centerX = dataEvalEnv.getPixelX();
-    int centerY = dataEvalEnv.getPixelY();
+  private double median(TileCache cache, RasterDataNode raster, int wndSize, RasterDataEvalEnv env) {
+    double[] result = getRankResult(cache, raster, wndSize, FUNC_MEDIAN);
+    return result[cache.getLevelIndex(env)];
+  }
+
+  private double percentile(TileCache cache, RasterDataNode raster, int wndSize, String wndFunction,
+      RasterDataEvalEnv env) {
+    double[] result = getRankResult(cache, raster, wndSize, wndFunction);
+    return result[cache.getLevelIndex(env)];
+  }
+
+  private double range(TileCache cache, RasterDataNode raster, int wndSize, RasterDataEvalEnv env) {
+    int index = cache.getLevelIndex(env);
+    double max = getExtremaResult(cache, raster, wndSize, true)[index];
+    return max - getExtremaResult(cache, raster, wndSize, false)[index];
+  }
+
+  private double min(TileCache cache, RasterDataNode raster, int wndSize, RasterDataEvalEnv env) {
+    double[] result = getExtremaResult(cache, raster, wndSize, false);
+    return result[cache.getLevelIndex(env)];
+  }
+
+  private double max(TileCache cache, RasterDataNode raster, int wndSize, RasterDataEvalEnv env) {
+    double[] result = getExtremaResult(cache, raster, wndSize, true);
+    return result[cache.getLevelIndex(env)];
+  }
+
+  // the integral image is derived from the source tile and can serve all windows fitting into its halo
+  private static IntegralImage getIntegralImage(TileCache cache, RasterDataNode raster, int wndSize) {
+    SourceTile tile = cache.getSourceTile(raster, wndSize / 2);
+    IntegralImage integralImage = cache.lookup(tile, 0, IntegralImage.class);
+    if (integralImage == null) {
+      integralImage = IntegralImage.create(tile);
+      cache.put(tile, 0, IntegralImage.class, integralImage);
+    }
+    return integralImage;
+  }
+
+  // rank statistics are computed for the whole target tile at once while the window slides along the rows
+  private static double[] getRankResult(TileCache cache, RasterDataNode raster, int wndSize, String function) {
+    SourceTile tile = cache.getSourceTile(raster, wndSize / 2);
+    double[] result = cache.lookup(tile, wndSize, function);
+    if (result == null) {
+      result = SlidingHistogram.compute(tile, cache.getLevelRegion(), wndSize, createRankStatistic(function));
+      cache.put(tile, wndSize, function, result);
+    }
+    return result;
+  }
+
+  private static SlidingHistogram.Statistic createRankStatistic(String function) {
+    if (FUNC_MEDIAN.equals(function)) {
+      return SlidingHistogram::median;
+    }
+    double percentile;
     try {
-      for (int i = 0; i < wndSize; i++) {
-        int offsetI = i * wndSize;
-        int x = centerX - wndSize / 2 + i;
-        for (int j = 0; j < wndSize; j++) {
-          int y = centerY - wndSize / 2 + j;
-          if (raster.isPixelWithinImageBounds(x, y) && raster.isPixelValid(x, y)) {
-            data[offsetI + j] = raster.readPixels(x, y, 1, 1, new double[1])[0];
+      percentile = Double.parseDouble(function.substring(FUNC_PERCENTILE_PREFIX.length()));
+    } catch (NumberFormatException e) {
+      percentile = Double.NaN;
+    }
+    if (!(percentile >= 0 && percentile <= 100)) {
+      throw new EvalException(
+          "Percentile of wnd() must be given as 'pNN' with NN between 0 and 100, but was '" + function + "'");
+    }
+    final double p = percentile;
+    return histogram -> SlidingHistogram.percentile(histogram, p);
+  }
+
+  // the extrema are computed for the whole target tile at once, windows without valid pixels are set to NaN
+  private static double[] getExtremaResult(TileCache cache, RasterDataNode raster, int wndSize, boolean max) {
+    SourceTile tile = cache.getSourceTile(raster, wndSize / 2);
+    String function = max ? FUNC_MAX : FUNC_MIN;
+    double[] result = cache.lookup(tile, wndSize, function);
+    if (result == null) {
+      Rectangle region = cache.getLevelRegion();
+      result = RunningExtrema.compute(tile, region, wndSize, max);
+      IntegralImage integralImage = getIntegralImage(cache, raster, wndSize);
+      int halo = wndSize / 2;
+      for (int j = 0; j < region.height; j++) {
+        int y = region.y + j;
+        for (int i = 0; i < region.width; i++) {
+          int x = region.x + i;
+          if (integralImage.getCount(x - halo, y - halo, x + halo, y + halo) == 0) {
+            result[j * region.width + i] = Double.NaN;
           }
         }
       }
-    } catch (IOException e) {
-      throw new EvalException("Error reading raster data", e);
+      cache.put(tile, wndSize, function, result);
     }
-    return Arrays.stream(data).filter(d -> !Double.isNaN(d)).toArray();
+    return result;
   }
 
 }
@@ -0,0 +1,120 @@
+/*-
+ * ========================LICENSE_START=================================
+ * EOMTBX - EOMasters Toolbox Basic for SNAP
+ * -> https://www.eomasters.org/sw/EOMTBX
+ * ======================================================================
+ * Copyright (C) 2023 - 2025 Marco Peters
+ * ======================================================================
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * -> http://www.gnu.org/licenses/gpl-3.0.html
+ * =========================LICENSE_END==================================
+ */
+
+package org.eomasters.eomtbx.bandmathsext;
+
+import java.awt.Rectangle;
+import org.esa.snap.core.datamodel.RasterDataNode;
+import org.esa.snap.core.dataop.barithm.RasterDataEvalEnv;
+import org.esa.snap.core.jexp.EvalEnv;
+import org.esa.snap.core.jexp.EvalException;
+import org.esa.snap.core.jexp.Function;
+import org.esa.snap.core.jexp.Term;
+import org.esa.snap.core.jexp.impl.AbstractFunction;
+
+/**
+ * Implements window functions which relate two rasters. Currently, these are the covariance and the correlation. They
+ * are used like {@code wndCorr(B4_t1, B4_t2, 15)}. The window is centered on the current pixel and its size must be
+ * an odd number between 3 and 501. Only pixels which are valid in both rasters are considered.
+ *
+ * <p>The functions are computed from the summed-area tables of a {@link PairIntegralImage}, so their costs do not
+ * depend on the window size. When a lower resolution level of the image pyramid is computed, the window is scaled
+ * accordingly.</p>
+ *
+ * @author Marco Peters
+ */
+class WindowPairFunctions {
+
+  /**
+   * Function that returns the population covariance of the two rasters within the window.
+   */
+  static final Function COVARIANCE = new WindowPairFunction("wndCov") {
+    @Override
+    double compute(PairIntegralImage image, int minX, int minY, int maxX, int maxY) {
+      return image.getCovariance(minX, minY, maxX, maxY);
+    }
+  };
+
+  /**
+   * Function that returns the Pearson correlation coefficient of the two rasters within the window.
+   */
+  static final Function CORRELATION = new WindowPairFunction("wndCorr") {
+    @Override
+    double compute(PairIntegralImage image, int minX, int minY, int maxX, int maxY) {
+      return image.getCorrelation(minX, minY, maxX, maxY);
+    }
+  };
+
+  private WindowPairFunctions() {
+  }
+
+  private abstract static class WindowPairFunction extends AbstractFunction.D {
+
+    private WindowPairFunction(String name) {
+      super(name, 3, new int[]{Term.TYPE_D, Term.TYPE_D, Term.TYPE_I});
+    }
+
+    abstract double compute(PairIntegralImage image, int minX, int minY, int maxX, int maxY);
+
+    @Override
+    public double evalD(EvalEnv env, Term[] args) throws EvalException {
+      RasterDataNode rasterA = TermUtils.getRaster(args[0]);
+      RasterDataNode rasterB = TermUtils.getRaster(args[1]);
+      if (rasterA == null || rasterB == null) {
+        throw new EvalException(String.format("First and second argument of %s() must reference a raster", getName()));
+      }
+      if (!rasterA.getRasterSize().equals(rasterB.getRasterSize())) {
+        throw new EvalException(String.format("The rasters of %s() must have the same size", getName()));
+      }
+      int wndSize = args[2].evalI(env);
+      if (!WindowFunctions.isValidWndSize(wndSize)) {
+        throw new EvalException(
+            String.format("Third argument of %s() must be an odd number between %d and %d", getName(),
+                WindowFunctions.MIN_WND_SIZE, WindowFunctions.MAX_WND_SIZE));
+      }
+
+      RasterDataEvalEnv dataEvalEnv = (RasterDataEvalEnv) env;
+      TileCache cache = TileCache.get(dataEvalEnv);
+      int halo = WindowFunctions.getLevelWndSize(wndSize, cache.getScale()) / 2;
+      PairIntegralImage image = getPairIntegralImage(cache, rasterA, rasterB, halo);
+      int centerX = cache.getLevelX(dataEvalEnv);
+      int centerY = cache.getLevelY(dataEvalEnv);
+      return compute(image, centerX - halo, centerY - halo, centerX + halo, centerY + halo);
+    }
+
+    // the tables depend on both source tiles and serve all windows fitting into the halo
+    private static PairIntegralImage getPairIntegralImage(TileCache cache, RasterDataNode rasterA,
+        RasterDataNode rasterB, int halo) {
+      SourceTile tileA = cache.getSourceTile(rasterA, halo);
+      SourceTile tileB = cache.getSourceTile(rasterB, halo);
+      PairIntegralImage image = cache.lookup(tileA, halo, tileB);
+      if (image == null) {
+        Rectangle area = new Rectangle(cache.getLevelRegion());
+        area.grow(halo, halo);
+        image = PairIntegralImage.create(tileA, tileB, area);
+        cache.put(tileA, halo, tileB, image);
+      }
+      return image;
+    }
+  }
+}
@@ -0,0 +1,140 @@
+/*-
+ * ========================LICENSE_START=================================
+ * EOMTBX - EOMasters Toolbox Basic for SNAP
+ * -> https://www.eomasters.org/sw/EOMTBX
+ * ======================================================================
+ * Copyright (C) 2023 - 2025 Marco Peters
+ * ======================================================================
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * -> http://www.gnu.org/licenses/gpl-3.0.html
+ * =========================LICENSE_END==================================
+ */
+
+package org.eomasters.eomtbx.bandmathsext;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+import org.esa.snap.core.datamodel.RasterDataNode;
+import org.esa.snap.core.dataop.barithm.RasterDataEvalEnv;
+import org.esa.snap.core.jexp.EvalEnv;
+import org.esa.snap.core.jexp.EvalException;
+import org.esa.snap.core.jexp.Term;
+import org.esa.snap.core.jexp.impl.AbstractFunction.D;
+
+/**
+ * Provides statistics of a raster over all pixels of the same zone. In a band maths expression the function is used
+ * as follows:
+ * <pre>
+ *   zonal(&lt;band_name&gt;, "&lt;statistic&gt;", &lt;zone_band_name&gt;)
+ * </pre>
+ * The zones are given by the integer values of the zone raster, e.g. parcel ids. The following statistics are
+ * supported:
+ * <ul>
+ *    <li>count: Number of valid pixels in the zone</li>
+ *    <li>sum: Sum of all valid pixels in the zone</li>
+ *    <li>mean: Mean of all valid pixels in the zone</li>
+ *    <li>min: Minimum of all valid pixels in the zone</li>
+ *    <li>max: Maximum of all valid pixels in the zone</li>
+ *    <li>std: Population standard deviation of all valid pixels in the zone</li>
+ * </ul>
+ * The statistics of all zones are computed once, see {@link ZonalStatistics}, and looked up per pixel. If the zone
+ * of a pixel is invalid or has no valid pixels, the result is NaN. The statistic must be given as a constant.
+ *
+ * @author Marco Peters
+ */
+class ZonalFunction extends D {
+
+  private static final String FUNC_COUNT = "count";
+  private static final String FUNC_SUM = "sum";
+  private static final String FUNC_MEAN = "mean";
+  private static final String FUNC_MIN = "min";
+  private static final String FUNC_MAX = "max";
+  private static final String FUNC_STD = "std";
+  private static final String[] FUNCTION_NAMES = new String[]{FUNC_COUNT, FUNC_SUM, FUNC_MEAN, FUNC_MIN, FUNC_MAX,
+      FUNC_STD};
+
+  ZonalFunction() {
+    super("zonal", 3, new int[]{Term.TYPE_D, Term.TYPE_S, Term.TYPE_D});
+  }
+
+  @Override
+  public double evalD(EvalEnv env, Term[] args) throws EvalException {
+    RasterDataEvalEnv dataEvalEnv = (RasterDataEvalEnv) env;
+    TileCache cache = TileCache.get(dataEvalEnv);
+    // the statistics are looked up for the whole target tile at once
+    double[] result = cache.lookup(args, 0, ZonalFunction.class);
+    if (result == null) {
+      result = compute(env, args, cache);
+      cache.put(args, 0, ZonalFunction.class, result);
+    }
+    return result[cache.getLevelIndex(dataEvalEnv)];
+  }
+
+  private static double[] compute(EvalEnv env, Term[] args, TileCache cache) {
+    RasterDataNode valueRaster = TermUtils.getRaster(args[0]);
+    if (valueRaster == null) {
+      throw new EvalException("First argument of zonal() must reference a raster");
+    }
+    RasterDataNode zoneRaster = TermUtils.getRaster(args[2]);
+    if (zoneRaster == null) {
+      throw new EvalException("Third argument of zonal() must reference a raster");
+    }
+    if (!valueRaster.getRasterSize().equals(zoneRaster.getRasterSize())) {
+      throw new EvalException("The rasters of zonal() must have the same size");
+    }
+    if (!args[1].isS()) {
+      throw new EvalException("Second argument of zonal() must be a string");
+    }
+    if (!TermUtils.isConstant(args[1])) {
+      // the result is computed once per target tile, a statistic depending on the pixel is not supported
+      throw new EvalException("Second argument of zonal() must be a constant, but was '" + args[1] + "'");
+    }
+    String function = args[1].evalS(env);
+    if (!Arrays.asList(FUNCTION_NAMES).contains(function)) {
+      throw new EvalException("Second argument of zonal() must be one of " + Arrays.toString(FUNCTION_NAMES));
+    }
+
+    ZonalStatistics statistics = ZonalStatistics.get(valueRaster, zoneRaster);
+    SourceTile zoneTile = cache.getSourceTile(zoneRaster, 0);
+    Rectangle region = cache.getLevelRegion();
+    double[] result = new double[region.width * region.height];
+    for (int j = 0; j < region.height; j++) {
+      for (int i = 0; i < region.width; i++) {
+        double zone = zoneTile.getSample(region.x + i, region.y + j);
+        int index = Double.isNaN(zone) ? -1 : statistics.indexOf((int) zone);
+        result[j * region.width + i] = index < 0 ? Double.NaN : getStatistic(statistics, index, function);
+      }
+    }
+    return result;
+  }
+
+  private static double getStatistic(ZonalStatistics statistics, int index, String function) {
+    switch (function) {
+      case FUNC_COUNT:
+        return statistics.getCount(index);
+      case FUNC_SUM:
+        return statistics.getSum(index);
+      case FUNC_MEAN:
+        return statistics.getMean(index);
+      case FUNC_MIN:
+        return statistics.getMinimum(index);
+      case FUNC_MAX:
+        return statistics.getMaximum(index);
+      case FUNC_STD:
+        return statistics.getStandardDeviation(index);
+      default:
+        throw new IllegalStateException("Unexpected statistic: " + function);
+    }
+  }
+}
@@ -0,0 +1,355 @@
+/*-
+ * ========================LICENSE_START=================================
+ * EOMTBX - EOMasters Toolbox Basic for SNAP
+ * -> https://www.eomasters.org/sw/EOMTBX
+ * ======================================================================
+ * Copyright (C) 2023 - 2025 Marco Peters
+ * ======================================================================
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * -> http://www.gnu.org/licenses/gpl-3.0.html
+ * =========================LICENSE_END==================================
+ */
+
+package org.eomasters.eomtbx.bandmathsext;
+
+import com.bc.ceres.glevel.MultiLevelImage;
+import java.awt.Rectangle;
+import java.awt.image.RenderedImage;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import org.esa.snap.core.datamodel.RasterDataNode;
+
+/**
+ * Statistics of the values of a raster per zone. The zones are given by the integer values of a zone raster, e.g.
+ * parcel ids or a tile index. The statistics are computed at full resolution, tile by tile in parallel on the
+ * fork-join pool. Each tile is reduced to a table of its zones and the tables are merged with the method of Chan et
+ * al. The final table is stored in primitive arrays. If the zone ids are dense enough, a zone is found by direct
+ * indexing, otherwise by a binary search over the sorted ids.
+ *
+ * <p>Pixels which are invalid in either raster are not considered. The results are cached per value and zone raster
+ * until the data of their products changes. Threads requesting the same statistics at the same time share one
+ * computation.</p>
+ *
+ * @author Marco Peters
+ */
+final class ZonalStatistics {
+
+  // direct indexing is used if the range of the zone ids does not exceed this size
+  private static final int MAX_DIRECT_RANGE = 1 << 20;
+
+  private static final Map<RasterDataNode, List<CachedStatistics>> CACHE = new WeakHashMap<>();
+
+  private final int[] ids;
+  private final int[] directIndex;
+  private final int minId;
+  private final long[] counts;
+  private final double[] means;
+  private final double[] m2s;
+  private final double[] mins;
+  private final double[] maxs;
+
+  private ZonalStatistics(ZoneTable table) {
+    int numZones = table.size;
+    ids = new int[numZones];
+    int n = 0;
+    for (int slot = 0; slot < table.keys.length; slot++) {
+      if (table.counts[slot] > 0) {
+        ids[n++] = table.keys[slot];
+      }
+    }
+    Arrays.sort(ids);
+    counts = new long[numZones];
+    means = new double[numZones];
+    m2s = new double[numZones];
+    mins = new double[numZones];
+    maxs = new double[numZones];
+    for (int i = 0; i < numZones; i++) {
+      int slot = table.find(ids[i]);
+      counts[i] = table.counts[slot];
+      means[i] = table.means[slot];
+      m2s[i] = table.m2s[slot];
+      mins[i] = table.mins[slot];
+      maxs[i] = table.maxs[slot];
+    }
+    minId = numZones > 0 ? ids[0] : 0;
+    long range = numZones > 0 ? (long) ids[numZones - 1] - minId + 1 : 0;
+    if (numZones > 0 && range <= MAX_DIRECT_RANGE) {
+      directIndex = new int[(int) range];
+      Arrays.fill(directIndex, -1);
+      for (int i = 0; i < numZones; i++) {
+        directIndex[ids[i] - minId] = i;
+      }
+    } else {
+      directIndex = null;
+    }
+  }
+
+  /**
+   * Returns the statistics of the value raster per zone. If they are not cached or outdated they are computed.
+   *
+   * @param valueRaster the raster of the values
+   * @param zoneRaster  the raster of the zone ids, must have the same size as the value raster
+   * @return the statistics
+   */
+  static ZonalStatistics get(RasterDataNode valueRaster, RasterDataNode zoneRaster) {
+    CachedStatistics cachedStatistics = null;
+    synchronized (CACHE) {
+      List<CachedStatistics> entries = CACHE.computeIfAbsent(valueRaster, r -> new ArrayList<>());
+      entries.removeIf(entry -> !entry.isValid());
+      for (CachedStatistics entry : entries) {
+        if (entry.zoneRasterRef.get() == zoneRaster) {
+          cachedStatistics = entry;
+          break;
+        }
+      }
+      if (cachedStatistics == null) {
+        AtomicInteger valueVersion = RasterChangeTracker.getVersion(valueRaster);
+        AtomicInteger zoneVersion = RasterChangeTracker.getVersion(zoneRaster);
+        cachedStatistics = new CachedStatistics(zoneRaster, valueVersion, valueVersion.get(), zoneVersion,
+            zoneVersion.get(), new SharedResult<>(() -> compute(valueRaster, zoneRaster)));
+        entries.add(cachedStatistics);
+      }
+    }
+    // computed outside the lock, other threads requesting the same statistics wait for the result
+    return cachedStatistics.statistics.get();
+  }
+
+  /**
+   * Computes the statistics of the value raster per zone.
+   *
+   * @param valueRaster the raster of the values
+   * @param zoneRaster  the raster of the zone ids, must have the same size as the value raster
+   * @return the statistics
+   */
+  static ZonalStatistics compute(RasterDataNode valueRaster, RasterDataNode zoneRaster) {
+    RenderedImage valueImage = valueRaster.getGeophysicalImage().getImage(0);
+    RenderedImage valueMaskImage = getMaskImage(valueRaster);
+    RenderedImage zoneImage = zoneRaster.getGeophysicalImage().getImage(0);
+    RenderedImage zoneMaskImage = getMaskImage(zoneRaster);
+    int numTiles = valueImage.getNumXTiles() * valueImage.getNumYTiles();
+
+    ZoneTable table = IntStream.range(0, numTiles).parallel()
+                               .mapToObj(tileIndex -> summarizeTile(valueImage, valueMaskImage, zoneImage,
+                                   zoneMaskImage, tileIndex))
+                               .reduce(new ZoneTable(), ZoneTable::merge);
+    return new ZonalStatistics(table);
+  }
+
+  /**
+   * Returns the index of the zone within the statistics.
+   *
+   * @param zoneId the id of the zone
+   * @return the index or -1 if the zone has no valid values
+   */
+  int indexOf(int zoneId) {
+    if (directIndex != null) {
+      long offset = (long) zoneId - minId;
+      return offset >= 0 && offset < directIndex.length ? directIndex[(int) offset] : -1;
+    }
+    int index = Arrays.binarySearch(ids, zoneId);
+    return index >= 0 ? index : -1;
+  }
+
+  long getCount(int index) {
+    return counts[index];
+  }
+
+  double getSum(int index) {
+    return means[index] * counts[index];
+  }
+
+  double getMean(int index) {
+    return means[index];
+  }
+
+  double getMinimum(int index) {
+    return mins[index];
+  }
+
+  double getMaximum(int index) {
+    return maxs[index];
+  }
+
+  /**
+   * The population standard deviation of the values of the zone, like the window functions.
+   *
+   * @param index the index of the zone
+   * @return the standard deviation
+   */
+  double getStandardDeviation(int index) {
+    return Math.sqrt(m2s[index] / counts[index]);
+  }
+
+  private static RenderedImage getMaskImage(RasterDataNode raster) {
+    MultiLevelImage validMaskImage = raster.getValidMaskImage();
+    return validMaskImage != null ? validMaskImage.getImage(0) : null;
+  }
+
+  private static ZoneTable summarizeTile(RenderedImage valueImage, RenderedImage valueMaskImage,
+      RenderedImage zoneImage, RenderedImage zoneMaskImage, int tileIndex) {
+    Rectangle rect = ParallelStx.getTileRect(valueImage, tileIndex);
+    double[] zones = ParallelStx.getSamples(zoneImage, zoneMaskImage, null, rect);
+    double[] values = ParallelStx.getSamples(valueImage, valueMaskImage, null, rect);
+    ZoneTable table = new ZoneTable();
+    for (int i = 0; i < values.length; i++) {
+      if (!Double.isNaN(zones[i]) && Double.isFinite(values[i])) {
+        table.add((int) zones[i], values[i]);
+      }
+    }
+    return table;
+  }
+
+  // the statistics of a value raster per zone raster, outdated when the data of either product changes
+  private static final class CachedStatistics {
+
+    private final WeakReference<RasterDataNode> zoneRasterRef;
+    private final AtomicInteger valueVersion;
+    private final int computedValueVersion;
+    private final AtomicInteger zoneVersion;
+    private final int computedZoneVersion;
+    private final SharedResult<ZonalStatistics> statistics;
+
+    private CachedStatistics(RasterDataNode zoneRaster, AtomicInteger valueVersion, int computedValueVersion,
+        AtomicInteger zoneVersion, int computedZoneVersion, SharedResult<ZonalStatistics> statistics) {
+      this.zoneRasterRef = new WeakReference<>(zoneRaster);
+      this.valueVersion = valueVersion;
+      this.computedValueVersion = computedValueVersion;
+      this.zoneVersion = zoneVersion;
+      this.computedZoneVersion = computedZoneVersion;
+      this.statistics = statistics;
+    }
+
+    private boolean isValid() {
+      return valueVersion.get() == computedValueVersion && zoneVersion.get() == computedZoneVersion;
+    }
+  }
+
+  // open addressing hash table of the statistics per zone id, a slot is empty while its count is zero
+  private static final class ZoneTable {
+
+    private int[] keys = new int[16];
+    private long[] counts = new long[16];
+    private double[] means = new double[16];
+    private double[] m2s = new double[16];
+    private double[] mins = new double[16];
+    private double[] maxs = new double[16];
+    private int size;
+
+    private void add(int zoneId, double value) {
+      int slot = findOrInsert(zoneId);
+      long count = ++counts[slot];
+      if (count == 1) {
+        mins[slot] = value;
+        maxs[slot] = value;
+      } else {
+        mins[slot] = Math.min(mins[slot], value);
+        maxs[slot] = Math.max(maxs[slot], value);
+      }
+      double delta = value - means[slot];
+      means[slot] += delta / count;
+      m2s[slot] += delta * (value - means[slot]);
+    }
+
+    // the larger table is the target, so the empty identity of the reduction is never modified
+    private static ZoneTable merge(ZoneTable t1, ZoneTable t2) {
+      ZoneTable target = t1.size >= t2.size ? t1 : t2;
+      ZoneTable source = target == t1 ? t2 : t1;
+      for (int s = 0; s < source.keys.length; s++) {
+        long count2 = source.counts[s];
+        if (count2 == 0) {
+          continue;
+        }
+        int slot = target.findOrInsert(source.keys[s]);
+        long count1 = target.counts[slot];
+        if (count1 == 0) {
+          target.counts[slot] = count2;
+          target.means[slot] = source.means[s];
+          target.m2s[slot] = source.m2s[s];
+          target.mins[slot] = source.mins[s];
+          target.maxs[slot] = source.maxs[s];
+          continue;
+        }
+        long count = count1 + count2;
+        double delta = source.means[s] - target.means[slot];
+        target.means[slot] += delta * count2 / count;
+        target.m2s[slot] += source.m2s[s] + delta * delta * count1 * count2 / count;
+        target.mins[slot] = Math.min(target.mins[slot], source.mins[s]);
+        target.maxs[slot] = Math.max(target.maxs[slot], source.maxs[s]);
+        target.counts[slot] = count;
+      }
+      return target;
+    }
+
+    private int find(int zoneId) {
+      int mask = keys.length - 1;
+      int slot = hash(zoneId) & mask;
+      while (counts[slot] > 0 && keys[slot] != zoneId) {
+        slot = (slot + 1) & mask;
+      }
+      return slot;
+    }
+
+    // a newly inserted slot has a count of zero and is counted in the size
+    private int findOrInsert(int zoneId) {
+      int slot = find(zoneId);
+      if (counts[slot] == 0) {
+        if (2 * (size + 1) > keys.length) {
+          grow();
+          slot = find(zoneId);
+        }
+        keys[slot] = zoneId;
+        size++;
+      }
+      return slot;
+    }
+
+    private void grow() {
+      int[] oldKeys = keys;
+      long[] oldCounts = counts;
+      double[] oldMeans = means;
+      double[] oldM2s = m2s;
+      double[] oldMins = mins;
+      double[] oldMaxs = maxs;
+      int capacity = oldKeys.length * 2;
+      keys = new int[capacity];
+      counts = new long[capacity];
+      means = new double[capacity];
+      m2s = new double[capacity];
+      mins = new double[capacity];
+      maxs = new double[capacity];
+      for (int s = 0; s < oldKeys.length; s++) {
+        if (oldCounts[s] > 0) {
+          int slot = find(oldKeys[s]);
+          keys[slot] = oldKeys[s];
+          counts[slot] = oldCounts[s];
+          means[slot] = oldMeans[s];
+          m2s[slot] = oldM2s[s];
+          mins[slot] = oldMins[s];
+          maxs[slot] = oldMaxs[s];
+        }
+      }
+    }
+
+    private static int hash(int zoneId) {
+      int h = zoneId * 0x9E3779B9;
+      return h ^ (h >>> 16);
+    }
+  }
+}
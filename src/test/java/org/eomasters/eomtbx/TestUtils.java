@@ -23,13 +23,29 @@
 
 package org.eomasters.eomtbx;
 
+import com.bc.ceres.glevel.MultiLevelModel;
+import com.bc.ceres.glevel.support.DefaultMultiLevelImage;
+import com.bc.ceres.glevel.support.DefaultMultiLevelSource;
+import java.awt.Rectangle;
+import java.awt.image.RenderedImage;
 import java.util.stream.IntStream;
 import org.esa.snap.core.datamodel.Band;
 import org.esa.snap.core.datamodel.Product;
 import org.esa.snap.core.datamodel.ProductData;
+import org.esa.snap.core.datamodel.RasterDataNode;
+import org.esa.snap.core.dataop.barithm.RasterDataEvalEnv;
+import org.esa.snap.core.image.LevelImageSupport;
+import org.esa.snap.core.image.ResolutionLevel;
 
 public class TestUtils {
 
+  public static final String UTM_32N_WKT = "PROJCS[\"WGS 84 / UTM zone 32N\","
+      + "GEOGCS[\"WGS 84\",DATUM[\"WGS_1984\",SPHEROID[\"WGS 84\",6378137,298.257223563]],"
+      + "PRIMEM[\"Greenwich\",0],UNIT[\"degree\",0.0174532925199433]],"
+      + "PROJECTION[\"Transverse_Mercator\"],PARAMETER[\"latitude_of_origin\",0],"
+      + "PARAMETER[\"central_meridian\",9],PARAMETER[\"scale_factor\",0.9996],"
+      + "PARAMETER[\"false_easting\",500000],PARAMETER[\"false_northing\",0],UNIT[\"metre\",1]]";
+
   private static final int W = 10;
   private static final int H = 10;
 
@@ -88,6 +104,24 @@ public class TestUtils {
     return y * W + x;
   }
 
+  /**
+   * Replaces the source image of the band by an image pyramid with the given number of levels.
+   */
+  public static void setLevelCount(Band band, int levelCount) {
+    RenderedImage image = band.getSourceImage().getImage(0);
+    band.setSourceImage(new DefaultMultiLevelImage(new DefaultMultiLevelSource(image, levelCount)));
+  }
+
+  /**
+   * Creates the evaluation environment for a region of the given resolution level of the raster.
+   */
+  public static RasterDataEvalEnv createLevelEnv(RasterDataNode raster, int level, Rectangle levelRegion) {
+    MultiLevelModel model = raster.getGeophysicalImage().getModel();
+    LevelImageSupport levelSupport = new LevelImageSupport(raster.getRasterWidth(), raster.getRasterHeight(),
+        ResolutionLevel.create(model, level));
+    return new RasterDataEvalEnv(levelRegion.x, levelRegion.y, levelRegion.width, levelRegion.height, levelSupport);
+  }
+
   // resulting data array contain values from 0 to w*h-1.
   // the first element of row 0-6 is set to NaN
   private static double[] createB2Data() {
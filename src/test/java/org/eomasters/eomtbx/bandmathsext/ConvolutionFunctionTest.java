@@ -0,0 +1,105 @@
+/*-
+ * ========================LICENSE_START=================================
+ * EOMTBX - EOMasters Toolbox Basic for SNAP
+ * -> https://www.eomasters.org/sw/EOMTBX
+ * ======================================================================
+ * Copyright (C) 2023 - 2025 Marco Peters
+ * ======================================================================
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * -> http://www.gnu.org/licenses/gpl-3.0.html
+ * =========================LICENSE_END==================================
+ */
+
+package org.eomasters.eomtbx.bandmathsext;
+
+import static org.eomasters.eomtbx.TestUtils.toElemIndex;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.eomasters.eomtbx.TestUtils;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.dataop.barithm.BandArithmetic;
+import org.esa.snap.core.dataop.barithm.RasterDataEvalEnv;
+import org.esa.snap.core.jexp.EvalException;
+import org.esa.snap.core.jexp.ParseException;
+import org.esa.snap.core.jexp.Term;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ConvolutionFunctionTest {
+
+  private static Product product;
+  private RasterDataEvalEnv evalEnv;
+
+  @BeforeEach
+  void beforeEach() {
+    product = TestUtils.createProduct();
+    evalEnv = new RasterDataEvalEnv(0, 0, product.getSceneRasterWidth(), product.getSceneRasterHeight());
+  }
+
+  @Test
+  void testBox_isMeanOfValidPixels() throws ParseException {
+    Term convTerm = BandArithmetic.parseExpression("conv(B1, \"box\", 3)", new Product[]{product}, 0);
+    Term wndTerm = BandArithmetic.parseExpression("wnd(B1, 3, \"mean\")", new Product[]{product}, 0);
+
+    for (int y = 0; y < 10; y++) {
+      for (int x = 0; x < 10; x++) {
+        evalEnv.setElemIndex(toElemIndex(x, y));
+        assertEquals(wndTerm.evalD(evalEnv), convTerm.evalD(evalEnv), 1.0e-8);
+      }
+    }
+  }
+
+  @Test
+  void testIdentityKernel() throws ParseException {
+    Term term = BandArithmetic.parseExpression("conv(B1, \"0 0 0 0 1 0 0 0 0\", 3)", new Product[]{product}, 0);
+
+    evalEnv.setElemIndex(toElemIndex(2, 2));
+    assertEquals(22.0, term.evalD(evalEnv), 1.0e-8);
+    evalEnv.setElemIndex(toElemIndex(5, 0)); // invalid
+    assertEquals(Double.NaN, term.evalD(evalEnv));
+  }
+
+  @Test
+  void testUserKernel_normalisedAtInvalidPixels() throws ParseException {
+    Term term = BandArithmetic.parseExpression("conv(B1, \"1,2,3,4,5,6,7,8,10\", 3)", new Product[]{product}, 0);
+
+    evalEnv.setElemIndex(toElemIndex(2, 2)); // all valid
+    assertEquals(1209.0, term.evalD(evalEnv), 1.0e-8);
+    evalEnv.setElemIndex(toElemIndex(4, 2)); // right column invalid
+    assertEquals(1288.0, term.evalD(evalEnv), 1.0e-8);
+  }
+
+  @Test
+  void testLaplace() throws ParseException {
+    Term term = BandArithmetic.parseExpression("conv(B1, \"laplace\", 3)", new Product[]{product}, 0);
+
+    evalEnv.setElemIndex(toElemIndex(2, 2)); // linear data
+    assertEquals(0.0, term.evalD(evalEnv), 1.0e-8);
+    evalEnv.setElemIndex(toElemIndex(4, 2)); // contains invalid pixels
+    assertEquals(Double.NaN, term.evalD(evalEnv));
+  }
+
+  @Test
+  void testException_invalidKernel() throws ParseException {
+    Term wrongCount = BandArithmetic.parseExpression("conv(B1, \"1 2 3\", 3)", new Product[]{product}, 0);
+    Term wrongSize = BandArithmetic.parseExpression("conv(B1, \"laplace\", 5)", new Product[]{product}, 0);
+    Term evenSize = BandArithmetic.parseExpression("conv(B1, \"box\", 4)", new Product[]{product}, 0);
+
+    evalEnv.setElemIndex(toElemIndex(2, 2));
+    assertThrows(EvalException.class, () -> wrongCount.evalD(evalEnv));
+    assertThrows(EvalException.class, () -> wrongSize.evalD(evalEnv));
+    assertThrows(EvalException.class, () -> evenSize.evalD(evalEnv));
+  }
+}
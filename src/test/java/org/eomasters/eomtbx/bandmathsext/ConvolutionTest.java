@@ -0,0 +1,85 @@
+/*-
+ * ========================LICENSE_START=================================
+ * EOMTBX - EOMasters Toolbox Basic for SNAP
+ * -> https://www.eomasters.org/sw/EOMTBX
+ * ======================================================================
+ * Copyright (C) 2023 - 2025 Marco Peters
+ * ======================================================================
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * -> http://www.gnu.org/licenses/gpl-3.0.html
+ * =========================LICENSE_END==================================
+ */
+
+package org.eomasters.eomtbx.bandmathsext;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Rectangle;
+import org.eomasters.eomtbx.TestUtils;
+import org.esa.snap.core.datamodel.Band;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.datamodel.ProductData;
+import org.junit.jupiter.api.Test;
+
+class ConvolutionTest {
+
+  @Test
+  void testSeparableKernels() {
+    assertTrue(Kernel.get(Kernel.GAUSS, 31).isSeparable());
+    assertTrue(Kernel.get(Kernel.BOX, 5).isSeparable());
+    assertFalse(Kernel.get(Kernel.LAPLACE, 3).isSeparable());
+    assertFalse(Kernel.get(Kernel.LOG, 13).isSeparable());
+  }
+
+  @Test
+  void testFftAndSeparableMatchDirect() {
+    Product product = TestUtils.createProduct();
+    Rectangle region = new Rectangle(0, 0, 10, 10);
+
+    Kernel log = Kernel.get(Kernel.LOG, 13);
+    SourceTile tile = SourceTile.read(product.getBand("B1"), region, 6);
+    assertArrayEquals(Convolution.computeDirect(tile, region, log), Convolution.computeFft(tile, region, log), 1.0e-8);
+
+    Kernel gauss = Kernel.get(Kernel.GAUSS, 7);
+    tile = SourceTile.read(product.getBand("B1"), region, 3);
+    assertArrayEquals(Convolution.computeDirect(tile, region, gauss), Convolution.computeSeparable(tile, region, gauss),
+        1.0e-8);
+    assertArrayEquals(Convolution.computeDirect(tile, region, gauss), Convolution.computeFft(tile, region, gauss),
+        1.0e-8);
+  }
+
+  @Test
+  void testFftWithInfiniteSample() {
+    Product product = new Product("test", "test", 40, 40);
+    double[] data = new double[40 * 40];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = i % 17;
+    }
+    data[20 * 40 + 20] = Double.POSITIVE_INFINITY;
+    Band band = product.addBand("band", ProductData.TYPE_FLOAT64);
+    band.setData(ProductData.createInstance(data));
+    Rectangle region = new Rectangle(0, 0, 40, 40);
+
+    Kernel log = Kernel.get(Kernel.LOG, 13);
+    SourceTile tile = SourceTile.read(band, region, 6);
+    double[] fft = Convolution.computeFft(tile, region, log);
+    assertArrayEquals(Convolution.computeDirect(tile, region, log), fft, 1.0e-8);
+    // only the windows containing the infinite sample are affected
+    assertFalse(Double.isFinite(fft[20 * 40 + 20]));
+    assertTrue(Double.isFinite(fft[20 * 40 + 27]));
+    assertTrue(Double.isFinite(fft[5 * 40 + 5]));
+  }
+}
@@ -0,0 +1,99 @@
+/*-
+ * ========================LICENSE_START=================================
+ * EOMTBX - EOMasters Toolbox Basic for SNAP
+ * -> https://www.eomasters.org/sw/EOMTBX
+ * ======================================================================
+ * Copyright (C) 2023 - 2025 Marco Peters
+ * ======================================================================
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * -> http://www.gnu.org/licenses/gpl-3.0.html
+ * =========================LICENSE_END==================================
+ */
+
+package org.eomasters.eomtbx.bandmathsext;
+
+import static org.eomasters.eomtbx.TestUtils.toElemIndex;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.awt.Color;
+import org.eomasters.eomtbx.TestUtils;
+import org.esa.snap.core.datamodel.Mask;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.dataop.barithm.BandArithmetic;
+import org.esa.snap.core.dataop.barithm.RasterDataEvalEnv;
+import org.esa.snap.core.jexp.EvalException;
+import org.esa.snap.core.jexp.ParseException;
+import org.esa.snap.core.jexp.Term;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class DistanceFunctionTest {
+
+  private static Product product;
+  private RasterDataEvalEnv evalEnv;
+
+  @BeforeEach
+  void beforeEach() {
+    product = TestUtils.createProduct();
+    product.addMask(Mask.BandMathsType.create("corner", "", 10, 10, "X > 7.5 && Y > 7.5", Color.RED, 0.5));
+    evalEnv = new RasterDataEvalEnv(0, 0, product.getSceneRasterWidth(), product.getSceneRasterHeight());
+  }
+
+  @Test
+  void testDistanceToMask() throws ParseException {
+    Term term = BandArithmetic.parseExpression("distanceTo(corner)", new Product[]{product}, 0);
+
+    evalEnv.setElemIndex(toElemIndex(0, 0));
+    assertEquals(Math.sqrt(128), term.evalD(evalEnv), 1.0e-6);
+    evalEnv.setElemIndex(toElemIndex(8, 5));
+    assertEquals(3.0, term.evalD(evalEnv), 1.0e-6);
+    evalEnv.setElemIndex(toElemIndex(9, 9));
+    assertEquals(0.0, term.evalD(evalEnv), 1.0e-6);
+    evalEnv.setElemIndex(toElemIndex(5, 9));
+    assertEquals(3.0, term.evalD(evalEnv), 1.0e-6);
+  }
+
+  @Test
+  void testDistanceToBand_invalidPixelsAreNoFeatures() throws ParseException {
+    Term term = BandArithmetic.parseExpression("distanceTo(B1, \"pixel\")", new Product[]{product}, 0);
+
+    evalEnv.setElemIndex(toElemIndex(0, 0)); // NaN
+    assertEquals(1.0, term.evalD(evalEnv), 1.0e-6);
+    evalEnv.setElemIndex(toElemIndex(5, 4)); // invalid
+    assertEquals(Math.sqrt(2), term.evalD(evalEnv), 1.0e-6);
+    evalEnv.setElemIndex(toElemIndex(3, 3));
+    assertEquals(0.0, term.evalD(evalEnv), 1.0e-6);
+  }
+
+  @Test
+  void testNoFeature() throws ParseException {
+    product.addMask(Mask.BandMathsType.create("empty", "", 10, 10, "X > 20", Color.RED, 0.5));
+    Term term = BandArithmetic.parseExpression("distanceTo(empty)", new Product[]{product}, 0);
+
+    evalEnv.setElemIndex(toElemIndex(4, 4));
+    assertEquals(Double.NaN, term.evalD(evalEnv));
+  }
+
+  @Test
+  void testInvalidArguments() throws ParseException {
+    Term unitTerm = BandArithmetic.parseExpression("distanceTo(corner, \"km\")", new Product[]{product}, 0);
+    assertThrows(EvalException.class, () -> unitTerm.evalD(evalEnv));
+    Term exprTerm = BandArithmetic.parseExpression("distanceTo(B1 + 1)", new Product[]{product}, 0);
+    assertThrows(EvalException.class, () -> exprTerm.evalD(evalEnv));
+    // the test product has no geocoding
+    Term mapTerm = BandArithmetic.parseExpression("distanceTo(corner, \"map\")", new Product[]{product}, 0);
+    assertThrows(EvalException.class, () -> mapTerm.evalD(evalEnv));
+  }
+}
@@ -0,0 +1,72 @@
+/*-
+ * ========================LICENSE_START=================================
+ * EOMTBX - EOMasters Toolbox Basic for SNAP
+ * -> https://www.eomasters.org/sw/EOMTBX
+ * ======================================================================
+ * Copyright (C) 2023 - 2025 Marco Peters
+ * ======================================================================
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * -> http://www.gnu.org/licenses/gpl-3.0.html
+ * =========================LICENSE_END==================================
+ */
+
+package org.eomasters.eomtbx.bandmathsext;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class DistanceTransformTest {
+
+  @Test
+  void testCompute_equalsBruteForce() {
+    assertEqualsBruteForce(37, 23, 1.0, 1.0, 0.05);
+    assertEqualsBruteForce(16, 41, 30.0, 10.0, 0.02);
+    assertEqualsBruteForce(20, 20, 1.0, 1.0, 0.0025);
+  }
+
+  @Test
+  void testCompute_noFeature() {
+    float[] distances = DistanceTransform.compute(new boolean[6], 3, 2, 1.0, 1.0);
+    for (float distance : distances) {
+      assertEquals(Float.POSITIVE_INFINITY, distance);
+    }
+  }
+
+  private static void assertEqualsBruteForce(int width, int height, double sizeX, double sizeY, double density) {
+    Random random = new Random(42);
+    boolean[] features = new boolean[width * height];
+    for (int i = 0; i < features.length; i++) {
+      features[i] = random.nextDouble() < density;
+    }
+
+    float[] distances = DistanceTransform.compute(features, width, height, sizeX, sizeY);
+
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        double expected = Double.POSITIVE_INFINITY;
+        for (int fy = 0; fy < height; fy++) {
+          for (int fx = 0; fx < width; fx++) {
+            if (features[fy * width + fx]) {
+              expected = Math.min(expected, Math.hypot((fx - x) * sizeX, (fy - y) * sizeY));
+            }
+          }
+        }
+        // the distances are stored as float
+        assertEquals(expected, distances[y * width + x], 1.0e-6 * Math.max(1, expected));
+      }
+    }
+  }
+}
@@ -0,0 +1,122 @@
+/*-
+ * ========================LICENSE_START=================================
+ * EOMTBX - EOMasters Toolbox Basic for SNAP
+ * -> https://www.eomasters.org/sw/EOMTBX
+ * ======================================================================
+ * Copyright (C) 2023 - 2025 Marco Peters
+ * ======================================================================
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * -> http://www.gnu.org/licenses/gpl-3.0.html
+ * =========================LICENSE_END==================================
+ */
+
+package org.eomasters.eomtbx.bandmathsext;
+
+import static org.eomasters.eomtbx.TestUtils.toElemIndex;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.eomasters.eomtbx.TestUtils;
+import org.esa.snap.core.datamodel.CrsGeoCoding;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.dataop.barithm.BandArithmetic;
+import org.esa.snap.core.dataop.barithm.RasterDataEvalEnv;
+import org.esa.snap.core.jexp.EvalException;
+import org.esa.snap.core.jexp.ParseException;
+import org.esa.snap.core.jexp.Term;
+import org.geotools.referencing.CRS;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class GradientFunctionsTest {
+
+  private static Product product;
+  private RasterDataEvalEnv evalEnv;
+
+  @BeforeEach
+  void beforeEach() {
+    product = TestUtils.createProduct();
+    evalEnv = new RasterDataEvalEnv(0, 0, product.getSceneRasterWidth(), product.getSceneRasterHeight());
+  }
+
+  // B1 increases by 1 per pixel to the right and by 10 per pixel downwards
+  @Test
+  void testSobel() throws ParseException {
+    Term xTerm = BandArithmetic.parseExpression("sobelX(B1)", new Product[]{product}, 0);
+    Term yTerm = BandArithmetic.parseExpression("sobelY(B1)", new Product[]{product}, 0);
+    Term magTerm = BandArithmetic.parseExpression("gradMag(B1)", new Product[]{product}, 0);
+
+    evalEnv.setElemIndex(toElemIndex(2, 2));
+    assertEquals(8.0, xTerm.evalD(evalEnv), 1.0e-8);
+    assertEquals(80.0, yTerm.evalD(evalEnv), 1.0e-8);
+    assertEquals(Math.hypot(8, 80), magTerm.evalD(evalEnv), 1.0e-8);
+  }
+
+  @Test
+  void testInvalidNeighbour_isNaN() throws ParseException {
+    Term term = BandArithmetic.parseExpression("gradMag(B1)", new Product[]{product}, 0);
+
+    evalEnv.setElemIndex(toElemIndex(4, 2)); // next to invalid column 5
+    assertEquals(Double.NaN, term.evalD(evalEnv));
+    evalEnv.setElemIndex(toElemIndex(9, 3)); // at the border
+    assertEquals(Double.NaN, term.evalD(evalEnv));
+  }
+
+  @Test
+  void testSlopeAndAspect_projected() throws Exception {
+    product.setSceneGeoCoding(new CrsGeoCoding(CRS.parseWKT(TestUtils.UTM_32N_WKT), 10, 10, 500000.0, 5000000.0, 30.0, 30.0));
+    Term slopeTerm = BandArithmetic.parseExpression("slope(B1)", new Product[]{product}, 0);
+    Term aspectTerm = BandArithmetic.parseExpression("aspect(B1)", new Product[]{product}, 0);
+
+    evalEnv.setElemIndex(toElemIndex(2, 2));
+    assertEquals(Math.toDegrees(Math.atan(Math.hypot(1, 10) / 30)), slopeTerm.evalD(evalEnv), 1.0e-8);
+    // the values increase to the east and to the south, so the slope faces north with a small part to the west
+    assertEquals(360 + Math.toDegrees(Math.atan2(-1, 10)), aspectTerm.evalD(evalEnv), 1.0e-8);
+  }
+
+  @Test
+  void testSlope_geographic() throws Exception {
+    product.setSceneGeoCoding(new CrsGeoCoding(DefaultGeographicCRS.WGS84, 10, 10, 0.0, 0.0, 0.001, 0.001));
+    Term slopeTerm = BandArithmetic.parseExpression("slope(B1)", new Product[]{product}, 0);
+
+    evalEnv.setElemIndex(toElemIndex(2, 2));
+    double metresPerDegree = 6371008.8 * Math.PI / 180;
+    double east = 1 / (0.001 * metresPerDegree * Math.cos(Math.toRadians(-0.002)));
+    double north = 10 / (0.001 * metresPerDegree);
+    assertEquals(Math.toDegrees(Math.atan(Math.hypot(east, north))), slopeTerm.evalD(evalEnv), 1.0e-8);
+  }
+
+  @Test
+  void testFlat_aspectIsNaN() throws Exception {
+    product.setSceneGeoCoding(new CrsGeoCoding(CRS.parseWKT(TestUtils.UTM_32N_WKT), 10, 10, 500000.0, 5000000.0, 30.0, 30.0));
+    product.addBand("flat", "1.0");
+    Term flatSlopeTerm = BandArithmetic.parseExpression("slope(flat)", new Product[]{product}, 0);
+    Term flatAspectTerm = BandArithmetic.parseExpression("aspect(flat)", new Product[]{product}, 0);
+
+    evalEnv.setElemIndex(toElemIndex(5, 5));
+    assertEquals(0.0, flatSlopeTerm.evalD(evalEnv), 1.0e-8);
+    assertEquals(Double.NaN, flatAspectTerm.evalD(evalEnv));
+  }
+
+  @Test
+  void testInvalidArguments() throws ParseException {
+    Term exprTerm = BandArithmetic.parseExpression("gradMag(B1 * 2)", new Product[]{product}, 0);
+    assertThrows(EvalException.class, () -> exprTerm.evalD(evalEnv));
+    // the test product has no geocoding
+    Term slopeTerm = BandArithmetic.parseExpression("slope(B1)", new Product[]{product}, 0);
+    evalEnv.setElemIndex(toElemIndex(2, 2));
+    assertThrows(EvalException.class, () -> slopeTerm.evalD(evalEnv));
+  }
+}
@@ -0,0 +1,119 @@
+/*-
+ * ========================LICENSE_START=================================
+ * EOMTBX - EOMasters Toolbox Basic for SNAP
+ * -> https://www.eomasters.org/sw/EOMTBX
+ * ======================================================================
+ * Copyright (C) 2023 - 2025 Marco Peters
+ * ======================================================================
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * -> http://www.gnu.org/licenses/gpl-3.0.html
+ * =========================LICENSE_END==================================
+ */
+
+package org.eomasters.eomtbx.bandmathsext;
+
+import static org.eomasters.eomtbx.TestUtils.toElemIndex;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.eomasters.eomtbx.TestUtils;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.dataop.barithm.BandArithmetic;
+import org.esa.snap.core.dataop.barithm.RasterDataEvalEnv;
+import org.esa.snap.core.jexp.EvalException;
+import org.esa.snap.core.jexp.ParseException;
+import org.esa.snap.core.jexp.Term;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class LookupFunctionsTest {
+
+  private static Product product;
+  private RasterDataEvalEnv evalEnv;
+
+  @BeforeEach
+  void beforeEach() {
+    product = TestUtils.createProduct();
+    evalEnv = new RasterDataEvalEnv(0, 0, product.getSceneRasterWidth(), product.getSceneRasterHeight());
+  }
+
+  @Test
+  void testLut() throws ParseException {
+    Term term = BandArithmetic.parseExpression("lut(B1 % 3, 10, 20, -30.5)", new Product[]{product}, 0);
+
+    assertEquals(20.0, evalD(term, 1, 0), 1.0e-8);
+    assertEquals(-30.5, evalD(term, 2, 0), 1.0e-8);
+    assertEquals(10.0, evalD(term, 3, 0), 1.0e-8);
+    assertEquals(Double.NaN, evalD(term, 0, 0)); // NaN
+  }
+
+  @Test
+  void testLut_outsideOfTable() throws ParseException {
+    Term term = BandArithmetic.parseExpression("lut(B1 - 2, 1, 2)", new Product[]{product}, 0);
+
+    assertEquals(Double.NaN, evalD(term, 1, 0));
+    assertEquals(1.0, evalD(term, 2, 0), 1.0e-8);
+    assertEquals(2.0, evalD(term, 3, 0), 1.0e-8);
+    assertEquals(Double.NaN, evalD(term, 4, 0));
+  }
+
+  @Test
+  void testClassify() throws ParseException {
+    Term term = BandArithmetic.parseExpression("classify(B1, 23, 50, 1, 2, 3)", new Product[]{product}, 0);
+
+    assertEquals(1.0, evalD(term, 2, 2), 1.0e-8); // 22
+    assertEquals(2.0, evalD(term, 3, 2), 1.0e-8); // 23, on the break
+    assertEquals(2.0, evalD(term, 9, 4), 1.0e-8); // 49
+    assertEquals(3.0, evalD(term, 1, 5), 1.0e-8); // 51
+    assertEquals(Double.NaN, evalD(term, 0, 5)); // NaN
+  }
+
+  @Test
+  void testClassify_manyBreaks() throws ParseException {
+    Term term = BandArithmetic.parseExpression("classify(B1, 10, 20, 30, 40, 50, 60, 70, 0, 1, 2, 3, 4, 5, 6, 7)",
+        new Product[]{product}, 0);
+
+    for (int y = 0; y < 10; y++) {
+      evalEnv.setElemIndex(toElemIndex(3, y));
+      assertEquals(Math.min(y, 7), term.evalD(evalEnv), 1.0e-8);
+    }
+  }
+
+  @Test
+  void testInvalidArguments() throws ParseException {
+    Term lutTerm = BandArithmetic.parseExpression("lut(B1)", new Product[]{product}, 0);
+    assertThrows(EvalException.class, () -> lutTerm.evalD(evalEnv));
+    Term countTerm = BandArithmetic.parseExpression("classify(B1, 25, 1, 2, 3)", new Product[]{product}, 0);
+    assertThrows(EvalException.class, () -> countTerm.evalD(evalEnv));
+    Term orderTerm = BandArithmetic.parseExpression("classify(B1, 50, 25, 1, 2, 3)", new Product[]{product}, 0);
+    assertThrows(EvalException.class, () -> orderTerm.evalD(evalEnv));
+    Term bandTableTerm = BandArithmetic.parseExpression("lut(B1 % 3, B1, B2)", new Product[]{product}, 0);
+    assertThrows(EvalException.class, () -> bandTableTerm.evalD(evalEnv));
+    Term bandBreakTerm = BandArithmetic.parseExpression("classify(B1, B2 * 2, 1, 2)", new Product[]{product}, 0);
+    assertThrows(EvalException.class, () -> bandBreakTerm.evalD(evalEnv));
+  }
+
+  @Test
+  void testConstantExpressionsAsTable() throws ParseException {
+    Term term = BandArithmetic.parseExpression("lut(B1 % 3, -1, 2 * 5, PI)", new Product[]{product}, 0);
+    assertEquals(10, evalD(term, 1, 0));
+    assertEquals(Math.PI, evalD(term, 2, 0), 1.0e-12);
+    assertEquals(-1, evalD(term, 3, 0));
+  }
+
+  private double evalD(Term term, int x, int y) {
+    evalEnv.setElemIndex(toElemIndex(x, y));
+    return term.evalD(evalEnv);
+  }
+}
@@ -26,7 +26,15 @@ package org.eomasters.eomtbx.bandmathsext;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
 import java.awt.Dimension;
+import java.awt.Rectangle;
+import org.eomasters.eomtbx.TestUtils;
+import org.esa.snap.core.datamodel.Band;
+import org.esa.snap.core.datamodel.CrsGeoCoding;
+import org.esa.snap.core.datamodel.GeoCoding;
+import org.esa.snap.core.datamodel.GeoPos;
+import org.esa.snap.core.datamodel.PixelPos;
 import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.datamodel.ProductData;
 import org.esa.snap.core.dataop.barithm.BandArithmetic;
 import org.esa.snap.core.dataop.barithm.RasterDataEvalEnv;
 import org.esa.snap.core.jexp.ParseException;
@@ -34,7 +42,12 @@ import org.esa.snap.core.jexp.Term;
 import org.esa.snap.core.util.DummyProductBuilder;
 import org.esa.snap.core.util.DummyProductBuilder.GC;
 import org.esa.snap.core.util.DummyProductBuilder.Size;
+import org.geotools.geometry.DirectPosition2D;
+import org.geotools.referencing.CRS;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
 import org.junit.jupiter.api.Test;
+import org.opengis.geometry.DirectPosition;
+import org.opengis.referencing.operation.MathTransform;
 
 class MapPosSymbolTest {
 
@@ -99,6 +112,24 @@ class MapPosSymbolTest {
     assertEquals(20.918042, yTerm.evalD(evalEnv), EPS);
   }
 
+  @Test
+  void testEvalD_latLonWithTieGC() throws ParseException {
+    Product product = new DummyProductBuilder().size(Size.SMALL).gc(GC.TIE_POINTS).create();
+    Band band = product.getBandAt(0);
+    Term latTerm = BandArithmetic.parseExpression(band.getName() + ".lat", new Product[]{product}, 0);
+    Term lonTerm = BandArithmetic.parseExpression(band.getName() + ".lon", new Product[]{product}, 0);
+    GeoCoding geoCoding = band.getGeoCoding();
+    Dimension size = band.getRasterSize();
+
+    RasterDataEvalEnv evalEnv = new RasterDataEvalEnv(0, 0, size.width, size.height);
+    for (int[] pos : new int[][]{{0, 0}, {1, 3}, {5, 0}}) {
+      GeoPos geoPos = geoCoding.getGeoPos(new PixelPos(pos[0] + 0.5, pos[1] + 0.5), null);
+      evalEnv.setElemIndex(toElemIndex(pos[0], pos[1], size));
+      assertEquals(geoPos.lat, latTerm.evalD(evalEnv), EPS);
+      assertEquals(geoPos.lon, lonTerm.evalD(evalEnv), EPS);
+    }
+  }
+
   @Test
   void testEvalD_withPixelGC() throws ParseException {
     Product product =         new DummyProductBuilder().size(Size.SMALL).gc(GC.PER_PIXEL).create();
@@ -118,6 +149,98 @@ class MapPosSymbolTest {
     assertEquals(21.718999, yTerm.evalD(evalEnv), EPS);
   }
 
+  @Test
+  void testEvalD_withRasterSymbols() throws Exception {
+    Product product = new Product("test", "test", 10, 10);
+    product.setSceneGeoCoding(new CrsGeoCoding(DefaultGeographicCRS.WGS84, 10, 10, 0.0, 0.0, 1.0, 1.0));
+    Band lowRes = new Band("low", ProductData.TYPE_FLOAT32, 5, 5);
+    lowRes.setGeoCoding(new CrsGeoCoding(DefaultGeographicCRS.WGS84, 5, 5, 0.0, 0.0, 2.0, 2.0));
+    product.addBand(lowRes);
+    Term xTerm = BandArithmetic.parseExpression("low.mapx", new Product[]{product}, 0);
+    Term yTerm = BandArithmetic.parseExpression("low.mapy", new Product[]{product}, 0);
+    Term latTerm = BandArithmetic.parseExpression("low.lat", new Product[]{product}, 0);
+    Term lonTerm = BandArithmetic.parseExpression("low.lon", new Product[]{product}, 0);
+    Dimension size = lowRes.getRasterSize();
+
+    RasterDataEvalEnv evalEnv = new RasterDataEvalEnv(0, 0, size.width, size.height);
+    evalEnv.setElemIndex(toElemIndex(1, 2, size));
+    assertEquals(2.0, xTerm.evalD(evalEnv), EPS);
+    assertEquals(-4.0, yTerm.evalD(evalEnv), EPS);
+    assertEquals(-4.0, latTerm.evalD(evalEnv), EPS);
+    assertEquals(2.0, lonTerm.evalD(evalEnv), EPS);
+
+    evalEnv.setElemIndex(toElemIndex(4, 4, size));
+    assertEquals(8.0, xTerm.evalD(evalEnv), EPS);
+    assertEquals(-8.0, yTerm.evalD(evalEnv), EPS);
+  }
+
+  @Test
+  void testEvalD_affineTransformMatchesGeoCoding() throws Exception {
+    Product product = new Product("test", "test", 10, 10);
+    product.setSceneGeoCoding(new CrsGeoCoding(DefaultGeographicCRS.WGS84, 10, 10, 10.0, 50.0, 0.1, 0.2));
+    Band band = product.addBand("b", ProductData.TYPE_FLOAT32);
+    assertMatchesGeoCoding(product, band, new RasterDataEvalEnv(0, 0, 10, 10), 1);
+  }
+
+  @Test
+  void testEvalD_transformedRowMatchesGeoCoding() throws Exception {
+    // the transformation from UTM to geographic coordinates is not affine
+    Product product = new Product("test", "test", 10, 10);
+    product.setSceneGeoCoding(new CrsGeoCoding(CRS.parseWKT(TestUtils.UTM_32N_WKT), 10, 10, 500000.0, 5000000.0,
+        30.0, 30.0));
+    Band band = product.addBand("b", ProductData.TYPE_FLOAT32);
+    assertMatchesGeoCoding(product, band, new RasterDataEvalEnv(0, 0, 10, 10), 1);
+  }
+
+  @Test
+  void testEvalD_transformedRowMatchesGeoCoding_withTieGC() throws Exception {
+    Product product = new DummyProductBuilder().size(Size.SMALL).gc(GC.TIE_POINTS).create();
+    Band band = product.getBandAt(0);
+    Dimension size = band.getRasterSize();
+    assertMatchesGeoCoding(product, band, new RasterDataEvalEnv(0, 0, size.width, size.height), 1);
+  }
+
+  @Test
+  void testEvalD_transformedRowAtLowerLevel() throws Exception {
+    Product product = new Product("test", "test", 20, 20);
+    product.setSceneGeoCoding(new CrsGeoCoding(CRS.parseWKT(TestUtils.UTM_32N_WKT), 20, 20, 500000.0, 5000000.0,
+        30.0, 30.0));
+    Band band = product.addBand("b", ProductData.TYPE_FLOAT32);
+    band.setData(ProductData.createInstance(new float[20 * 20]));
+    TestUtils.setLevelCount(band, 2);
+    // only every second pixel is evaluated at level 1
+    assertMatchesGeoCoding(product, band, TestUtils.createLevelEnv(band, 1, new Rectangle(0, 0, 10, 10)), 2);
+  }
+
+  // compares the map and geographic coordinates with the transforms of the geocoding for the centres of the pixels
+  private static void assertMatchesGeoCoding(Product product, Band band, RasterDataEvalEnv evalEnv, int scale)
+      throws Exception {
+    Product[] products = {product};
+    Term mapXTerm = BandArithmetic.parseExpression("MAPX", products, 0);
+    Term mapYTerm = BandArithmetic.parseExpression("MAPY", products, 0);
+    Term rasterMapXTerm = BandArithmetic.parseExpression(band.getName() + ".mapx", products, 0);
+    Term rasterMapYTerm = BandArithmetic.parseExpression(band.getName() + ".mapy", products, 0);
+    Term latTerm = BandArithmetic.parseExpression(band.getName() + ".lat", products, 0);
+    Term lonTerm = BandArithmetic.parseExpression(band.getName() + ".lon", products, 0);
+    GeoCoding geoCoding = band.getGeoCoding();
+    MathTransform imageToMap = geoCoding.getImageToMapTransform();
+
+    int numPixels = evalEnv.getRegionWidth() * evalEnv.getRegionHeight();
+    for (int elemIndex = 0; elemIndex < numPixels; elemIndex += 3) {
+      evalEnv.setElemIndex(elemIndex);
+      int x = (evalEnv.getOffsetX() + elemIndex % evalEnv.getRegionWidth()) * scale;
+      int y = (evalEnv.getOffsetY() + elemIndex / evalEnv.getRegionWidth()) * scale;
+      DirectPosition mapPos = imageToMap.transform(new DirectPosition2D(x + 0.5, y + 0.5), null);
+      GeoPos geoPos = geoCoding.getGeoPos(new PixelPos(x + 0.5, y + 0.5), null);
+      assertEquals(mapPos.getOrdinate(0), mapXTerm.evalD(evalEnv), EPS);
+      assertEquals(mapPos.getOrdinate(1), mapYTerm.evalD(evalEnv), EPS);
+      assertEquals(mapPos.getOrdinate(0), rasterMapXTerm.evalD(evalEnv), EPS);
+      assertEquals(mapPos.getOrdinate(1), rasterMapYTerm.evalD(evalEnv), EPS);
+      assertEquals(geoPos.lat, latTerm.evalD(evalEnv), EPS);
+      assertEquals(geoPos.lon, lonTerm.evalD(evalEnv), EPS);
+    }
+  }
+
   private static int toElemIndex(int x, int y, Dimension size) {
     return y * size.width + x;
   }
@@ -0,0 +1,127 @@
+/*-
+ * ========================LICENSE_START=================================
+ * EOMTBX - EOMasters Toolbox Basic for SNAP
+ * -> https://www.eomasters.org/sw/EOMTBX
+ * ======================================================================
+ * Copyright (C) 2023 - 2025 Marco Peters
+ * ======================================================================
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * -> http://www.gnu.org/licenses/gpl-3.0.html
+ * =========================LICENSE_END==================================
+ */
+
+package org.eomasters.eomtbx.bandmathsext;
+
+import static org.eomasters.eomtbx.TestUtils.toElemIndex;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Color;
+import org.eomasters.eomtbx.TestUtils;
+import org.esa.snap.core.datamodel.Mask;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.dataop.barithm.BandArithmetic;
+import org.esa.snap.core.dataop.barithm.RasterDataEvalEnv;
+import org.esa.snap.core.jexp.EvalException;
+import org.esa.snap.core.jexp.ParseException;
+import org.esa.snap.core.jexp.Term;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class MorphologyFunctionsTest {
+
+  private static Product product;
+  private RasterDataEvalEnv evalEnv;
+
+  @BeforeEach
+  void beforeEach() {
+    product = TestUtils.createProduct();
+    product.addMask(Mask.BandMathsType.create("corner", "", 10, 10, "X > 7.5 && Y > 7.5", Color.RED, 0.5));
+    product.addMask(Mask.BandMathsType.create("gap", "", 10, 10, "X < 3 || X > 6", Color.RED, 0.5));
+    evalEnv = new RasterDataEvalEnv(0, 0, product.getSceneRasterWidth(), product.getSceneRasterHeight());
+  }
+
+  @Test
+  void testDilate() throws ParseException {
+    Term term = BandArithmetic.parseExpression("dilate(corner, 1)", new Product[]{product}, 0);
+
+    assertTrue(evalB(term, 7, 7));
+    assertTrue(evalB(term, 9, 7));
+    assertFalse(evalB(term, 6, 6));
+    assertFalse(evalB(term, 9, 6));
+  }
+
+  @Test
+  void testErode_outsideOfRasterIsIgnored() throws ParseException {
+    Term term = BandArithmetic.parseExpression("erode(corner, 1)", new Product[]{product}, 0);
+
+    assertTrue(evalB(term, 9, 9));
+    assertFalse(evalB(term, 8, 8));
+    assertFalse(evalB(term, 9, 8));
+  }
+
+  @Test
+  void testOpen() throws ParseException {
+    Term term = BandArithmetic.parseExpression("open(corner, 1)", new Product[]{product}, 0);
+
+    assertTrue(evalB(term, 8, 8));
+    assertTrue(evalB(term, 9, 9));
+    assertFalse(evalB(term, 7, 7));
+  }
+
+  @Test
+  void testClose() throws ParseException {
+    Term term = BandArithmetic.parseExpression("close(gap, 2)", new Product[]{product}, 0);
+
+    for (int x = 0; x < 10; x++) {
+      assertTrue(evalB(term, x, 5));
+    }
+    Term smallTerm = BandArithmetic.parseExpression("close(gap, 1)", new Product[]{product}, 0);
+    assertFalse(evalB(smallTerm, 4, 5));
+  }
+
+  @Test
+  void testBand_invalidPixelsAreNotSet() throws ParseException {
+    Term term = BandArithmetic.parseExpression("erode(B1, 1)", new Product[]{product}, 0);
+
+    assertTrue(evalB(term, 2, 2));
+    assertFalse(evalB(term, 4, 2)); // next to invalid column 5
+    assertFalse(evalB(term, 1, 2)); // next to NaN column 0
+  }
+
+  @Test
+  void testUsedAsNumber() throws ParseException {
+    Term term = BandArithmetic.parseExpression("dilate(corner, 1) * 2", new Product[]{product}, 0);
+
+    evalEnv.setElemIndex(toElemIndex(7, 7));
+    assertEquals(2.0, term.evalD(evalEnv), 1.0e-8);
+    evalEnv.setElemIndex(toElemIndex(0, 0));
+    assertEquals(0.0, term.evalD(evalEnv), 1.0e-8);
+  }
+
+  @Test
+  void testInvalidArguments() throws ParseException {
+    Term radiusTerm = BandArithmetic.parseExpression("dilate(corner, 0)", new Product[]{product}, 0);
+    assertThrows(EvalException.class, () -> radiusTerm.evalB(evalEnv));
+    Term exprTerm = BandArithmetic.parseExpression("erode(B1 + 1, 1)", new Product[]{product}, 0);
+    assertThrows(EvalException.class, () -> exprTerm.evalB(evalEnv));
+  }
+
+  private boolean evalB(Term term, int x, int y) {
+    evalEnv.setElemIndex(toElemIndex(x, y));
+    return term.evalB(evalEnv);
+  }
+}
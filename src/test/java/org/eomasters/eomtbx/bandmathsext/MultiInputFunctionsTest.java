@@ -25,6 +25,7 @@ package org.eomasters.eomtbx.bandmathsext;
 
 import static org.eomasters.eomtbx.TestUtils.toElemIndex;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import java.awt.image.Raster;
 import org.eomasters.eomtbx.TestUtils;
@@ -33,6 +34,7 @@ import org.esa.snap.core.datamodel.ProductData;
 import org.esa.snap.core.dataop.barithm.BandArithmetic;
 import org.esa.snap.core.dataop.barithm.RasterDataEvalEnv;
 import org.esa.snap.core.dataop.barithm.RasterDataSymbol;
+import org.esa.snap.core.jexp.EvalException;
 import org.esa.snap.core.jexp.ParseException;
 import org.esa.snap.core.jexp.Term;
 import org.junit.jupiter.api.BeforeEach;
@@ -85,6 +87,19 @@ class MultiInputFunctionsTest {
     assertEquals(1.4, term.evalD(evalEnv), 1e-8); // B1.raw = 14 scaled = 1.4
   }
 
+  @Test
+  void testMin_usedInTwoExpressions() throws ParseException {
+    Term term1 = BandArithmetic.parseExpression("minOf(B1, 100)", new Product[]{product}, 0);
+    Term term2 = BandArithmetic.parseExpression("minOf(B2, 100)", new Product[]{product}, 0);
+
+    fillRasterSymbols(term1, evalEnv);
+    fillRasterSymbols(term2, evalEnv);
+    evalEnv.setElemIndex(toElemIndex(8, 4)); // both valid
+    assertEquals(48.0, term1.evalD(evalEnv));
+    assertEquals(96.0, term2.evalD(evalEnv));
+    assertEquals(48.0, term1.evalD(evalEnv));
+  }
+
   @Test
   void testMinIndex_withBandsOnly() throws ParseException {
     Term term = BandArithmetic.parseExpression("indexOfMin(B1, B2)", new Product[]{product}, 0);
@@ -238,6 +253,114 @@ class MultiInputFunctionsTest {
     assertEquals(5.9, term.evalD(evalEnv), 1e-8); // (6.8 + 5) / 2 = 5.9
   }
 
+  @Test
+  void testMean_compensatedSum() throws ParseException {
+    Term term = BandArithmetic.parseExpression("meanOf(1.0E16, 1, 1, 1, 1, -1.0E16)", new Product[]{product}, 0);
+
+    evalEnv.setElemIndex(toElemIndex(0, 0)); // a plain sum loses the ones -> 0 / 6
+    assertEquals(4.0 / 6.0, term.evalD(evalEnv), 1e-8);
+  }
+
+  @Test
+  void testMedian_withBandsAndValues() throws ParseException {
+    Term term = BandArithmetic.parseExpression("medianOf(B1, 30, B2, 86)", new Product[]{product}, 0);
+
+    fillRasterSymbols(term, evalEnv);
+    evalEnv.setElemIndex(toElemIndex(0, 0)); // Both bands are nan
+    assertEquals(58.0, term.evalD(evalEnv), 1e-8);
+    evalEnv.setElemIndex(toElemIndex(4, 4)); // B2 valid
+    assertEquals(86.0, term.evalD(evalEnv), 1e-8);
+    evalEnv.setElemIndex(toElemIndex(8, 4)); // both valid
+    assertEquals(67.0, term.evalD(evalEnv), 1e-8);
+  }
+
+  @Test
+  void testMedian_nested() throws ParseException {
+    Term term = BandArithmetic.parseExpression("medianOf(medianOf(1, 2, 3), 10, 20)", new Product[]{product}, 0);
+
+    evalEnv.setElemIndex(toElemIndex(0, 0));
+    assertEquals(10.0, term.evalD(evalEnv), 1e-8);
+  }
+
+  @Test
+  void testPercentile_withBandsAndValues() throws ParseException {
+    Term term = BandArithmetic.parseExpression("percentileOf(25, B1, 30, B2, 86)", new Product[]{product}, 0);
+
+    fillRasterSymbols(term, evalEnv);
+    evalEnv.setElemIndex(toElemIndex(8, 4)); // both valid
+    assertEquals(43.5, term.evalD(evalEnv), 1e-8);
+  }
+
+  @Test
+  void testPercentile_invalidPercentile() throws ParseException {
+    Term term = BandArithmetic.parseExpression("percentileOf(101, B1, B2)", new Product[]{product}, 0);
+
+    fillRasterSymbols(term, evalEnv);
+    evalEnv.setElemIndex(toElemIndex(8, 4));
+    assertThrows(EvalException.class, () -> term.evalD(evalEnv));
+  }
+
+  @Test
+  void testStd_withBandsOnly() throws ParseException {
+    Term term = BandArithmetic.parseExpression("stdOf(B1, B2)", new Product[]{product}, 0);
+
+    fillRasterSymbols(term, evalEnv);
+    evalEnv.setElemIndex(toElemIndex(0, 0)); // Both bands are nan
+    assertEquals(Double.NaN, term.evalD(evalEnv));
+    evalEnv.setElemIndex(toElemIndex(4, 4)); // B2 valid
+    assertEquals(0.0, term.evalD(evalEnv), 1e-8);
+    evalEnv.setElemIndex(toElemIndex(8, 4)); // both valid
+    assertEquals(24.0, term.evalD(evalEnv), 1e-8);
+  }
+
+  @Test
+  void testSum_withBandsAndValues() throws ParseException {
+    Term term = BandArithmetic.parseExpression("sumOf(B1, 30, B2)", new Product[]{product}, 0);
+
+    fillRasterSymbols(term, evalEnv);
+    evalEnv.setElemIndex(toElemIndex(0, 0)); // Both bands are nan
+    assertEquals(30.0, term.evalD(evalEnv), 1e-8);
+    evalEnv.setElemIndex(toElemIndex(4, 4)); // B2 valid
+    assertEquals(118.0, term.evalD(evalEnv), 1e-8);
+    evalEnv.setElemIndex(toElemIndex(8, 4)); // both valid
+    assertEquals(174.0, term.evalD(evalEnv), 1e-8);
+  }
+
+  @Test
+  void testCountValid_withBandsAndValues() throws ParseException {
+    Term term = BandArithmetic.parseExpression("countValidOf(B1, 30, B2, 86)", new Product[]{product}, 0);
+
+    fillRasterSymbols(term, evalEnv);
+    evalEnv.setElemIndex(toElemIndex(0, 0)); // Both bands are nan
+    assertEquals(2, term.evalI(evalEnv));
+    evalEnv.setElemIndex(toElemIndex(4, 4)); // B2 valid
+    assertEquals(3, term.evalI(evalEnv));
+    evalEnv.setElemIndex(toElemIndex(8, 4)); // both valid
+    assertEquals(4, term.evalI(evalEnv));
+  }
+
+  @Test
+  void testFirstValid_withBandsAndValues() throws ParseException {
+    Term term = BandArithmetic.parseExpression("firstValidOf(B1, B2, 30)", new Product[]{product}, 0);
+
+    fillRasterSymbols(term, evalEnv);
+    evalEnv.setElemIndex(toElemIndex(0, 0)); // Both bands are nan
+    assertEquals(30.0, term.evalD(evalEnv), 1e-8);
+    evalEnv.setElemIndex(toElemIndex(4, 4)); // B2 valid
+    assertEquals(88.0, term.evalD(evalEnv), 1e-8);
+    evalEnv.setElemIndex(toElemIndex(8, 4)); // both valid
+    assertEquals(48.0, term.evalD(evalEnv), 1e-8);
+  }
+
+  @Test
+  void testFirstValid_noneValid() throws ParseException {
+    Term term = BandArithmetic.parseExpression("firstValidOf(B1, B2)", new Product[]{product}, 0);
+
+    fillRasterSymbols(term, evalEnv);
+    evalEnv.setElemIndex(toElemIndex(0, 0)); // Both bands are nan
+    assertEquals(Double.NaN, term.evalD(evalEnv));
+  }
+
   private void fillRasterSymbols(Term term, RasterDataEvalEnv evalEnv) {
     RasterDataSymbol[] refRasterDataSymbols = BandArithmetic.getRefRasterDataSymbols(term);
     for (RasterDataSymbol rasterDataSymbol : refRasterDataSymbols) {
@@ -0,0 +1,95 @@
+/*-
+ * ========================LICENSE_START=================================
+ * EOMTBX - EOMasters Toolbox Basic for SNAP
+ * -> https://www.eomasters.org/sw/EOMTBX
+ * ======================================================================
+ * Copyright (C) 2023 - 2025 Marco Peters
+ * ======================================================================
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * -> http://www.gnu.org/licenses/gpl-3.0.html
+ * =========================LICENSE_END==================================
+ */
+
+package org.eomasters.eomtbx.bandmathsext;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.awt.Rectangle;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class PackedBitmapTest {
+
+  @Test
+  void testDilate_equalsBruteForce() {
+    assertEqualsBruteForce(false, 100, 30, 2, new Rectangle(0, 0, 100, 30));
+    assertEqualsBruteForce(false, 150, 40, 70, new Rectangle(0, 0, 150, 40));
+    assertEqualsBruteForce(false, 130, 50, 9, new Rectangle(5, 3, 110, 40));
+  }
+
+  @Test
+  void testErode_equalsBruteForce() {
+    assertEqualsBruteForce(true, 100, 30, 2, new Rectangle(0, 0, 100, 30));
+    assertEqualsBruteForce(true, 150, 40, 70, new Rectangle(0, 0, 150, 40));
+    assertEqualsBruteForce(true, 130, 50, 9, new Rectangle(5, 3, 110, 40));
+  }
+
+  @Test
+  void testSet_emptyBitmap() {
+    PackedBitmap bitmap = new PackedBitmap(70, 3);
+    bitmap.set(69, 1);
+    assertEquals(true, bitmap.get(69, 1));
+    assertEquals(false, bitmap.get(68, 1));
+
+    // the whole bitmap lies within the image, also the pixels of the last word of a row
+    bitmap.erode(1);
+    assertEquals(false, bitmap.get(69, 1));
+    bitmap.set(69, 1);
+    bitmap.dilate(1);
+    assertEquals(true, bitmap.get(68, 0));
+    assertEquals(true, bitmap.get(69, 2));
+    assertEquals(false, bitmap.get(67, 1));
+  }
+
+  private static void assertEqualsBruteForce(boolean erode, int width, int height, int radius, Rectangle imageArea) {
+    Random random = new Random(42);
+    boolean[] pixels = new boolean[width * height];
+    // sparse pixels for the dilation, dense pixels for the erosion
+    double density = erode ? 0.995 : 0.005;
+    for (int i = 0; i < pixels.length; i++) {
+      pixels[i] = random.nextDouble() < density;
+    }
+
+    PackedBitmap bitmap = new PackedBitmap(pixels, width, height, imageArea);
+    if (erode) {
+      bitmap.erode(radius);
+    } else {
+      bitmap.dilate(radius);
+    }
+
+    for (int y = imageArea.y; y < imageArea.y + imageArea.height; y++) {
+      for (int x = imageArea.x; x < imageArea.x + imageArea.width; x++) {
+        boolean expected = erode;
+        for (int j = y - radius; j <= y + radius; j++) {
+          for (int i = x - radius; i <= x + radius; i++) {
+            if (imageArea.contains(i, j)) {
+              expected = erode ? expected && pixels[j * width + i] : expected || pixels[j * width + i];
+            }
+          }
+        }
+        assertEquals(expected, bitmap.get(x, y), String.format("Pixel %d,%d", x, y));
+      }
+    }
+  }
+}
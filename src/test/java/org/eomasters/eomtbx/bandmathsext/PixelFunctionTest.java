@@ -0,0 +1,92 @@
+/*-
+ * ========================LICENSE_START=================================
+ * EOMTBX - EOMasters Toolbox Basic for SNAP
+ * -> https://www.eomasters.org/sw/EOMTBX
+ * ======================================================================
+ * Copyright (C) 2023 - 2025 Marco Peters
+ * ======================================================================
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * -> http://www.gnu.org/licenses/gpl-3.0.html
+ * =========================LICENSE_END==================================
+ */
+
+package org.eomasters.eomtbx.bandmathsext;
+
+import static org.eomasters.eomtbx.TestUtils.toElemIndex;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.eomasters.eomtbx.TestUtils;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.dataop.barithm.BandArithmetic;
+import org.esa.snap.core.dataop.barithm.RasterDataEvalEnv;
+import org.esa.snap.core.jexp.EvalException;
+import org.esa.snap.core.jexp.ParseException;
+import org.esa.snap.core.jexp.Term;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class PixelFunctionTest {
+
+  private static Product product;
+  private RasterDataEvalEnv evalEnv;
+
+  @BeforeEach
+  void beforeEach() {
+    product = TestUtils.createProduct();
+    evalEnv = new RasterDataEvalEnv(0, 0, product.getSceneRasterWidth(), product.getSceneRasterHeight());
+  }
+
+  @Test
+  void testNeighbours() throws ParseException {
+    Term rightTerm = BandArithmetic.parseExpression("pixel(B1, 1, 0)", new Product[]{product}, 0);
+    Term upperLeftTerm = BandArithmetic.parseExpression("pixel(B1, -1, -1)", new Product[]{product}, 0);
+    Term belowTerm = BandArithmetic.parseExpression("pixel(B2, 0, 2)", new Product[]{product}, 0);
+
+    evalEnv.setElemIndex(toElemIndex(2, 2));
+    assertEquals(23.0, rightTerm.evalD(evalEnv), 1.0e-8);
+    assertEquals(11.0, upperLeftTerm.evalD(evalEnv), 1.0e-8);
+    evalEnv.setElemIndex(toElemIndex(3, 3));
+    assertEquals(106.0, belowTerm.evalD(evalEnv), 1.0e-8);
+  }
+
+  @Test
+  void testInvalidOrOutside_isNaN() throws ParseException {
+    Term term = BandArithmetic.parseExpression("pixel(B1, 1, 0)", new Product[]{product}, 0);
+
+    evalEnv.setElemIndex(toElemIndex(4, 1)); // right neighbour is invalid
+    assertEquals(Double.NaN, term.evalD(evalEnv));
+    evalEnv.setElemIndex(toElemIndex(9, 1)); // right neighbour is outside
+    assertEquals(Double.NaN, term.evalD(evalEnv));
+  }
+
+  @Test
+  void testGradient() throws ParseException {
+    Term term = BandArithmetic.parseExpression("(pixel(B1, 1, 0) - pixel(B1, -1, 0)) / 2", new Product[]{product},
+        0);
+
+    evalEnv.setElemIndex(toElemIndex(2, 2));
+    assertEquals(1.0, term.evalD(evalEnv), 1.0e-8);
+    evalEnv.setElemIndex(toElemIndex(7, 3));
+    assertEquals(1.0, term.evalD(evalEnv), 1.0e-8);
+  }
+
+  @Test
+  void testInvalidArguments() throws ParseException {
+    Term offsetTerm = BandArithmetic.parseExpression("pixel(B1, 251, 0)", new Product[]{product}, 0);
+    assertThrows(EvalException.class, () -> offsetTerm.evalD(evalEnv));
+    Term exprTerm = BandArithmetic.parseExpression("pixel(B1 + 1, 1, 0)", new Product[]{product}, 0);
+    assertThrows(EvalException.class, () -> exprTerm.evalD(evalEnv));
+  }
+}
@@ -0,0 +1,68 @@
+/*-
+ * ========================LICENSE_START=================================
+ * EOMTBX - EOMasters Toolbox Basic for SNAP
+ * -> https://www.eomasters.org/sw/EOMTBX
+ * ======================================================================
+ * Copyright (C) 2023 - 2025 Marco Peters
+ * ======================================================================
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * -> http://www.gnu.org/licenses/gpl-3.0.html
+ * =========================LICENSE_END==================================
+ */
+
+
+package org.eomasters.eomtbx.bandmathsext;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.eomasters.eomtbx.TestUtils;
+import org.esa.snap.core.datamodel.Band;
+import org.esa.snap.core.datamodel.Product;
+import org.junit.jupiter.api.Test;
+
+class RasterChangeTrackerTest {
+
+  @Test
+  void testVersionIsSharedWithinProduct() {
+    Product product = TestUtils.createProduct();
+    assertSame(RasterChangeTracker.getVersion(product.getBand("B1")),
+        RasterChangeTracker.getVersion(product.getBand("B2")));
+  }
+
+  @Test
+  void testVersionChangesOnDataRelevantChanges() {
+    Product product = TestUtils.createProduct();
+    Band b1 = product.getBand("B1");
+    AtomicInteger version = RasterChangeTracker.getVersion(b1);
+
+    int before = version.get();
+    b1.setDescription("only a description");
+    assertEquals(before, version.get());
+
+    b1.setValidPixelExpression("B1.raw > 10");
+    assertNotEquals(before, version.get());
+
+    before = version.get();
+    product.getBand("B2").setNoDataValue(3);
+    assertNotEquals(before, version.get());
+
+    before = version.get();
+    b1.setScalingFactor(0.5);
+    assertNotEquals(before, version.get());
+  }
+
+}
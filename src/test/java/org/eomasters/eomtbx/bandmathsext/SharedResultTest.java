@@ -0,0 +1,57 @@
+/*-
+ * ========================LICENSE_START=================================
+ * EOMTBX - EOMasters Toolbox Basic for SNAP
+ * -> https://www.eomasters.org/sw/EOMTBX
+ * ======================================================================
+ * Copyright (C) 2023 - 2025 Marco Peters
+ * ======================================================================
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * -> http://www.gnu.org/licenses/gpl-3.0.html
+ * =========================LICENSE_END==================================
+ */
+
+package org.eomasters.eomtbx.bandmathsext;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class SharedResultTest {
+
+  @Test
+  void testGet_computedOnce() {
+    AtomicInteger calls = new AtomicInteger();
+    SharedResult<Integer> result = new SharedResult<>(calls::incrementAndGet);
+    assertEquals(1, result.get());
+    assertEquals(1, result.get());
+    assertEquals(1, calls.get());
+  }
+
+  @Test
+  void testGet_retriedAfterFailure() {
+    AtomicInteger calls = new AtomicInteger();
+    SharedResult<Integer> result = new SharedResult<>(() -> {
+      if (calls.incrementAndGet() == 1) {
+        throw new IllegalStateException("temporary failure");
+      }
+      return calls.get();
+    });
+    assertThrows(IllegalStateException.class, result::get);
+    assertEquals(2, result.get());
+    assertEquals(2, result.get());
+    assertEquals(2, calls.get());
+  }
+}
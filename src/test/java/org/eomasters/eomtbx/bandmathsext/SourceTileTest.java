@@ -0,0 +1,75 @@
+/*-
+ * ========================LICENSE_START=================================
+ * EOMTBX - EOMasters Toolbox Basic for SNAP
+ * -> https://www.eomasters.org/sw/EOMTBX
+ * ======================================================================
+ * Copyright (C) 2023 - 2025 Marco Peters
+ * ======================================================================
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * -> http://www.gnu.org/licenses/gpl-3.0.html
+ * =========================LICENSE_END==================================
+ */
+
+
+package org.eomasters.eomtbx.bandmathsext;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.awt.Rectangle;
+import org.eomasters.eomtbx.TestUtils;
+import org.esa.snap.core.datamodel.Product;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class SourceTileTest {
+
+  private static Product product;
+
+  @BeforeEach
+  void beforeEach() {
+    product = TestUtils.createProduct();
+  }
+
+  @Test
+  void testRead_withHalo() {
+    SourceTile tile = SourceTile.read(product.getBand("B1"), new Rectangle(0, 0, 4, 4), 2);
+    assertEquals(-2, tile.getX());
+    assertEquals(-2, tile.getY());
+    assertEquals(8, tile.getWidth());
+    assertEquals(8, tile.getHeight());
+    assertEquals(2, tile.getHalo());
+
+    assertEquals(Double.NaN, tile.getSample(-2, -2)); // outside
+    assertEquals(Double.NaN, tile.getSample(0, 0)); // NaN
+    assertEquals(1, tile.getSample(1, 0));
+    assertEquals(Double.NaN, tile.getSample(5, 0)); // invalid
+    assertEquals(54, tile.getSample(4, 5));
+  }
+
+  @Test
+  void testRead_atLowerRightBorder() {
+    SourceTile tile = SourceTile.read(product.getBand("B1"), new Rectangle(8, 8, 2, 2), 1);
+    assertEquals(77, tile.getSample(7, 7));
+    assertEquals(88, tile.getSample(8, 8));
+    assertEquals(Double.NaN, tile.getSample(9, 9)); // no-data
+    assertEquals(Double.NaN, tile.getSample(10, 10)); // outside
+  }
+
+  @Test
+  void testRead_withScaling() {
+    product.getBand("B1").setScalingFactor(0.1);
+    SourceTile tile = SourceTile.read(product.getBand("B1"), new Rectangle(0, 0, 10, 10), 0);
+    assertEquals(1.4, tile.getSample(4, 1), 1e-8);
+  }
+}
@@ -0,0 +1,99 @@
+/*-
+ * ========================LICENSE_START=================================
+ * EOMTBX - EOMasters Toolbox Basic for SNAP
+ * -> https://www.eomasters.org/sw/EOMTBX
+ * ======================================================================
+ * Copyright (C) 2023 - 2025 Marco Peters
+ * ======================================================================
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * -> http://www.gnu.org/licenses/gpl-3.0.html
+ * =========================LICENSE_END==================================
+ */
+
+package org.eomasters.eomtbx.bandmathsext;
+
+import static org.eomasters.eomtbx.TestUtils.toElemIndex;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.eomasters.eomtbx.TestUtils;
+import org.esa.snap.core.datamodel.Band;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.dataop.barithm.BandArithmetic;
+import org.esa.snap.core.dataop.barithm.RasterDataEvalEnv;
+import org.esa.snap.core.jexp.EvalException;
+import org.esa.snap.core.jexp.ParseException;
+import org.esa.snap.core.jexp.Term;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class SpectralIndexFunctionTest {
+
+  private static Product product;
+  private RasterDataEvalEnv evalEnv;
+
+  @BeforeEach
+  void beforeEach() {
+    product = TestUtils.createProduct();
+    product.getBand("B1").setSpectralWavelength(665);
+    product.getBand("B2").setSpectralWavelength(842);
+    evalEnv = new RasterDataEvalEnv(0, 0, product.getSceneRasterWidth(), product.getSceneRasterHeight());
+  }
+
+  @Test
+  void testNdvi_bandsSelectedByWavelength() throws ParseException {
+    Band other = product.addBand("B3", "B2 * 0");
+    other.setSpectralWavelength(865);
+    Term term = BandArithmetic.parseExpression("ndvi()", new Product[]{product}, 0);
+
+    evalEnv.setElemIndex(toElemIndex(1, 1)); // red = 11, NIR = 22
+    assertEquals(1.0 / 3, term.evalD(evalEnv), 1.0e-8);
+    evalEnv.setElemIndex(toElemIndex(5, 1)); // invalid
+    assertEquals(Double.NaN, term.evalD(evalEnv));
+  }
+
+  @Test
+  void testNdvi_explicitBands() throws ParseException {
+    Term term = BandArithmetic.parseExpression("ndvi(B2, B1)", new Product[]{product}, 0);
+
+    evalEnv.setElemIndex(toElemIndex(1, 1));
+    assertEquals(-1.0 / 3, term.evalD(evalEnv), 1.0e-8);
+  }
+
+  @Test
+  void testSaviAndEvi() throws ParseException {
+    Term saviTerm = BandArithmetic.parseExpression("savi()", new Product[]{product}, 0);
+    Term eviTerm = BandArithmetic.parseExpression("evi(B1, B1, B2)", new Product[]{product}, 0);
+
+    evalEnv.setElemIndex(toElemIndex(1, 1));
+    assertEquals(1.5 * 11 / 33.5, saviTerm.evalD(evalEnv), 1.0e-8);
+    assertEquals(2.5 * 11 / (22 + 6 * 11 - 7.5 * 11 + 1), eviTerm.evalD(evalEnv), 1.0e-8);
+  }
+
+  @Test
+  void testMissingBand() throws ParseException {
+    Term term = BandArithmetic.parseExpression("ndwi()", new Product[]{product}, 0);
+
+    evalEnv.setElemIndex(toElemIndex(1, 1));
+    assertThrows(EvalException.class, () -> term.evalD(evalEnv));
+  }
+
+  @Test
+  void testInvalidArguments() throws ParseException {
+    Term countTerm = BandArithmetic.parseExpression("ndvi(B1)", new Product[]{product}, 0);
+    assertThrows(EvalException.class, () -> countTerm.evalD(evalEnv));
+    Term exprTerm = BandArithmetic.parseExpression("ndvi(B1, B2 * 2)", new Product[]{product}, 0);
+    assertThrows(EvalException.class, () -> exprTerm.evalD(evalEnv));
+  }
+}
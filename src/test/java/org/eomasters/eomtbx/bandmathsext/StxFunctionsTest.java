@@ -27,8 +27,10 @@ import static org.eomasters.eomtbx.TestUtils.toElemIndex;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
+import java.awt.Color;
 import java.awt.image.Raster;
 import org.eomasters.eomtbx.TestUtils;
+import org.esa.snap.core.datamodel.Mask;
 import org.esa.snap.core.datamodel.Product;
 import org.esa.snap.core.datamodel.ProductData;
 import org.esa.snap.core.dataop.barithm.BandArithmetic;
@@ -60,10 +62,17 @@ class StxFunctionsTest {
   }
 
   @Test
-  void testException_moreThanThreeParameters() {
+  void testException_moreThanFourParameters() {
     // fails already before evaluation
     assertThrows(ArrayIndexOutOfBoundsException.class,
-        () -> BandArithmetic.parseExpression("stx(B1, \"min\", false, true)", new Product[]{product}, 0));
+        () -> BandArithmetic.parseExpression("stx(B1, \"min\", false, true, true)", new Product[]{product}, 0));
+  }
+
+  @Test
+  void testException_fourthParameterWithoutMask() throws ParseException {
+    Term term = BandArithmetic.parseExpression("stx(B1, \"min\", false, true)", new Product[]{product}, 0);
+    evalEnv.setElemIndex(toElemIndex(0, 0));
+    assertThrows(EvalException.class, () -> term.evalD(evalEnv));
   }
 
   @Test
@@ -136,6 +145,71 @@ class StxFunctionsTest {
     assertEquals(product.getBand("B1").getStx().getEquivalentNumberOfLooks(), enl, 1.0e-8);
   }
 
+  @Test
+  void testPercentiles() throws ParseException {
+    Term p2Term = BandArithmetic.parseExpression("stx(B1, \"p2\", true)", new Product[]{product}, 0);
+    Term p50Term = BandArithmetic.parseExpression("stx(B1, \"p50\", true)", new Product[]{product}, 0);
+    Term p100Term = BandArithmetic.parseExpression("stx(B1, \"p100\")", new Product[]{product}, 0);
+    fillRasterSymbols(p2Term, evalEnv);
+    evalEnv.setElemIndex(toElemIndex(0, 0));
+    // the error is bounded by the bin width of the histogram
+    assertEquals(2.0, p2Term.evalD(evalEnv), 1.0e-2);
+    assertEquals(41.0, p50Term.evalD(evalEnv), 1.0e-2);
+    assertEquals(98.0, p100Term.evalD(evalEnv), 1.0e-8);
+  }
+
+  @Test
+  void testIqr() throws ParseException {
+    Term term = BandArithmetic.parseExpression("stx(B1, \"iqr\", true)", new Product[]{product}, 0);
+    fillRasterSymbols(term, evalEnv);
+    evalEnv.setElemIndex(toElemIndex(0, 0));
+    assertEquals(63.0 - 21.0, term.evalD(evalEnv), 2.0e-2);
+  }
+
+  @Test
+  void testRoiMask() throws ParseException {
+    product.addMask(Mask.BandMathsType.create("left", "", 10, 10, "X < 5", Color.RED, 0.5));
+    Term meanTerm = BandArithmetic.parseExpression("stx(B1, \"mean\", left)", new Product[]{product}, 0);
+    Term minTerm = BandArithmetic.parseExpression("stx(B1, \"min\", left)", new Product[]{product}, 0);
+    Term maxTerm = BandArithmetic.parseExpression("stx(B1, \"max\", left)", new Product[]{product}, 0);
+    fillRasterSymbols(meanTerm, evalEnv);
+    evalEnv.setElemIndex(toElemIndex(0, 0));
+    assertEquals(37.16666667, meanTerm.evalD(evalEnv), 1.0e-8);
+    assertEquals(1.0, minTerm.evalD(evalEnv), 1.0e-8);
+    assertEquals(93.0, maxTerm.evalD(evalEnv), 1.0e-8);
+  }
+
+  @Test
+  void testRoiMask_withAccurateFlag() throws ParseException {
+    product.addMask(Mask.BandMathsType.create("left", "", 10, 10, "X < 5", Color.RED, 0.5));
+    Term accurateTerm = BandArithmetic.parseExpression("stx(B1, \"mean\", left, true)", new Product[]{product}, 0);
+    Term fastTerm = BandArithmetic.parseExpression("stx(B1, \"mean\", left, false)", new Product[]{product}, 0);
+    evalEnv.setElemIndex(toElemIndex(0, 0));
+    assertEquals(37.16666667, accurateTerm.evalD(evalEnv), 1.0e-8);
+    // the product is too small for a sub-sampled level
+    assertEquals(37.16666667, fastTerm.evalD(evalEnv), 1.0e-8);
+  }
+
+  @Test
+  void testPixelDependentFunction() throws ParseException {
+    Term term = BandArithmetic.parseExpression("stx(B1, X > 5 ? \"max\" : \"min\", false)",
+        new Product[]{product}, 0);
+    evalEnv.setElemIndex(toElemIndex(0, 0));
+    assertEquals(1.0, term.evalD(evalEnv), 1.0e-8);
+    evalEnv.setElemIndex(toElemIndex(7, 0));
+    assertEquals(98.0, term.evalD(evalEnv), 1.0e-8);
+    evalEnv.setElemIndex(toElemIndex(2, 3));
+    assertEquals(1.0, term.evalD(evalEnv), 1.0e-8);
+  }
+
+  @Test
+  void testException_invalidPercentile()throws ParseException {
+    Term term = BandArithmetic.parseExpression("stx(B1, \"p200\")", new Product[]{product}, 0);
+    fillRasterSymbols(term, evalEnv);
+    evalEnv.setElemIndex(toElemIndex(0, 0));
+    assertThrows(EvalException.class, () -> term.evalD(evalEnv));
+  }
+
   private void fillRasterSymbols(Term term, RasterDataEvalEnv evalEnv) {
     RasterDataSymbol[] refRasterDataSymbols = BandArithmetic.getRefRasterDataSymbols(term);
     for (RasterDataSymbol rasterDataSymbol : refRasterDataSymbols) {
@@ -0,0 +1,104 @@
+/*-
+ * ========================LICENSE_START=================================
+ * EOMTBX - EOMasters Toolbox Basic for SNAP
+ * -> https://www.eomasters.org/sw/EOMTBX
+ * ======================================================================
+ * Copyright (C) 2023 - 2025 Marco Peters
+ * ======================================================================
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * -> http://www.gnu.org/licenses/gpl-3.0.html
+ * =========================LICENSE_END==================================
+ */
+
+package org.eomasters.eomtbx.bandmathsext;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.awt.Rectangle;
+import java.awt.image.Raster;
+import org.eomasters.eomtbx.TestUtils;
+import org.esa.snap.core.datamodel.Band;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.datamodel.ProductData;
+import org.esa.snap.core.dataop.barithm.RasterDataEvalEnv;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class TileCacheTest {
+
+  private Band threeLevels;
+  private Band twoLevels;
+
+  @BeforeEach
+  void beforeEach() {
+    Product product = new Product("test", "test", 20, 20);
+    threeLevels = addBand(product, "threeLevels", 3);
+    twoLevels = addBand(product, "twoLevels", 2);
+  }
+
+  @Test
+  void testScale_fromOffset() {
+    TileCache cache = TileCache.get(TestUtils.createLevelEnv(threeLevels, 1, new Rectangle(2, 1, 3, 4)));
+    assertEquals(2, cache.getScale());
+    assertEquals(new Rectangle(4, 2, 5, 7), cache.getRegion());
+    assertEquals(new Rectangle(2, 1, 3, 4), cache.getLevelRegion());
+  }
+
+  @Test
+  void testScale_singlePixelAtOrigin() {
+    TileCache cache = TileCache.get(TestUtils.createLevelEnv(threeLevels, 2, new Rectangle(0, 0, 1, 1)));
+    assertEquals(4, cache.getScale());
+    assertEquals(new Rectangle(0, 0, 1, 1), cache.getRegion());
+
+    cache = TileCache.get(new RasterDataEvalEnv(0, 0, 1, 1));
+    assertEquals(1, cache.getScale());
+  }
+
+  @Test
+  void testImageLevel() {
+    TileCache cache = TileCache.get(TestUtils.createLevelEnv(threeLevels, 2, new Rectangle(0, 0, 5, 5)));
+    assertEquals(new ImageLevel(2, 1), cache.getImageLevel(threeLevels));
+    // the raster has no level with the scale 4, every second pixel of level 1 is taken
+    assertEquals(new ImageLevel(1, 2), cache.getImageLevel(twoLevels));
+
+    cache = TileCache.get(new RasterDataEvalEnv(0, 0, 20, 20));
+    assertEquals(ImageLevel.FULL_RESOLUTION, cache.getImageLevel(twoLevels));
+  }
+
+  @Test
+  void testSourceTile_missingLevel() {
+    TileCache cache = TileCache.get(TestUtils.createLevelEnv(threeLevels, 2, new Rectangle(0, 0, 5, 5)));
+    SourceTile tile = cache.getSourceTile(twoLevels, 1);
+    Raster level1 = twoLevels.getGeophysicalImage().getImage(1).getData();
+    for (int y = 0; y < 5; y++) {
+      for (int x = 0; x < 5; x++) {
+        assertEquals(level1.getSampleDouble(2 * x, 2 * y, 0), tile.getSample(x, y));
+      }
+    }
+    // outside the image
+    assertEquals(Double.NaN, tile.getSample(5, 0));
+    assertEquals(Double.NaN, tile.getSample(-1, 0));
+  }
+
+  private static Band addBand(Product product, String name, int levelCount) {
+    double[] data = new double[20 * 20];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = i % 20 + 100 * (i / 20);
+    }
+    Band band = product.addBand(name, ProductData.TYPE_FLOAT64);
+    band.setData(ProductData.createInstance(data));
+    TestUtils.setLevelCount(band, levelCount);
+    return band;
+  }
+}
@@ -0,0 +1,67 @@
+/*-
+ * ========================LICENSE_START=================================
+ * EOMTBX - EOMasters Toolbox Basic for SNAP
+ * -> https://www.eomasters.org/sw/EOMTBX
+ * ======================================================================
+ * Copyright (C) 2023 - 2025 Marco Peters
+ * ======================================================================
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * -> http://www.gnu.org/licenses/gpl-3.0.html
+ * =========================LICENSE_END==================================
+ */
+
+package org.eomasters.eomtbx.bandmathsext;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Rectangle;
+import org.eomasters.eomtbx.TestUtils;
+import org.esa.snap.core.datamodel.Band;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.datamodel.ProductData;
+import org.junit.jupiter.api.Test;
+
+class ValidMaskCacheTest {
+
+  @Test
+  void testMaskIsCachedUntilDataChanges() {
+    Product product = TestUtils.createProduct();
+    Band b1 = product.getBand("B1");
+    Rectangle region = new Rectangle(0, 0, 10, 10);
+
+    PackedValidMask validMask = ValidMaskCache.get(b1, region);
+    assertSame(validMask, ValidMaskCache.get(b1, new Rectangle(region)));
+    assertSame(validMask, ValidMaskCache.get(b1, ImageLevel.FULL_RESOLUTION, new Rectangle(region)));
+    assertTrue(validMask.isValid(1));
+    assertFalse(validMask.isValid(5));
+
+    b1.setNoDataValue(1);
+    b1.setNoDataValueUsed(true);
+    PackedValidMask changedMask = ValidMaskCache.get(b1, region);
+    assertNotSame(validMask, changedMask);
+    assertFalse(changedMask.isValid(1));
+    assertFalse(changedMask.isValid(5));
+  }
+
+  @Test
+  void testRasterWithoutValidMask() {
+    Product product = TestUtils.createProduct();
+    Band b3 = product.addBand("B3", ProductData.TYPE_INT8);
+
+    assertSame(PackedValidMask.ALL_VALID, ValidMaskCache.get(b3, new Rectangle(0, 0, 10, 10)));
+  }
+}
@@ -27,8 +27,12 @@ import static org.eomasters.eomtbx.TestUtils.toElemIndex;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
+import java.awt.Rectangle;
+import java.util.Arrays;
 import org.eomasters.eomtbx.TestUtils;
+import org.esa.snap.core.datamodel.Band;
 import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.datamodel.ProductData;
 import org.esa.snap.core.dataop.barithm.BandArithmetic;
 import org.esa.snap.core.dataop.barithm.RasterDataEvalEnv;
 import org.esa.snap.core.jexp.EvalException;
@@ -112,6 +116,26 @@ class WindowFunctionsTest {
 
   }
 
+  @Test
+  void testMinMaxFunction_LargerWindows() throws ParseException {
+    Term minTerm = BandArithmetic.parseExpression("wnd(B1, 5, \"min\")", new Product[]{product}, 0);
+    Term maxTerm = BandArithmetic.parseExpression("wnd(B1, 7, \"max\")", new Product[]{product}, 0);
+
+    RasterDataEvalEnv evalEnv = new RasterDataEvalEnv(0, 0, W, H);
+    evalEnv.setElemIndex(toElemIndex(0, 0));
+    assertEquals(1, minTerm.evalD(evalEnv));
+    assertEquals(33, maxTerm.evalD(evalEnv));
+    evalEnv.setElemIndex(toElemIndex(5, 5));
+    assertEquals(33, minTerm.evalD(evalEnv));
+    assertEquals(88, maxTerm.evalD(evalEnv));
+    evalEnv.setElemIndex(toElemIndex(9, 9));
+    assertEquals(77, minTerm.evalD(evalEnv));
+    assertEquals(98, maxTerm.evalD(evalEnv));
+    evalEnv.setElemIndex(toElemIndex(1, 8));
+    assertEquals(61, minTerm.evalD(evalEnv));
+    assertEquals(93, maxTerm.evalD(evalEnv));
+  }
+
   @Test
   void testSumFunction() throws ParseException {
     Term term = BandArithmetic.parseExpression("wnd(B1, 3, \"sum\")", new Product[]{product}, 0);
@@ -174,6 +198,222 @@ class WindowFunctionsTest {
     assertEquals(Double.NaN, term.evalD(evalEnv));
   }
 
+  @Test
+  void testMedianFunction_LargerWindow() throws ParseException {
+    Term term = BandArithmetic.parseExpression("wnd(B1, 5, \"median\")", new Product[]{product}, 0);
+
+    RasterDataEvalEnv evalEnv = new RasterDataEvalEnv(0, 0, W, H);
+    evalEnv.setElemIndex(toElemIndex(0, 0));
+    assertEquals(11.5, term.evalD(evalEnv));
+    evalEnv.setElemIndex(toElemIndex(5, 5));
+    assertEquals(55, term.evalD(evalEnv));
+    evalEnv.setElemIndex(toElemIndex(9, 9));
+    assertEquals(87.5, term.evalD(evalEnv));
+    evalEnv.setElemIndex(toElemIndex(2, 8));
+    assertEquals(73, term.evalD(evalEnv));
+    evalEnv.setElemIndex(toElemIndex(3, 3));
+    assertEquals(33, term.evalD(evalEnv));
+  }
+
+  @Test
+  void testMedianAndPercentile_WithSignedZeros() throws ParseException {
+    Band b1 = product.getBand("B1");
+    b1.setValidPixelExpression(null); // zero would be invalid otherwise
+    b1.getData().setElemDoubleAt(toElemIndex(1, 1), -0.0);
+    b1.getData().setElemDoubleAt(toElemIndex(2, 1), 0.0);
+    b1.getData().setElemDoubleAt(toElemIndex(3, 1), 0.0);
+    Term medianTerm = BandArithmetic.parseExpression("wnd(B1, 3, \"median\")", new Product[]{product}, 0);
+    Term p50Term = BandArithmetic.parseExpression("wnd(B1, 3, \"p50\")", new Product[]{product}, 0);
+
+    RasterDataEvalEnv evalEnv = new RasterDataEvalEnv(0, 0, W, H);
+    evalEnv.setElemIndex(toElemIndex(2, 2));
+    // 0, 0, 0, 21, 22, 23, 31, 32, 33
+    assertEquals(23, medianTerm.evalD(evalEnv));
+    assertEquals(22, p50Term.evalD(evalEnv), 1e-8);
+  }
+
+  @Test
+  void testLevelWndSize() {
+    assertEquals(7, WindowFunctions.getLevelWndSize(7, 1));
+    // the nearest odd size covering about the same area
+    assertEquals(1, WindowFunctions.getLevelWndSize(3, 2));
+    assertEquals(3, WindowFunctions.getLevelWndSize(5, 2));
+    assertEquals(3, WindowFunctions.getLevelWndSize(7, 2));
+    assertEquals(5, WindowFunctions.getLevelWndSize(9, 2));
+    assertEquals(125, WindowFunctions.getLevelWndSize(501, 4));
+  }
+
+  @Test
+  void testSumAndCount_AtLowerLevel() throws ParseException {
+    Product levelProduct = new Product("level", "test", 20, 20);
+    Band ones = levelProduct.addBand("ones", ProductData.TYPE_FLOAT64);
+    double[] data = new double[20 * 20];
+    Arrays.fill(data, 1.0);
+    ones.setData(ProductData.createInstance(data));
+    TestUtils.setLevelCount(ones, 2);
+    Term sumTerm = BandArithmetic.parseExpression("wnd(ones, 5, \"sum\")", new Product[]{levelProduct}, 0);
+    Term countTerm = BandArithmetic.parseExpression("wnd(ones, 5, \"count\")", new Product[]{levelProduct}, 0);
+    Term meanTerm = BandArithmetic.parseExpression("wnd(ones, 5, \"mean\")", new Product[]{levelProduct}, 0);
+
+    // at level 1 the window of size 5 becomes 3 x 3 pixels, sum and count are extrapolated to 5 x 5 pixels
+    RasterDataEvalEnv evalEnv = TestUtils.createLevelEnv(ones, 1, new Rectangle(0, 0, 10, 10));
+    evalEnv.setElemIndex(3 * 10 + 3);
+    assertEquals(25, sumTerm.evalD(evalEnv), 1e-8);
+    assertEquals(25, countTerm.evalD(evalEnv), 1e-8);
+    assertEquals(1, meanTerm.evalD(evalEnv), 1e-8);
+    // at the corner only 2 x 2 pixels of the window are within the image
+    evalEnv.setElemIndex(0);
+    assertEquals(4 * 25 / 9.0, countTerm.evalD(evalEnv), 1e-8);
+  }
+
+  @Test
+  void testCountFunction() throws ParseException {
+    Term term = BandArithmetic.parseExpression("wnd(B1, 3, \"count\")", new Product[]{product}, 0);
+
+    RasterDataEvalEnv evalEnv = new RasterDataEvalEnv(0, 0, W, H);
+    evalEnv.setElemIndex(toElemIndex(0, 0));
+    assertEquals(2, term.evalD(evalEnv));
+    evalEnv.setElemIndex(toElemIndex(9, 0));
+    assertEquals(4, term.evalD(evalEnv));
+    evalEnv.setElemIndex(toElemIndex(5, 4));
+    assertEquals(4, term.evalD(evalEnv));
+    evalEnv.setElemIndex(toElemIndex(8, 7));
+    assertEquals(9, term.evalD(evalEnv));
+
+    evalEnv.setElemIndex(toElemIndex(1, 8)); // all NaN
+    assertEquals(0, term.evalD(evalEnv));
+    evalEnv.setElemIndex(toElemIndex(5, 8)); // all Inv
+    assertEquals(0, term.evalD(evalEnv));
+  }
+
+  @Test
+  void testVarAndStdFunction() throws ParseException {
+    Term varTerm = BandArithmetic.parseExpression("wnd(B1, 3, \"var\")", new Product[]{product}, 0);
+    Term stdTerm = BandArithmetic.parseExpression("wnd(B1, 3, \"std\")", new Product[]{product}, 0);
+
+    RasterDataEvalEnv evalEnv = new RasterDataEvalEnv(0, 0, W, H);
+    evalEnv.setElemIndex(toElemIndex(0, 0));
+    assertEquals(25, varTerm.evalD(evalEnv), 1e-8);
+    assertEquals(5, stdTerm.evalD(evalEnv), 1e-8);
+    evalEnv.setElemIndex(toElemIndex(9, 0));
+    assertEquals(25.25, varTerm.evalD(evalEnv), 1e-8);
+    assertEquals(5.02493781, stdTerm.evalD(evalEnv), 1e-8);
+    evalEnv.setElemIndex(toElemIndex(8, 7));
+    assertEquals(67.33333333, varTerm.evalD(evalEnv), 1e-8);
+    assertEquals(8.20568908, stdTerm.evalD(evalEnv), 1e-8);
+
+    evalEnv.setElemIndex(toElemIndex(1, 8)); // all NaN
+    assertEquals(Double.NaN, varTerm.evalD(evalEnv));
+    assertEquals(Double.NaN, stdTerm.evalD(evalEnv));
+  }
+
+  @Test
+  void testRangeFunction() throws ParseException {
+    Term term = BandArithmetic.parseExpression("wnd(B1, 3, \"range\")", new Product[]{product}, 0);
+
+    RasterDataEvalEnv evalEnv = new RasterDataEvalEnv(0, 0, W, H);
+    evalEnv.setElemIndex(toElemIndex(0, 0));
+    assertEquals(10, term.evalD(evalEnv));
+    evalEnv.setElemIndex(toElemIndex(5, 4));
+    assertEquals(22, term.evalD(evalEnv));
+    evalEnv.setElemIndex(toElemIndex(5, 5));
+    assertEquals(12, term.evalD(evalEnv));
+
+    evalEnv.setElemIndex(toElemIndex(5, 8)); // all Inv
+    assertEquals(Double.NaN, term.evalD(evalEnv));
+  }
+
+  @Test
+  void testPercentileFunction() throws ParseException {
+    Term p25Term = BandArithmetic.parseExpression("wnd(B1, 3, \"p25\")", new Product[]{product}, 0);
+    Term p90Term = BandArithmetic.parseExpression("wnd(B1, 3, \"p90\")", new Product[]{product}, 0);
+    Term p100Term = BandArithmetic.parseExpression("wnd(B1, 3, \"p100\")", new Product[]{product}, 0);
+
+    RasterDataEvalEnv evalEnv = new RasterDataEvalEnv(0, 0, W, H);
+    evalEnv.setElemIndex(toElemIndex(9, 0));
+    assertEquals(8.75, p25Term.evalD(evalEnv), 1e-8);
+    assertEquals(18.7, p90Term.evalD(evalEnv), 1e-8);
+    assertEquals(19, p100Term.evalD(evalEnv), 1e-8);
+    evalEnv.setElemIndex(toElemIndex(8, 7));
+    assertEquals(69, p25Term.evalD(evalEnv), 1e-8);
+    assertEquals(88.2, p90Term.evalD(evalEnv), 1e-8);
+    assertEquals(89, p100Term.evalD(evalEnv), 1e-8);
+
+    evalEnv.setElemIndex(toElemIndex(1, 8)); // all NaN
+    assertEquals(Double.NaN, p25Term.evalD(evalEnv));
+  }
+
+  @Test
+  void testLargeWindows() throws ParseException {
+    Term sumTerm = BandArithmetic.parseExpression("wnd(B1, 5, \"sum\")", new Product[]{product}, 0);
+    Term meanTerm = BandArithmetic.parseExpression("wnd(B1, 21, \"mean\")", new Product[]{product}, 0);
+
+    RasterDataEvalEnv evalEnv = new RasterDataEvalEnv(0, 0, W, H);
+    evalEnv.setElemIndex(toElemIndex(0, 0));
+    assertEquals(69, sumTerm.evalD(evalEnv));
+    evalEnv.setElemIndex(toElemIndex(5, 5));
+    assertEquals(860, sumTerm.evalD(evalEnv));
+    evalEnv.setElemIndex(toElemIndex(9, 9));
+    assertEquals(693, sumTerm.evalD(evalEnv));
+
+    // the window covers the whole raster
+    evalEnv.setElemIndex(toElemIndex(0, 0));
+    assertEquals(2812 / 65., meanTerm.evalD(evalEnv), 1e-8);
+    evalEnv.setElemIndex(toElemIndex(9, 9));
+    assertEquals(2812 / 65., meanTerm.evalD(evalEnv), 1e-8);
+  }
+
+  @Test
+  void testSumMeanAndVar_WithInfiniteSample() throws ParseException {
+    product.getBand("B1").getData().setElemDoubleAt(toElemIndex(2, 2), Double.POSITIVE_INFINITY);
+    Term sumTerm = BandArithmetic.parseExpression("wnd(B1, 3, \"sum\")", new Product[]{product}, 0);
+    Term meanTerm = BandArithmetic.parseExpression("wnd(B1, 3, \"mean\")", new Product[]{product}, 0);
+    Term varTerm = BandArithmetic.parseExpression("wnd(B1, 3, \"var\")", new Product[]{product}, 0);
+
+    RasterDataEvalEnv evalEnv = new RasterDataEvalEnv(0, 0, W, H);
+    evalEnv.setElemIndex(toElemIndex(3, 3));
+    assertEquals(Double.POSITIVE_INFINITY, sumTerm.evalD(evalEnv));
+    assertEquals(Double.POSITIVE_INFINITY, meanTerm.evalD(evalEnv));
+    assertEquals(Double.NaN, varTerm.evalD(evalEnv));
+    // windows below and right of the infinite sample are not affected
+    evalEnv.setElemIndex(toElemIndex(7, 7));
+    assertEquals(531, sumTerm.evalD(evalEnv), 1.0e-8);
+    assertEquals(531 / 7.0, meanTerm.evalD(evalEnv), 1.0e-8);
+    assertEquals(73.55102041, varTerm.evalD(evalEnv), 1.0e-8);
+  }
+
+  @Test
+  void testNestedWindowOfVirtualBand() throws ParseException {
+    // reading the virtual band computes its tile on the same thread while the outer tile is evaluated
+    product.addBand("MAX3", "wnd(B1, 3, \"max\")");
+    Term innerTerm = BandArithmetic.parseExpression("wnd(B1, 3, \"max\")", new Product[]{product}, 0);
+    Term outerTerm = BandArithmetic.parseExpression("wnd(MAX3, 3, \"min\")", new Product[]{product}, 0);
+
+    double[] inner = new double[W * H];
+    RasterDataEvalEnv innerEnv = new RasterDataEvalEnv(0, 0, W, H);
+    for (int i = 0; i < inner.length; i++) {
+      innerEnv.setElemIndex(i);
+      inner[i] = innerTerm.evalD(innerEnv);
+    }
+
+    RasterDataEvalEnv evalEnv = new RasterDataEvalEnv(0, 0, W, H);
+    for (int y = 0; y < H; y++) {
+      for (int x = 0; x < W; x++) {
+        double expected = Double.NaN;
+        for (int j = Math.max(0, y - 1); j <= Math.min(H - 1, y + 1); j++) {
+          for (int i = Math.max(0, x - 1); i <= Math.min(W - 1, x + 1); i++) {
+            double value = inner[toElemIndex(i, j)];
+            if (!Double.isNaN(value) && !(value >= expected)) {
+              expected = value;
+            }
+          }
+        }
+        evalEnv.setElemIndex(toElemIndex(x, y));
+        assertEquals(expected, outerTerm.evalD(evalEnv), 1.0e-6, "at " + x + "," + y);
+      }
+    }
+  }
+
   @Test
   public void testException() {
     RasterDataEvalEnv evalEnv = new RasterDataEvalEnv(0, 0, W, H);
@@ -188,11 +428,26 @@ class WindowFunctionsTest {
       secondArgInvalidTerm.evalD(evalEnv);
     });
 
+    assertThrows(EvalException.class, () -> {
+      Term secondArgInvalidTerm = BandArithmetic.parseExpression("wnd(B1, 1, \"sum\")", new Product[]{product}, 0);
+      secondArgInvalidTerm.evalD(evalEnv);
+    });
+
+    assertThrows(EvalException.class, () -> {
+      Term secondArgInvalidTerm = BandArithmetic.parseExpression("wnd(B1, 503, \"sum\")", new Product[]{product}, 0);
+      secondArgInvalidTerm.evalD(evalEnv);
+    });
+
     assertThrows(EvalException.class, () -> {
       Term thirdArgInvalidTerm = BandArithmetic.parseExpression("wnd(B1, 5, \"inv\")", new Product[]{product}, 0);
       thirdArgInvalidTerm.evalD(evalEnv);
     });
 
+    assertThrows(EvalException.class, () -> {
+      Term thirdArgInvalidTerm = BandArithmetic.parseExpression("wnd(B1, 5, \"p101\")", new Product[]{product}, 0);
+      thirdArgInvalidTerm.evalD(evalEnv);
+    });
+
     assertThrows(EvalException.class, () -> {
       Term thirdArgInvalidTerm = BandArithmetic.parseExpression("wnd(B1, 5, 1)", new Product[]{product}, 0);
       thirdArgInvalidTerm.evalD(evalEnv);
@@ -0,0 +1,118 @@
+/*-
+ * ========================LICENSE_START=================================
+ * EOMTBX - EOMasters Toolbox Basic for SNAP
+ * -> https://www.eomasters.org/sw/EOMTBX
+ * ======================================================================
+ * Copyright (C) 2023 - 2025 Marco Peters
+ * ======================================================================
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * -> http://www.gnu.org/licenses/gpl-3.0.html
+ * =========================LICENSE_END==================================
+ */
+
+package org.eomasters.eomtbx.bandmathsext;
+
+import static org.eomasters.eomtbx.TestUtils.toElemIndex;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.eomasters.eomtbx.TestUtils;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.dataop.barithm.BandArithmetic;
+import org.esa.snap.core.dataop.barithm.RasterDataEvalEnv;
+import org.esa.snap.core.jexp.EvalException;
+import org.esa.snap.core.jexp.ParseException;
+import org.esa.snap.core.jexp.Term;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class WindowPairFunctionsTest {
+
+  private static Product product;
+  private RasterDataEvalEnv evalEnv;
+
+  @BeforeEach
+  void beforeEach() {
+    product = TestUtils.createProduct();
+    evalEnv = new RasterDataEvalEnv(0, 0, product.getSceneRasterWidth(), product.getSceneRasterHeight());
+  }
+
+  // B2 is twice B1, where both are valid
+  @Test
+  void testCovariance() throws ParseException {
+    Term term = BandArithmetic.parseExpression("wndCov(B1, B2, 3)", new Product[]{product}, 0);
+
+    evalEnv.setElemIndex(toElemIndex(2, 2));
+    // variance of x is 2/3 and of 10 * y is 200/3
+    assertEquals(2 * (2.0 / 3 + 200.0 / 3), term.evalD(evalEnv), 1.0e-8);
+    evalEnv.setElemIndex(toElemIndex(4, 2)); // column 5 is invalid
+    assertEquals(2 * (0.25 + 200.0 / 3), term.evalD(evalEnv), 1.0e-8);
+  }
+
+  @Test
+  void testCorrelation() throws ParseException {
+    Term term = BandArithmetic.parseExpression("wndCorr(B1, B2, 5)", new Product[]{product}, 0);
+
+    evalEnv.setElemIndex(toElemIndex(2, 2));
+    assertEquals(1.0, term.evalD(evalEnv), 1.0e-8);
+    evalEnv.setElemIndex(toElemIndex(7, 7));
+    assertEquals(1.0, term.evalD(evalEnv), 1.0e-8);
+  }
+
+  @Test
+  void testCorrelation_equalsWindowFunctions() throws ParseException {
+    product.addBand("C", "B1 % 7 + 2 * B2 % 3");
+    Term corrTerm = BandArithmetic.parseExpression("wndCorr(B1, C, 3)", new Product[]{product}, 0);
+    Term covTerm = BandArithmetic.parseExpression("wndCov(B1, C, 3)", new Product[]{product}, 0);
+    Term b1StdTerm = BandArithmetic.parseExpression("wnd(B1, 3, \"std\")", new Product[]{product}, 0);
+    Term cStdTerm = BandArithmetic.parseExpression("wnd(C, 3, \"std\")", new Product[]{product}, 0);
+
+    evalEnv.setElemIndex(toElemIndex(2, 2));
+    double expected = covTerm.evalD(evalEnv) / (b1StdTerm.evalD(evalEnv) * cStdTerm.evalD(evalEnv));
+    assertEquals(expected, corrTerm.evalD(evalEnv), 1.0e-8);
+  }
+
+  @Test
+  void testConstantRaster_correlationIsNaN() throws ParseException {
+    product.addBand("flat", "1.0");
+    Term corrTerm = BandArithmetic.parseExpression("wndCorr(B1, flat, 3)", new Product[]{product}, 0);
+    Term covTerm = BandArithmetic.parseExpression("wndCov(B1, flat, 3)", new Product[]{product}, 0);
+
+    evalEnv.setElemIndex(toElemIndex(2, 2));
+    assertEquals(Double.NaN, corrTerm.evalD(evalEnv));
+    assertEquals(0.0, covTerm.evalD(evalEnv), 1.0e-8);
+  }
+
+  @Test
+  void testCorrelation_WithInfiniteSample() throws ParseException {
+    product.getBand("B1").getData().setElemDoubleAt(toElemIndex(2, 2), Double.POSITIVE_INFINITY);
+    Term corrTerm = BandArithmetic.parseExpression("wndCorr(B1, B2, 3)", new Product[]{product}, 0);
+    Term covTerm = BandArithmetic.parseExpression("wndCov(B1, B2, 3)", new Product[]{product}, 0);
+
+    evalEnv.setElemIndex(toElemIndex(3, 3));
+    assertEquals(Double.NaN, corrTerm.evalD(evalEnv));
+    assertEquals(Double.NaN, covTerm.evalD(evalEnv));
+    // windows below and right of the infinite sample are not affected
+    evalEnv.setElemIndex(toElemIndex(7, 7));
+    assertEquals(1.0, corrTerm.evalD(evalEnv), 1.0e-8);
+  }
+
+  @Test
+  void testInvalidArguments() throws ParseException {
+    Term sizeTerm = BandArithmetic.parseExpression("wndCorr(B1, B2, 4)", new Product[]{product}, 0);
+    assertThrows(EvalException.class, () -> sizeTerm.evalD(evalEnv));
+    Term exprTerm = BandArithmetic.parseExpression("wndCov(B1, B2 * 2, 3)", new Product[]{product}, 0);
+    assertThrows(EvalException.class, () -> exprTerm.evalD(evalEnv));
+  }
+}
@@ -0,0 +1,95 @@
+/*-
+ * ========================LICENSE_START=================================
+ * EOMTBX - EOMasters Toolbox Basic for SNAP
+ * -> https://www.eomasters.org/sw/EOMTBX
+ * ======================================================================
+ * Copyright (C) 2023 - 2025 Marco Peters
+ * ======================================================================
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * -> http://www.gnu.org/licenses/gpl-3.0.html
+ * =========================LICENSE_END==================================
+ */
+
+package org.eomasters.eomtbx.bandmathsext;
+
+import static org.eomasters.eomtbx.TestUtils.toElemIndex;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.eomasters.eomtbx.TestUtils;
+import org.esa.snap.core.datamodel.Band;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.dataop.barithm.BandArithmetic;
+import org.esa.snap.core.dataop.barithm.RasterDataEvalEnv;
+import org.esa.snap.core.jexp.EvalException;
+import org.esa.snap.core.jexp.ParseException;
+import org.esa.snap.core.jexp.Term;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ZonalFunctionTest {
+
+  private static Product product;
+  private RasterDataEvalEnv evalEnv;
+
+  @BeforeEach
+  void beforeEach() {
+    product = TestUtils.createProduct();
+    // zone 1 are the upper five rows, zone 2 the lower five rows, the first column has no zone
+    Band zone = product.addBand("zone", "Y < 5 ? 1 : 2");
+    zone.setValidPixelExpression("X > 1");
+    evalEnv = new RasterDataEvalEnv(0, 0, product.getSceneRasterWidth(), product.getSceneRasterHeight());
+  }
+
+  @Test
+  void testStatistics() throws ParseException {
+    assertEquals(38.0, evalD("zonal(B1, \"count\", zone)", 3, 3), 1.0e-8);
+    assertEquals(27.0, evalD("zonal(B1, \"count\", zone)", 8, 8), 1.0e-8);
+    assertEquals(910.0, evalD("zonal(B1, \"sum\", zone)", 3, 3), 1.0e-8);
+    assertEquals(1902.0, evalD("zonal(B1, \"sum\", zone)", 8, 8), 1.0e-8);
+    assertEquals(910.0 / 38, evalD("zonal(B1, \"mean\", zone)", 5, 0), 1.0e-8);
+    assertEquals(1.0, evalD("zonal(B1, \"min\", zone)", 9, 4), 1.0e-8);
+    assertEquals(98.0, evalD("zonal(B1, \"max\", zone)", 1, 5), 1.0e-8);
+    assertEquals(14.007417900265807, evalD("zonal(B1, \"std\", zone)", 2, 2), 1.0e-8);
+  }
+
+  @Test
+  void testAnomaly() throws ParseException {
+    // the value of the pixel relative to the mean of its zone
+    double expected = 57 - 1902.0 / 27;
+    assertEquals(expected, evalD("B1 - zonal(B1, \"mean\", zone)", 7, 5), 1.0e-8);
+  }
+
+  @Test
+  void testInvalidZone_isNaN() throws ParseException {
+    assertEquals(Double.NaN, evalD("zonal(B1, \"mean\", zone)", 0, 3));
+  }
+
+  @Test
+  void testInvalidArguments() throws ParseException {
+    Term functionTerm = BandArithmetic.parseExpression("zonal(B1, \"median\", zone)", new Product[]{product}, 0);
+    assertThrows(EvalException.class, () -> functionTerm.evalD(evalEnv));
+    Term exprTerm = BandArithmetic.parseExpression("zonal(B1, \"mean\", zone + 1)", new Product[]{product}, 0);
+    assertThrows(EvalException.class, () -> exprTerm.evalD(evalEnv));
+    Term pixelTerm = BandArithmetic.parseExpression("zonal(B1, X > 5 ? \"max\" : \"min\", zone)",
+        new Product[]{product}, 0);
+    assertThrows(EvalException.class, () -> pixelTerm.evalD(evalEnv));
+  }
+
+  private double evalD(String expression, int x, int y) throws ParseException {
+    Term term = BandArithmetic.parseExpression(expression, new Product[]{product}, 0);
+    evalEnv.setElemIndex(toElemIndex(x, y));
+    return term.evalD(evalEnv);
+  }
+}